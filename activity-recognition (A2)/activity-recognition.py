@@ -167,6 +167,19 @@ try:
                         t = threading.Thread(target=predict, args=(np.asarray(sensor_data[:]),))
                         t.start()
                         index = 0
+                elif (sensor_type == u"SENSOR_ACCEL_BATCH"):
+                    # a batch of samples, as parallel arrays, oldest first
+                    batch = data['data']
+                    for x, y, z in zip(batch['x'], batch['y'], batch['z']):
+                        sensor_data.append(reorient(x,y,z))
+                        index+=1
+                        while len(sensor_data) > window_size:
+                            sensor_data.pop(0)
+
+                        if (index >= step_size and len(sensor_data) == window_size):
+                            t = threading.Thread(target=predict, args=(np.asarray(sensor_data[:]),))
+                            t.start()
+                            index = 0
 
             sys.stdout.flush()
         except KeyboardInterrupt:
@@ -0,0 +1,342 @@
+package cs.umass.edu.myactivitiestoolkit.audio;
+
+import java.util.Arrays;
+
+/**
+ * Encodes blocks of 16-bit PCM audio into compact binary frames, and decodes them on the
+ * receiving side. A frame is a {@link #HEADER_SIZE}-byte header followed by the samples
+ * in one of the {@link Codec codecs}:
+ * <pre>
+ *   offset  size  field
+ *        0     2  magic, the ASCII characters "AF"
+ *        2     1  format version, currently 1
+ *        3     1  codec id, see {@link Codec}
+ *        4     4  sample rate in Hz, big-endian
+ *        8     4  number of samples, big-endian
+ *       12     -  payload
+ * </pre>
+ * The payload of each codec is:
+ * <ul>
+ *     <li>{@link Codec#RAW}: each sample as 2 bytes, little-endian.</li>
+ *     <li>{@link Codec#DELTA_VARINT}: lossless. Each sample minus the previous one (the
+ *     first minus 0), zigzag-mapped to an unsigned value and written as a little-endian
+ *     base-128 varint, 1 byte for deltas within [-64, 63].</li>
+ *     <li>{@link Codec#IMA_ADPCM}: lossy, 4 bits per sample. The initial predictor as 2
+ *     bytes, little-endian, and the initial step index as 1 byte, followed by one IMA
+ *     ADPCM code per sample, two per byte, the first in the low nibble.</li>
+ * </ul>
+ */
+public class AudioFrameCodec {
+
+    /** The number of bytes before the payload. */
+    public static final int HEADER_SIZE = 12;
+
+    private static final byte MAGIC_0 = 'A';
+
+    private static final byte MAGIC_1 = 'F';
+
+    private static final byte VERSION = 1;
+
+    /** The sample encodings of a frame. */
+    public enum Codec {
+        RAW(0),
+        DELTA_VARINT(1),
+        IMA_ADPCM(2);
+
+        private final int id;
+
+        Codec(int id) {
+            this.id = id;
+        }
+
+        /**
+         * @return the id identifying the codec in the frame header.
+         */
+        public int getId() {
+            return id;
+        }
+
+        static Codec fromId(int id) {
+            for (Codec codec : values()) {
+                if (codec.id == id) {
+                    return codec;
+                }
+            }
+            throw new IllegalArgumentException("Unknown audio codec " + id);
+        }
+    }
+
+    /**
+     * A decoded frame.
+     */
+    public static class Frame {
+
+        private final Codec codec;
+
+        private final int sampleRate;
+
+        private final short[] samples;
+
+        Frame(Codec codec, int sampleRate, short[] samples) {
+            this.codec = codec;
+            this.sampleRate = sampleRate;
+            this.samples = samples;
+        }
+
+        public Codec getCodec() {
+            return codec;
+        }
+
+        public int getSampleRate() {
+            return sampleRate;
+        }
+
+        public short[] getSamples() {
+            return samples;
+        }
+    }
+
+    private static final int[] ADPCM_INDEX_TABLE = {
+            -1, -1, -1, -1, 2, 4, 6, 8,
+            -1, -1, -1, -1, 2, 4, 6, 8
+    };
+
+    private static final int[] ADPCM_STEP_TABLE = {
+            7, 8, 9, 10, 11, 12, 13, 14, 16, 17,
+            19, 21, 23, 25, 28, 31, 34, 37, 41, 45,
+            50, 55, 60, 66, 73, 80, 88, 97, 107, 118,
+            130, 143, 157, 173, 190, 209, 230, 253, 279, 307,
+            337, 371, 408, 449, 494, 544, 598, 658, 724, 796,
+            876, 963, 1060, 1166, 1282, 1411, 1552, 1707, 1878, 2066,
+            2272, 2499, 2749, 3024, 3327, 3660, 4026, 4428, 4871, 5358,
+            5894, 6484, 7132, 7845, 8630, 9493, 10442, 11487, 12635, 13899,
+            15289, 16818, 18500, 20350, 22385, 24623, 27086, 29794, 32767
+    };
+
+    private AudioFrameCodec() {
+    }
+
+    /**
+     * @return the largest frame the given number of samples can be encoded into.
+     */
+    public static int getMaxFrameSize(int numSamples, Codec codec) {
+        switch (codec) {
+            case RAW:
+                return HEADER_SIZE + 2 * numSamples;
+            case DELTA_VARINT:
+                // a zigzagged 17-bit delta takes at most 3 varint bytes
+                return HEADER_SIZE + 3 * numSamples;
+            default:
+                return HEADER_SIZE + 3 + (numSamples + 1) / 2;
+        }
+    }
+
+    /**
+     * Encodes samples into a new frame.
+     * @param samples the audio samples
+     * @param offset the index of the first sample to encode
+     * @param length the number of samples to encode
+     * @param sampleRate the sample rate, in Hz
+     * @param codec the encoding of the samples
+     * @return the frame
+     */
+    public static byte[] encode(short[] samples, int offset, int length, int sampleRate, Codec codec) {
+        byte[] frame = new byte[getMaxFrameSize(length, codec)];
+        int size = encode(samples, offset, length, sampleRate, codec, frame, 0);
+        return size == frame.length ? frame : Arrays.copyOf(frame, size);
+    }
+
+    /**
+     * Encodes samples into a frame in the given array, without allocating.
+     * @param out receives the frame, which takes at most {@link #getMaxFrameSize(int, Codec)} bytes
+     * @param outOffset the index in out of the first byte of the frame
+     * @return the size of the frame, in bytes
+     * @see #encode(short[], int, int, int, Codec)
+     */
+    public static int encode(short[] samples, int offset, int length, int sampleRate, Codec codec,
+                             byte[] out, int outOffset) {
+        out[outOffset] = MAGIC_0;
+        out[outOffset + 1] = MAGIC_1;
+        out[outOffset + 2] = VERSION;
+        out[outOffset + 3] = (byte) codec.getId();
+        putIntBigEndian(out, outOffset + 4, sampleRate);
+        putIntBigEndian(out, outOffset + 8, length);
+        int position = outOffset + HEADER_SIZE;
+
+        switch (codec) {
+            case RAW:
+                for (int i = 0; i < length; i++) {
+                    short sample = samples[offset + i];
+                    out[position++] = (byte) sample;
+                    out[position++] = (byte) (sample >> 8);
+                }
+                break;
+            case DELTA_VARINT:
+                int previous = 0;
+                for (int i = 0; i < length; i++) {
+                    int sample = samples[offset + i];
+                    int delta = sample - previous;
+                    previous = sample;
+                    int zigzag = (delta << 1) ^ (delta >> 31);
+                    while ((zigzag & ~0x7F) != 0) {
+                        out[position++] = (byte) ((zigzag & 0x7F) | 0x80);
+                        zigzag >>>= 7;
+                    }
+                    out[position++] = (byte) zigzag;
+                }
+                break;
+            case IMA_ADPCM:
+                position = encodeAdpcm(samples, offset, length, out, position);
+                break;
+        }
+        return position - outOffset;
+    }
+
+    private static int encodeAdpcm(short[] samples, int offset, int length, byte[] out, int position) {
+        int predictor = length > 0 ? samples[offset] : 0;
+        int index = 0;
+        out[position++] = (byte) predictor;
+        out[position++] = (byte) (predictor >> 8);
+        out[position++] = (byte) index;
+
+        for (int i = 0; i < length; i++) {
+            int step = ADPCM_STEP_TABLE[index];
+            int diff = samples[offset + i] - predictor;
+            int code = 0;
+            if (diff < 0) {
+                code = 8;
+                diff = -diff;
+            }
+            // quantize the difference to 3 bits, accumulating the value the decoder reconstructs
+            int delta = step >> 3;
+            if (diff >= step) {
+                code |= 4;
+                diff -= step;
+                delta += step;
+            }
+            step >>= 1;
+            if (diff >= step) {
+                code |= 2;
+                diff -= step;
+                delta += step;
+            }
+            step >>= 1;
+            if (diff >= step) {
+                code |= 1;
+                delta += step;
+            }
+            predictor = clampSample((code & 8) != 0 ? predictor - delta : predictor + delta);
+            index = clampIndex(index + ADPCM_INDEX_TABLE[code]);
+
+            if ((i & 1) == 0) {
+                out[position] = (byte) code;
+            } else {
+                out[position++] |= (byte) (code << 4);
+            }
+        }
+        if ((length & 1) != 0) {
+            position++;
+        }
+        return position;
+    }
+
+    /**
+     * Decodes a frame.
+     * @param frame the frame
+     * @return the codec, sample rate and samples of the frame
+     * @throws IllegalArgumentException if the frame is malformed
+     */
+    public static Frame decode(byte[] frame) {
+        if (frame.length < HEADER_SIZE || frame[0] != MAGIC_0 || frame[1] != MAGIC_1) {
+            throw new IllegalArgumentException("Not an audio frame");
+        }
+        if (frame[2] != VERSION) {
+            throw new IllegalArgumentException("Unsupported audio frame version " + frame[2]);
+        }
+        Codec codec = Codec.fromId(frame[3]);
+        int sampleRate = getIntBigEndian(frame, 4);
+        int length = getIntBigEndian(frame, 8);
+        // no codec takes less than half a byte per sample
+        if (length < 0 || length > 2L * (frame.length - HEADER_SIZE)) {
+            throw new IllegalArgumentException("Invalid number of samples " + length);
+        }
+        short[] samples = new short[length];
+        int position = HEADER_SIZE;
+
+        try {
+            switch (codec) {
+                case RAW:
+                    for (int i = 0; i < length; i++) {
+                        samples[i] = (short) ((frame[position] & 0xFF) | (frame[position + 1] << 8));
+                        position += 2;
+                    }
+                    break;
+                case DELTA_VARINT:
+                    int previous = 0;
+                    for (int i = 0; i < length; i++) {
+                        int zigzag = 0;
+                        int shift = 0;
+                        byte b;
+                        do {
+                            b = frame[position++];
+                            zigzag |= (b & 0x7F) << shift;
+                            shift += 7;
+                        } while ((b & 0x80) != 0);
+                        previous += (zigzag >>> 1) ^ -(zigzag & 1);
+                        samples[i] = (short) previous;
+                    }
+                    break;
+                case IMA_ADPCM:
+                    decodeAdpcm(frame, position, samples);
+                    break;
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Truncated audio frame", e);
+        }
+        return new Frame(codec, sampleRate, samples);
+    }
+
+    private static void decodeAdpcm(byte[] frame, int position, short[] samples) {
+        int predictor = (short) ((frame[position] & 0xFF) | (frame[position + 1] << 8));
+        int index = clampIndex(frame[position + 2]);
+        position += 3;
+
+        for (int i = 0; i < samples.length; i++) {
+            int code = (i & 1) == 0 ? frame[position] & 0x0F : (frame[position++] >> 4) & 0x0F;
+            int step = ADPCM_STEP_TABLE[index];
+            int delta = step >> 3;
+            if ((code & 4) != 0) {
+                delta += step;
+            }
+            if ((code & 2) != 0) {
+                delta += step >> 1;
+            }
+            if ((code & 1) != 0) {
+                delta += step >> 2;
+            }
+            predictor = clampSample((code & 8) != 0 ? predictor - delta : predictor + delta);
+            index = clampIndex(index + ADPCM_INDEX_TABLE[code]);
+            samples[i] = (short) predictor;
+        }
+    }
+
+    private static int clampSample(int sample) {
+        return Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, sample));
+    }
+
+    private static int clampIndex(int index) {
+        return Math.max(0, Math.min(ADPCM_STEP_TABLE.length - 1, index));
+    }
+
+    private static void putIntBigEndian(byte[] out, int offset, int value) {
+        out[offset] = (byte) (value >> 24);
+        out[offset + 1] = (byte) (value >> 16);
+        out[offset + 2] = (byte) (value >> 8);
+        out[offset + 3] = (byte) value;
+    }
+
+    private static int getIntBigEndian(byte[] in, int offset) {
+        return (in[offset] & 0xFF) << 24 | (in[offset + 1] & 0xFF) << 16
+                | (in[offset + 2] & 0xFF) << 8 | (in[offset + 3] & 0xFF);
+    }
+}
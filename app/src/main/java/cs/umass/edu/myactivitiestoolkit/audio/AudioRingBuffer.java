@@ -0,0 +1,177 @@
+package cs.umass.edu.myactivitiestoolkit.audio;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A lock-free ring of audio blocks, written by a single producer and read by any number
+ * of consumers, each at its own pace.
+ * <br><br>
+ * Blocks are pooled and reference-counted, so consumers read the recorded samples in
+ * place, without copying. The producer fills a block from the pool and publishes it
+ * into the next slot of the ring, dropping the ring's reference to the block it
+ * replaces. A consumer {@link #acquire(long) acquires} the block of the sequence number
+ * it wants to read, which holds the block out of the pool until it is
+ * {@link #release(Block) released}. The producer never waits for a consumer: if the
+ * pool is empty because consumers hold on to blocks, it allocates another block.
+ * <br><br>
+ * A consumer which falls more than {@link #getCapacity()} blocks behind has lost the
+ * oldest of them to newer audio. It is up to the consumer to skip ahead, e.g. to the
+ * oldest block still in the ring, and to account for the blocks it dropped.
+ */
+public class AudioRingBuffer {
+
+    /**
+     * A block of audio samples. The samples are shared by all consumers and must not be
+     * modified.
+     */
+    public static final class Block {
+
+        private final short[] data;
+
+        private int length;
+
+        private long sequence;
+
+        /** The references held by the ring and by consumers; 0 while pooled or being written. */
+        private final AtomicInteger references = new AtomicInteger();
+
+        private Block(int blockSize) {
+            data = new short[blockSize];
+        }
+
+        /**
+         * @return the samples. Only the first {@link #getLength()} are valid.
+         */
+        public short[] getData() {
+            return data;
+        }
+
+        /**
+         * @return the number of samples in the block.
+         */
+        public int getLength() {
+            return length;
+        }
+    }
+
+    private final int blockSize;
+
+    private final AtomicReferenceArray<Block> slots;
+
+    private final ConcurrentLinkedQueue<Block> pool = new ConcurrentLinkedQueue<>();
+
+    /** The number of blocks published so far, which is the sequence number of the next block. */
+    private volatile long published;
+
+    /** The block being filled by the producer. */
+    private Block writing;
+
+    /**
+     * @param capacity the number of blocks kept in the ring.
+     * @param blockSize the number of samples per block.
+     */
+    public AudioRingBuffer(int capacity, int blockSize) {
+        this.blockSize = blockSize;
+        slots = new AtomicReferenceArray<>(capacity);
+        // one block per slot, plus one to write into
+        for (int i = 0; i <= capacity; i++) {
+            pool.add(new Block(blockSize));
+        }
+    }
+
+    /**
+     * Called by the producer to obtain the array to record the next block into. Repeated
+     * calls return the same array until the block is published.
+     * @return an array of {@link #getBlockSize()} samples.
+     */
+    public short[] beginWrite() {
+        if (writing == null) {
+            writing = pool.poll();
+            if (writing == null) {
+                writing = new Block(blockSize);
+            }
+        }
+        return writing.data;
+    }
+
+    /**
+     * Called by the producer to publish the block obtained from {@link #beginWrite()},
+     * replacing the oldest block in the ring.
+     * @param length the number of samples recorded into the block.
+     */
+    public void publish(int length) {
+        Block block = writing;
+        writing = null;
+        long sequence = published;
+        block.length = length;
+        block.sequence = sequence;
+        // makes the samples, length and sequence visible to consumers which acquire the block
+        block.references.set(1);
+        Block replaced = slots.getAndSet((int) (sequence % slots.length()), block);
+        published = sequence + 1;
+        if (replaced != null) {
+            release(replaced);
+        }
+    }
+
+    /**
+     * @return the number of blocks published so far, i.e. the sequence number of the next block.
+     */
+    public long getPublished() {
+        return published;
+    }
+
+    /**
+     * Acquires the block with the given sequence number, which must be less than
+     * {@link #getPublished()}. The block must be released once it has been read.
+     * @param sequence the sequence number of the block.
+     * @return the block, or null if it has already been overwritten.
+     */
+    public Block acquire(long sequence) {
+        Block block = slots.get((int) (sequence % slots.length()));
+        if (block == null) {
+            return null;
+        }
+        while (true) {
+            int references = block.references.get();
+            if (references == 0) {
+                // returned to the pool, or being rewritten
+                return null;
+            }
+            if (block.references.compareAndSet(references, references + 1)) {
+                break;
+            }
+        }
+        if (block.sequence != sequence) {
+            // the slot was reused for a newer block
+            release(block);
+            return null;
+        }
+        return block;
+    }
+
+    /**
+     * Releases a block obtained from {@link #acquire(long)}.
+     */
+    public void release(Block block) {
+        if (block.references.decrementAndGet() == 0) {
+            pool.offer(block);
+        }
+    }
+
+    /**
+     * @return the number of blocks kept in the ring.
+     */
+    public int getCapacity() {
+        return slots.length();
+    }
+
+    /**
+     * @return the number of samples per block.
+     */
+    public int getBlockSize() {
+        return blockSize;
+    }
+}
@@ -0,0 +1,67 @@
+package cs.umass.edu.myactivitiestoolkit.audio;
+
+import android.util.Base64;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import edu.umass.cs.MHLClient.sensors.SensorReading;
+
+/**
+ * Wraps an audio buffer into a sensor reading to send to the server, encoded as a
+ * compact binary {@link AudioFrameCodec frame} rather than as a JSON array of samples
+ * like {@link AudioBufferReading}. The frame is carried in base-64, since readings are
+ * sent as JSON, and decoded on the receiving side with {@link AudioFrameCodec#decode(byte[])}
+ * or an equivalent decoder.
+ * <br><br>
+ * The buffer is encoded when the reading is created, so it may be reused afterwards.
+ *
+ * @see AudioFrameCodec
+ * @see edu.umass.cs.MHLClient.client.MobileIOClient
+ */
+public class BinaryAudioReading extends SensorReading {
+
+    /** The sensor type of binary audio readings, distinct from the JSON-array readings. */
+    public static final String SENSOR_TYPE = "SENSOR_AUDIO_FRAME";
+
+    private final AudioFrameCodec.Codec codec;
+
+    /** The encoded frame. */
+    private final byte[] frame;
+
+    /**
+     * Instantiates a binary audio reading.
+     *
+     * @param userID a 10-byte hex string identifying the current user.
+     * @param deviceType describes the device.
+     * @param deviceID unique device identifier.
+     * @param t the timestamp at which the event occurred, in Unix time by convention.
+     * @param buffer the microphone data buffer
+     * @param length the number of samples in the buffer
+     * @param sampleRate the sample rate of the audio, in Hz
+     * @param codec the encoding of the samples
+     */
+    public BinaryAudioReading(String userID, String deviceType, String deviceID, long t, short[] buffer,
+                              int length, int sampleRate, AudioFrameCodec.Codec codec) {
+        super(userID, deviceType, deviceID, SENSOR_TYPE, t);
+        this.codec = codec;
+        this.frame = AudioFrameCodec.encode(buffer, 0, length, sampleRate, codec);
+    }
+
+    @Override
+    protected JSONObject toJSONObject() {
+        JSONObject obj = getBaseJSONObject();
+        JSONObject data = new JSONObject();
+
+        try {
+            data.put("t", timestamp);
+            data.put("codec", codec.name());
+            data.put("frame", Base64.encodeToString(frame, Base64.NO_WRAP));
+            obj.put("data", data);
+        } catch (JSONException e) {
+            e.printStackTrace();
+        }
+
+        return obj;
+    }
+}
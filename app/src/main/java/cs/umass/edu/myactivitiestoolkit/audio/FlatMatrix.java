@@ -0,0 +1,203 @@
+package cs.umass.edu.myactivitiestoolkit.audio;
+
+import java.util.Arrays;
+
+/**
+ * A dense matrix stored as one row-major array, for products computed on every frame.
+ * <br><br>
+ * Unlike {@link Matrix}, whose rows are separate arrays and whose
+ * {@link Matrix#times(Matrix)} allocates its result and a copy of each column of the
+ * right operand, the products here write into arrays supplied by the caller and allocate
+ * nothing. The kernels walk the arrays in storage order, in blocks of columns small
+ * enough to stay in the L1 cache while they are reused. Dot products are unrolled four
+ * times into independent sums, so they may round differently from {@link Matrix}.
+ *
+ * @see Matrix
+ */
+public class FlatMatrix {
+
+    /** The number of columns processed per block, 8 KB of doubles. */
+    private static final int BLOCK_COLUMNS = 1024;
+
+    /** The number of rows of the right operand processed per block in {@link #multiplyInto}. */
+    private static final int BLOCK_ROWS = 256;
+
+    private final int rows;
+
+    private final int columns;
+
+    /** The elements, row i at [i * columns, (i + 1) * columns). */
+    private final double[] data;
+
+    /**
+     * Constructs a matrix of zeros.
+     */
+    public FlatMatrix(int rows, int columns) {
+        this(rows, columns, new double[rows * columns]);
+    }
+
+    /**
+     * Constructs a matrix backed by the given array, without copying it.
+     * @param data the elements, row-major, at least rows x columns of them.
+     */
+    public FlatMatrix(int rows, int columns, double[] data) {
+        if (data.length < rows * columns) {
+            throw new IllegalArgumentException("The array is too short for a " + rows + "x" + columns + " matrix.");
+        }
+        this.rows = rows;
+        this.columns = columns;
+        this.data = data;
+    }
+
+    /**
+     * @return a flat copy of the given matrix.
+     */
+    public static FlatMatrix fromMatrix(Matrix matrix) {
+        int rows = matrix.getRowDimension();
+        int columns = matrix.getColumnDimension();
+        double[][] A = matrix.getArray();
+        FlatMatrix flat = new FlatMatrix(rows, columns);
+        for (int i = 0; i < rows; i++) {
+            System.arraycopy(A[i], 0, flat.data, i * columns, columns);
+        }
+        return flat;
+    }
+
+    /**
+     * @return a copy of this matrix as a {@link Matrix}.
+     */
+    public Matrix toMatrix() {
+        double[][] A = new double[rows][columns];
+        for (int i = 0; i < rows; i++) {
+            System.arraycopy(data, i * columns, A[i], 0, columns);
+        }
+        return new Matrix(A, rows, columns);
+    }
+
+    /**
+     * Computes out = this * B.
+     * @param B a matrix with as many rows as this matrix has columns.
+     * @param out receives the product; must have the rows of this matrix and the columns
+     *            of B, and must not be this matrix or B.
+     */
+    public void multiplyInto(FlatMatrix B, FlatMatrix out) {
+        if (B.rows != columns) {
+            throw new IllegalArgumentException("Matrix inner dimensions must agree.");
+        }
+        if (out.rows != rows || out.columns != B.columns) {
+            throw new IllegalArgumentException("Matrix dimensions must agree.");
+        }
+        if (out.data == data || out.data == B.data) {
+            throw new IllegalArgumentException("The product cannot be written into an operand.");
+        }
+        if (B.columns == 1) {
+            // a column vector, contiguous like a row: dot products beat updating one entry per row
+            multiplyVector(B.data, 0, out.data, 0);
+            return;
+        }
+        double[] b = B.data;
+        double[] c = out.data;
+        int n = B.columns;
+        Arrays.fill(c, 0, rows * n, 0);
+
+        // a block of B's rows at a time, so it stays cached across the rows of A
+        for (int k0 = 0; k0 < columns; k0 += BLOCK_ROWS) {
+            int k1 = Math.min(k0 + BLOCK_ROWS, columns);
+            for (int i = 0; i < rows; i++) {
+                int rowA = i * columns;
+                int rowC = i * n;
+                int j = 0;
+                // four entries of the row of C at a time, summed in registers
+                for (; j + 3 < n; j += 4) {
+                    double c0 = 0, c1 = 0, c2 = 0, c3 = 0;
+                    for (int k = k0, p = k0 * n + j; k < k1; k++, p += n) {
+                        double a = data[rowA + k];
+                        c0 += a * b[p];
+                        c1 += a * b[p + 1];
+                        c2 += a * b[p + 2];
+                        c3 += a * b[p + 3];
+                    }
+                    c[rowC + j] += c0;
+                    c[rowC + j + 1] += c1;
+                    c[rowC + j + 2] += c2;
+                    c[rowC + j + 3] += c3;
+                }
+                for (; j < n; j++) {
+                    double c0 = 0;
+                    for (int k = k0, p = k0 * n + j; k < k1; k++, p += n) {
+                        c0 += data[rowA + k] * b[p];
+                    }
+                    c[rowC + j] += c0;
+                }
+            }
+        }
+    }
+
+    /**
+     * Computes y = this * x.
+     * @param x the vector, {@link #getColumnDimension()} entries from xOffset.
+     * @param y receives the {@link #getRowDimension()} entries of the product from
+     *          yOffset; must not overlap x.
+     */
+    public void multiplyVector(double[] x, int xOffset, double[] y, int yOffset) {
+        if (columns <= BLOCK_COLUMNS) {
+            for (int i = 0; i < rows; i++) {
+                y[yOffset + i] = dot(i * columns, x, xOffset, columns);
+            }
+            return;
+        }
+        // a block of x at a time, so it stays cached across the rows
+        Arrays.fill(y, yOffset, yOffset + rows, 0);
+        for (int j0 = 0; j0 < columns; j0 += BLOCK_COLUMNS) {
+            int length = Math.min(BLOCK_COLUMNS, columns - j0);
+            for (int i = 0; i < rows; i++) {
+                y[yOffset + i] += dot(i * columns + j0, x, xOffset + j0, length);
+            }
+        }
+    }
+
+    /**
+     * @return the dot product of length elements of data from start and of x from xOffset.
+     */
+    private double dot(int start, double[] x, int xOffset, int length) {
+        // four independent sums, since the JIT does not reorder floating-point additions
+        double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        int end = length - 3;
+        int j = 0;
+        for (; j < end; j += 4) {
+            int p = start + j;
+            int q = xOffset + j;
+            s0 += data[p] * x[q];
+            s1 += data[p + 1] * x[q + 1];
+            s2 += data[p + 2] * x[q + 2];
+            s3 += data[p + 3] * x[q + 3];
+        }
+        for (; j < length; j++) {
+            s0 += data[start + j] * x[xOffset + j];
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    public double get(int i, int j) {
+        return data[i * columns + j];
+    }
+
+    public void set(int i, int j, double value) {
+        data[i * columns + j] = value;
+    }
+
+    /**
+     * @return the backing array, row-major.
+     */
+    public double[] getData() {
+        return data;
+    }
+
+    public int getRowDimension() {
+        return rows;
+    }
+
+    public int getColumnDimension() {
+        return columns;
+    }
+}
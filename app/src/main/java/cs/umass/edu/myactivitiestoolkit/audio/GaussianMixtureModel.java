@@ -0,0 +1,292 @@
+package cs.umass.edu.myactivitiestoolkit.audio;
+
+import java.util.Arrays;
+
+/**
+ * A Gaussian mixture model with diagonal covariances, used to model the distribution
+ * of a speaker's MFCC features.
+ * <br><br>
+ * Models are fitted with {@link #train(double[][], int, int, int, int)}: the means are
+ * seeded with k-means, then refined by expectation-maximization. Variances are floored
+ * to a fraction of the data's variance so that a component cannot collapse onto a few
+ * identical frames. Scoring a frame costs one pass over the means and inverse variances
+ * of each component; the normalizing constants are precomputed.
+ *
+ * @see SpeakerIdentifier
+ */
+public class GaussianMixtureModel {
+
+    /** The smallest variance of a component, as a fraction of the variance of the data. */
+    private static final double VARIANCE_FLOOR = 0.01;
+
+    /** The number of k-means iterations seeding the means. */
+    private static final int KMEANS_ITERATIONS = 10;
+
+    /** EM stops once the average log-likelihood of a frame improves by less than this. */
+    private static final double CONVERGENCE_THRESHOLD = 1e-4;
+
+    private final int numComponents;
+
+    private final int dimension;
+
+    /** The means, numComponents x dimension, row-major. */
+    private final double[] means;
+
+    /** The inverses of the variances, numComponents x dimension, row-major. */
+    private final double[] inverseVariances;
+
+    /** The log of each component's weight and normalizing constant. */
+    private final double[] logConstants;
+
+    private GaussianMixtureModel(int numComponents, int dimension) {
+        this.numComponents = numComponents;
+        this.dimension = dimension;
+        means = new double[numComponents * dimension];
+        inverseVariances = new double[numComponents * dimension];
+        logConstants = new double[numComponents];
+    }
+
+    /**
+     * Fits a model to the given frames.
+     * @param data the frames, one per row.
+     * @param numFrames the number of frames to use, the first rows of data.
+     * @param offset the index of the first feature of each frame to use.
+     * @param numComponents the number of components, which is reduced if there are too
+     *                      few frames to fit them.
+     * @param maxIterations the most EM iterations to run.
+     * @return the model.
+     */
+    public static GaussianMixtureModel train(double[][] data, int numFrames, int offset,
+                                             int numComponents, int maxIterations) {
+        if (numFrames < 2) {
+            throw new IllegalArgumentException("At least 2 frames are needed to train a model");
+        }
+        int dimension = data[0].length - offset;
+        // keep several frames per component and dimension
+        int components = Math.max(1, Math.min(numComponents, numFrames / (2 * dimension)));
+        GaussianMixtureModel model = new GaussianMixtureModel(components, dimension);
+
+        double[] floor = new double[dimension];
+        double[] mean = new double[dimension];
+        for (int n = 0; n < numFrames; n++) {
+            for (int d = 0; d < dimension; d++) {
+                mean[d] += data[n][offset + d];
+            }
+        }
+        for (int d = 0; d < dimension; d++) {
+            mean[d] /= numFrames;
+        }
+        for (int n = 0; n < numFrames; n++) {
+            for (int d = 0; d < dimension; d++) {
+                double diff = data[n][offset + d] - mean[d];
+                floor[d] += diff * diff;
+            }
+        }
+        for (int d = 0; d < dimension; d++) {
+            floor[d] = Math.max(VARIANCE_FLOOR * floor[d] / numFrames, 1e-10);
+        }
+
+        model.seed(data, numFrames, offset, floor);
+        double[] responsibilities = new double[numFrames * components];
+        double previous = Double.NEGATIVE_INFINITY;
+        for (int iteration = 0; iteration < maxIterations; iteration++) {
+            double logLikelihood = model.expectation(data, numFrames, offset, responsibilities) / numFrames;
+            model.maximization(data, numFrames, offset, responsibilities, floor);
+            if (logLikelihood - previous < CONVERGENCE_THRESHOLD) {
+                break;
+            }
+            previous = logLikelihood;
+        }
+        return model;
+    }
+
+    /**
+     * Seeds the means with k-means from frames spread evenly through the data, and sets
+     * equal weights and the variances of the clusters.
+     */
+    private void seed(double[][] data, int numFrames, int offset, double[] floor) {
+        for (int k = 0; k < numComponents; k++) {
+            int n = (int) ((long) k * numFrames / numComponents);
+            System.arraycopy(data[n], offset, means, k * dimension, dimension);
+        }
+        int[] assignments = new int[numFrames];
+        int[] counts = new int[numComponents];
+        for (int iteration = 0; iteration < KMEANS_ITERATIONS; iteration++) {
+            for (int n = 0; n < numFrames; n++) {
+                int nearest = 0;
+                double nearestDistance = Double.MAX_VALUE;
+                for (int k = 0; k < numComponents; k++) {
+                    double distance = 0;
+                    int base = k * dimension;
+                    for (int d = 0; d < dimension; d++) {
+                        double diff = data[n][offset + d] - means[base + d];
+                        distance += diff * diff;
+                    }
+                    if (distance < nearestDistance) {
+                        nearestDistance = distance;
+                        nearest = k;
+                    }
+                }
+                assignments[n] = nearest;
+            }
+            Arrays.fill(counts, 0);
+            Arrays.fill(means, 0);
+            for (int n = 0; n < numFrames; n++) {
+                int base = assignments[n] * dimension;
+                counts[assignments[n]]++;
+                for (int d = 0; d < dimension; d++) {
+                    means[base + d] += data[n][offset + d];
+                }
+            }
+            for (int k = 0; k < numComponents; k++) {
+                int base = k * dimension;
+                if (counts[k] == 0) {
+                    // re-seed an empty cluster on an arbitrary frame
+                    System.arraycopy(data[(k * 7919) % numFrames], offset, means, base, dimension);
+                    counts[k] = 1;
+                    continue;
+                }
+                for (int d = 0; d < dimension; d++) {
+                    means[base + d] /= counts[k];
+                }
+            }
+        }
+
+        double[] variances = new double[numComponents * dimension];
+        for (int n = 0; n < numFrames; n++) {
+            int base = assignments[n] * dimension;
+            for (int d = 0; d < dimension; d++) {
+                double diff = data[n][offset + d] - means[base + d];
+                variances[base + d] += diff * diff;
+            }
+        }
+        double[] weights = new double[numComponents];
+        for (int k = 0; k < numComponents; k++) {
+            weights[k] = 1.0 / numComponents;
+            for (int d = 0; d < dimension; d++) {
+                variances[k * dimension + d] /= counts[k];
+            }
+        }
+        setParameters(weights, variances, floor);
+    }
+
+    /**
+     * Computes the responsibilities of each component for each frame.
+     * @return the total log-likelihood of the data.
+     */
+    private double expectation(double[][] data, int numFrames, int offset, double[] responsibilities) {
+        double total = 0;
+        for (int n = 0; n < numFrames; n++) {
+            int base = n * numComponents;
+            double max = Double.NEGATIVE_INFINITY;
+            for (int k = 0; k < numComponents; k++) {
+                double logDensity = componentLogDensity(data[n], offset, k);
+                responsibilities[base + k] = logDensity;
+                max = Math.max(max, logDensity);
+            }
+            double sum = 0;
+            for (int k = 0; k < numComponents; k++) {
+                double p = Math.exp(responsibilities[base + k] - max);
+                responsibilities[base + k] = p;
+                sum += p;
+            }
+            for (int k = 0; k < numComponents; k++) {
+                responsibilities[base + k] /= sum;
+            }
+            total += max + Math.log(sum);
+        }
+        return total;
+    }
+
+    /**
+     * Re-estimates the weights, means and variances from the responsibilities.
+     */
+    private void maximization(double[][] data, int numFrames, int offset, double[] responsibilities,
+                              double[] floor) {
+        double[] weights = new double[numComponents];
+        double[] variances = new double[numComponents * dimension];
+        Arrays.fill(means, 0);
+        for (int n = 0; n < numFrames; n++) {
+            for (int k = 0; k < numComponents; k++) {
+                double r = responsibilities[n * numComponents + k];
+                weights[k] += r;
+                int base = k * dimension;
+                for (int d = 0; d < dimension; d++) {
+                    double x = data[n][offset + d];
+                    means[base + d] += r * x;
+                    variances[base + d] += r * x * x;
+                }
+            }
+        }
+        for (int k = 0; k < numComponents; k++) {
+            int base = k * dimension;
+            double count = Math.max(weights[k], 1e-10);
+            for (int d = 0; d < dimension; d++) {
+                means[base + d] /= count;
+                variances[base + d] = variances[base + d] / count - means[base + d] * means[base + d];
+            }
+            weights[k] = count / numFrames;
+        }
+        setParameters(weights, variances, floor);
+    }
+
+    private void setParameters(double[] weights, double[] variances, double[] floor) {
+        for (int k = 0; k < numComponents; k++) {
+            int base = k * dimension;
+            double logDeterminant = 0;
+            for (int d = 0; d < dimension; d++) {
+                double variance = Math.max(variances[base + d], floor[d]);
+                inverseVariances[base + d] = 1 / variance;
+                logDeterminant += Math.log(variance);
+            }
+            logConstants[k] = Math.log(Math.max(weights[k], 1e-10))
+                    - 0.5 * (dimension * Math.log(2 * Math.PI) + logDeterminant);
+        }
+    }
+
+    /**
+     * @return the log of the weighted density of component k at the frame.
+     */
+    private double componentLogDensity(double[] frame, int offset, int k) {
+        int base = k * dimension;
+        double distance = 0;
+        for (int d = 0; d < dimension; d++) {
+            double diff = frame[offset + d] - means[base + d];
+            distance += diff * diff * inverseVariances[base + d];
+        }
+        return logConstants[k] - 0.5 * distance;
+    }
+
+    /**
+     * @param frame the features of a frame.
+     * @param offset the index of the first feature to use, as when the model was trained.
+     * @return the log-likelihood of the frame under the model.
+     */
+    public double logLikelihood(double[] frame, int offset) {
+        // log-sum-exp over the components, in one pass
+        double result = Double.NEGATIVE_INFINITY;
+        for (int k = 0; k < numComponents; k++) {
+            double logDensity = componentLogDensity(frame, offset, k);
+            if (logDensity > result) {
+                result = logDensity + Math.log1p(Math.exp(result - logDensity));
+            } else {
+                result += Math.log1p(Math.exp(logDensity - result));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the number of components.
+     */
+    public int getNumComponents() {
+        return numComponents;
+    }
+
+    /**
+     * @return the number of features modelled.
+     */
+    public int getDimension() {
+        return dimension;
+    }
+}
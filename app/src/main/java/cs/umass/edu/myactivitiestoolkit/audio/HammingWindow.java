@@ -5,6 +5,9 @@ package cs.umass.edu.myactivitiestoolkit.audio;
  * For an explanation of why we use a Hamming window, see
  * <a href="http://stackoverflow.com/questions/5418951/what-is-the-hamming-window-for">
  * Gareth McCaughan's response</a>.
+ * <br><br>
+ * Each instance computes its own table; {@link WindowFunction} shares one table per size
+ * and also windows 16-bit samples while copying them into the FFT buffer.
  *
  * @author CS390MB
  */
@@ -1,5 +1,14 @@
 package cs.umass.edu.myactivitiestoolkit.audio;
 
+/**
+ * Computes mel-frequency cepstral coefficients from a power spectrum.
+ * <br><br>
+ * The triangular mel filters are kept both as the dense {@link #melWeights} matrix and
+ * as spans of their nonzero weights, which is what the cepstrum is computed from: each
+ * filter covers only the bins between its neighbours' centres, so each bin is visited by
+ * at most two filters rather than by all of them. The DCT is likewise kept as a
+ * {@link FlatMatrix}, applied without allocating.
+ */
 public class MFCC
 {
         private static double minMelFreq = 0;
@@ -13,19 +22,30 @@ public class MFCC
         public Matrix dctMat = null;
         public double[] lifterWeights;
 
+        /** The first bin and the number of bins of each filter's nonzero weights. */
+        private int[] melStart, melLength;
+
+        /** The nonzero weights of each filter, at melOffset[i] for filter i. */
+        private double[] melSpans;
+
+        /** The same weights rounded to floats, for single-precision spectra. */
+        private float[] melSpansFloat;
+
+        private int[] melOffset;
+
+        /** The DCT matrix, numCoeffs x melBands. */
+        private FlatMatrix dct;
+
         public MFCC(int fftSize, int numCoeffs, int melBands, double sampleRate)
         {
-            // Precompute mel-scale auditory perceptual spectrum
-            melWeights = new Matrix(melBands, fftSize, 0);
-            
             // Number of non-redundant frequency bins
             numFreqs = fftSize/2 + 1;
             this.numCoeffs = numCoeffs;
             this.melBands = melBands;
             this.sampleRate = sampleRate;
             
-            double fftFreqs[] = new double[fftSize];
-            for (int i = 0; i < fftSize; i ++)
+            double fftFreqs[] = new double[numFreqs];
+            for (int i = 0; i < numFreqs; i ++)
             {
                 fftFreqs[i] = (double)i/(double)fftSize*this.sampleRate;
             }
@@ -39,18 +59,57 @@ public class MFCC
                 binFreqs[i] = fmel2hz(minMel + (double)i/((double)melBands + 1.0) * (maxMel - minMel));
             }
             
+            // Precompute the mel-scale auditory perceptual spectrum, only over the bins
+            // between each filter's neighbours' centres, where its weights are nonzero,
+            // keeping only positive frequency parts of the Fourier transform
+            melStart = new int[melBands];
+            melLength = new int[melBands];
+            melOffset = new int[melBands];
+            double[][] spans = new double[melBands][];
+            int[] spanStart = new int[melBands];
+            int total = 0;
+            for (int i = 0; i < melBands; i ++)
+            {
+                // one bin of margin either side of the edges, in case of rounding
+                int lo = Math.max(0, (int) Math.floor(binFreqs[i]/this.sampleRate*fftSize) - 1);
+                int hi = Math.min(numFreqs - 1, (int) Math.ceil(binFreqs[i+2]/this.sampleRate*fftSize) + 1);
+                double[] weights = new double[Math.max(0, hi - lo + 1)];
+                for (int j = lo; j <= hi; j ++)
+                {
+                        weights[j - lo] = melWeight(fftFreqs[j], binFreqs, i);
+                }
+                int first = 0;
+                while (first < weights.length && weights[first] == 0)
+                {
+                        first ++;
+                }
+                int last = weights.length - 1;
+                while (last >= first && weights[last] == 0)
+                {
+                        last --;
+                }
+                melStart[i] = first < weights.length ? lo + first : numFreqs;
+                melLength[i] = last - first + 1;
+                melOffset[i] = total;
+                spans[i] = weights;
+                spanStart[i] = lo;
+                total += melLength[i];
+            }
+            melSpans = new double[total];
+            melSpansFloat = new float[total];
+            melWeights = new Matrix(melBands, numFreqs);
             for (int i = 0; i < melBands; i ++)
             {
-                for (int j = 0; j < fftSize; j ++)
+                if (melLength[i] > 0)
                 {
-                        double loSlope = (fftFreqs[j] - binFreqs[i])/(binFreqs[i+1] - binFreqs[i]);
-                        double hiSlope = (binFreqs[i+2] - fftFreqs[j])/(binFreqs[i+2] - binFreqs[i+1]);
-                        melWeights.A[i][j] = Math.max(0, Math.min(loSlope, hiSlope));
+                        System.arraycopy(spans[i], melStart[i] - spanStart[i], melSpans, melOffset[i], melLength[i]);
+                        System.arraycopy(spans[i], melStart[i] - spanStart[i], melWeights.A[i], melStart[i], melLength[i]);
                 }
             }
-            
-            // Keep only positive frequency parts of Fourier transform
-            melWeights = melWeights.getMatrix(0, melBands - 1, 0, numFreqs - 1);
+            for (int w = 0; w < total; w ++)
+            {
+                melSpansFloat[w] = (float) melSpans[w];
+            }
             
             // Precompute DCT matrix
             dctMat = new Matrix(numCoeffs, melBands, 0);
@@ -68,6 +127,7 @@ public class MFCC
             {
                 dctMat.A[0][j] *= root2;
             }
+            dct = FlatMatrix.fromMatrix(dctMat);
             
             // Precompute liftering vector
             lifterWeights = new double[numCoeffs];
@@ -78,40 +138,102 @@ public class MFCC
             }
         }
         
+        /**
+         * @return the weight of mel filter i, whose edges and centre are binFreqs[i] to
+         * binFreqs[i+2], at the given frequency.
+         */
+        private static double melWeight(double freq, double[] binFreqs, int i)
+        {
+                double loSlope = (freq - binFreqs[i])/(binFreqs[i+1] - binFreqs[i]);
+                double hiSlope = (binFreqs[i+2] - freq)/(binFreqs[i+2] - binFreqs[i+1]);
+                return Math.max(0, Math.min(loSlope, hiSlope));
+        }
+
         public double[] cepstrum(double[] re, double[] im)
         {
-                Matrix powerSpec = new Matrix(numFreqs, 1);
-                for (int i = 0; i < numFreqs; i ++)
+                double[] ceps = new double[numCoeffs];
+                cepstrum(re, im, new double[melBands], ceps, 0);
+                return ceps;
+        }
+
+        /**
+         * Computes the cepstrum like {@link #cepstrum(double[], double[])}, without
+         * allocating, for callers which compute many short frames. Only the nonzero
+         * weights of each filter are applied.
+         * @param re the real parts of the spectrum, at least fftSize/2+1 bins
+         * @param im the imaginary parts of the spectrum, at least fftSize/2+1 bins
+         * @param melEnergies scratch space of at least {@link #getMelBands()} entries
+         * @param ceps receives the {@link #getNumCoeffs()} coefficients
+         * @param offset the index in ceps of the first coefficient
+         */
+        public void cepstrum(double[] re, double[] im, double[] melEnergies, double[] ceps, int offset)
+        {
+                for (int i = 0; i < melBands; i ++)
                 {
-                        powerSpec.A[i][0] = re[i]*re[i] + im[i]*im[i];
+                        int bin = melStart[i];
+                        int w = melOffset[i];
+                        int end = w + melLength[i];
+                        double energy = 0;
+                        for (; w < end; w ++, bin ++)
+                        {
+                                energy += melSpans[w]*(re[bin]*re[bin] + im[bin]*im[bin]);
+                        }
+                        melEnergies[i] = Math.log(energy);
                 }
+                cepstrumFromMelEnergies(melEnergies, ceps, offset);
+        }
 
-                // melWeights - melBands x numFreqs
-                // powerSpec  - numFreqs x 1
-                // melWeights*powerSpec - melBands x 1
-                // aSpec      - melBands x 1
-                // dctMat     - numCoeffs x melBands
-                // dctMat*log(aSpec) - numCoeffs x 1
-                
-                Matrix aSpec = melWeights.times(powerSpec);
-                Matrix logMelSpec = new Matrix(melBands, 1);
+        /**
+         * Computes the cepstrum like {@link #cepstrum(double[], double[], double[], double[], int)}
+         * from a single-precision spectrum, e.g. of a
+         * {@link cs.umass.edu.myactivitiestoolkit.processing.FloatFFT}. The filterbank is
+         * applied in single precision; the logarithms, the DCT and the coefficients are
+         * double, being only a few values per frame.
+         * @param re the real parts of the spectrum, at least fftSize/2+1 bins
+         * @param im the imaginary parts of the spectrum, at least fftSize/2+1 bins
+         * @param melEnergies scratch space of at least {@link #getMelBands()} entries
+         * @param ceps receives the {@link #getNumCoeffs()} coefficients
+         * @param offset the index in ceps of the first coefficient
+         */
+        public void cepstrum(float[] re, float[] im, double[] melEnergies, double[] ceps, int offset)
+        {
                 for (int i = 0; i < melBands; i ++)
                 {
-                        logMelSpec.A[i][0] = Math.log(aSpec.A[i][0]);
+                        int bin = melStart[i];
+                        int w = melOffset[i];
+                        int end = w + melLength[i];
+                        float energy = 0;
+                        for (; w < end; w ++, bin ++)
+                        {
+                                energy += melSpansFloat[w]*(re[bin]*re[bin] + im[bin]*im[bin]);
+                        }
+                        melEnergies[i] = Math.log(energy);
                 }
+                cepstrumFromMelEnergies(melEnergies, ceps, offset);
+        }
 
-                Matrix melCeps = dctMat.times(logMelSpec);
-                        
-                double[] ceps = new double[numCoeffs];
+        /**
+         * Applies the DCT and the lifter to the log mel energies.
+         */
+        private void cepstrumFromMelEnergies(double[] melEnergies, double[] ceps, int offset)
+        {
+                dct.multiplyVector(melEnergies, 0, ceps, offset);
                 for (int i = 0; i < numCoeffs; i ++)
                 {
-                        ceps[i] = lifterWeights[i]*melCeps.A[i][0];
+                        ceps[offset + i] *= lifterWeights[i];
                 }
+        }
 
-                return ceps;
+        public int getNumCoeffs()
+        {
+                return numCoeffs;
+        }
+
+        public int getMelBands()
+        {
+                return melBands;
         }
 
-        
         public double fmel2hz(double mel)
         {
                 return 700.0*(Math.pow(10.0, mel/2595.0) - 1.0);
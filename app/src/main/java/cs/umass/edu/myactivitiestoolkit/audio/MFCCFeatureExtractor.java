@@ -1,7 +1,5 @@
 package cs.umass.edu.myactivitiestoolkit.audio;
 
-import java.util.Arrays;
-
 import cs.umass.edu.myactivitiestoolkit.processing.FFT;
 
 public class MFCCFeatureExtractor {
@@ -12,41 +10,37 @@ public class MFCCFeatureExtractor {
     private static final int MFCCS_VALUE = 12;
     private static final int MEL_BANDS = 20;
     
-    private static FFT featureFFT = new FFT(FFT_SIZE);
-    private static HammingWindow featureWin = new HammingWindow(BITRATE);
-    private static MFCC featureMFCC = new MFCC(FFT_SIZE, MFCCS_VALUE, MEL_BANDS, BITRATE);
+    /**
+     * The FFT and mel filter tables, built when the first frame is computed rather than
+     * when the class is loaded, on whichever thread computes it.
+     */
+    private static class Tables {
+        static final FFT featureFFT = new FFT(FFT_SIZE);
+        static final MFCC featureMFCC = new MFCC(FFT_SIZE, MFCCS_VALUE, MEL_BANDS, BITRATE);
+    }
 
     /**
      * Computes the MFCC features over the specified frame of the given data buffer.
      * @param data16bit the data buffer. Each data point is a 16-bit primitive (type short).
-     * @param size the size of the frame
+     * @param size the size of the frame, at most 8192 samples
      * @param index The index into the data buffer indicating the start of the frame.
      * @return an array of MFCC features
      */
     public static double[] computeFeaturesForFrame(short[] data16bit, int size, int index)
 	{
 		double[] fftBufferR = new double[FFT_SIZE];
-        double[] fftBufferI = new double[FFT_SIZE];
+        // only the non-redundant half of the spectrum is computed
+        double[] fftBufferI = new double[FFT_SIZE / 2 + 1];
         double[] featureCepstrum;
 
-        // Frequency analysis
-        Arrays.fill(fftBufferR, 0);
-        Arrays.fill(fftBufferI, 0);
-
-        // Convert audio buffer to doubles
-        for (int i = 0; i < size; i++)
-        {
-                fftBufferR[i] = data16bit[index+i];
-        }
-
-        // In-place windowing
-        featureWin.applyWindow(fftBufferR);
+        // Convert audio buffer to doubles, windowed to the frame size and zero-padded
+        WindowFunction.get(WindowFunction.Type.HAMMING, size).copyWindowed(data16bit, index, fftBufferR, FFT_SIZE);
 
-        // In-place FFT
-        featureFFT.fft(fftBufferR, fftBufferI);
+        // In-place FFT of the real signal
+        Tables.featureFFT.realForward(fftBufferR, fftBufferR, fftBufferI);
 
         // Get MFCCs
-        featureCepstrum = featureMFCC.cepstrum(fftBufferR, fftBufferI);
+        featureCepstrum = Tables.featureMFCC.cepstrum(fftBufferR, fftBufferI);
         
         return featureCepstrum;
 	}
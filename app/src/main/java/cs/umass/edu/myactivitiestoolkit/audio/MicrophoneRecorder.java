@@ -6,7 +6,11 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.util.LinkedList;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import android.content.Context;
 import android.media.AudioFormat;
@@ -22,6 +26,12 @@ import android.util.Log;
  * This class represents a Thread that once started continuously collects audio.
  * MicrophoneListeners can register to get audio buffers when they become available
  * This class currently notifies listeners when it have 1s worth of data.
+ *
+ * Recorded blocks are published into an {@link AudioRingBuffer}, and every listener reads
+ * them on its own single-threaded executor, so the recording thread never waits for a
+ * listener. Each listener has its own cursor into the ring. A listener which falls more than
+ * {@link #RING_CAPACITY} blocks behind skips to the oldest block still in the ring; the
+ * blocks it missed are dropped for that listener only, and logged.
  * 
  * Do not directly create an instance of this Thread. Use the static getInstance method instead
  * This will ensure that only one MicrophoneRecorder thread is alive at any give time
@@ -41,14 +51,18 @@ public class MicrophoneRecorder extends Thread{
 	public static int channelConfiguration = AudioFormat.CHANNEL_CONFIGURATION_MONO;
 	public static int audioEncoding = AudioFormat.ENCODING_PCM_16BIT;
 
+	/** The number of blocks a listener may fall behind before it loses audio. */
+	private static final int RING_CAPACITY = 4;
+
 	private MicrophoneRecorder(Context context){
 		this.context = context;
 	}
 	
 	public static MicrophoneRecorder instance = null;
 	
-	private final LinkedList<MicrophoneListener> listeners = new LinkedList<MicrophoneListener>();
-	private boolean isRecording = false;
+	private final CopyOnWriteArrayList<Consumer> consumers = new CopyOnWriteArrayList<Consumer>();
+	private final AudioRingBuffer ring = new AudioRingBuffer(RING_CAPACITY, frequency);
+	private volatile boolean isRecording = false;
 	
 	public static MicrophoneRecorder getInstance(Context context){
 		if (instance ==null){
@@ -61,15 +75,22 @@ public class MicrophoneRecorder extends Thread{
 		return isRecording;
 	}
 	
+	/**
+	 * Registers a listener, which receives every block recorded from now on, on a thread of its own.
+	 */
 	public void registerListener(MicrophoneListener listener){
-		synchronized(listeners){
-			listeners.add(listener);
-		}
+		consumers.add(new Consumer(listener, ring.getPublished()));
 	}
 	
+	/**
+	 * Unregisters a listener. Blocks it has not read yet are discarded.
+	 */
 	public void unregisterListener(MicrophoneListener listener){
-		synchronized(listeners){
-			listeners.remove(listener);
+		for (Consumer consumer : consumers){
+			if (consumer.listener == listener){
+				consumers.remove(consumer);
+				consumer.executor.shutdown();
+			}
 		}
 	}
 	
@@ -88,37 +109,114 @@ public class MicrophoneRecorder extends Thread{
 	}
 
 	public void run() {
+		AudioRecord audioRecord = null;
 		try {
 			// Create a new AudioRecord object to record the audio.
 			int bufferSize = frequency;//AudioRecord.getMinBufferSize(frequency, channelConfiguration, audioEncoding);
-			AudioRecord audioRecord = new AudioRecord(MediaRecorder.AudioSource.MIC, frequency,
+			audioRecord = new AudioRecord(MediaRecorder.AudioSource.MIC, frequency,
 					channelConfiguration, audioEncoding, bufferSize);
 
-			short[] buffer = new short[bufferSize];
 			Log.d(TAG,"VoiceService:MR: audioRecord.startRecording()");
 			audioRecord.startRecording();
-			int offset = 0;
 			int bufferReadResult =0;
 			while (isRecording) {
-				bufferReadResult += audioRecord.read(buffer, offset, bufferSize - bufferReadResult);
-				offset += bufferReadResult;
-				if (bufferReadResult == frequency){
-					for(MicrophoneListener listener : listeners){
-						listener.microphoneBuffer(buffer,bufferReadResult);
+				short[] buffer = ring.beginWrite();
+				int read = audioRecord.read(buffer, bufferReadResult, bufferSize - bufferReadResult);
+				if (read < 0){
+					Log.d(TAG,"VoiceService:MR: audioRecord.read() failed with " + read);
+					break;
+				}
+				bufferReadResult += read;
+				if (bufferReadResult == bufferSize){
+					ring.publish(bufferReadResult);
+					for (Consumer consumer : consumers){
+						consumer.schedule();
 					}
-					offset =0;
 					bufferReadResult = 0;
 				}
-				// maybe sleep to save battery
 			}
-			audioRecord.stop();
 		} catch (Exception e) {
 			e.printStackTrace();
 			Log.d(TAG,"VoiceService:MR: Recording Failed. Make sure you have given permission to record audio.");
+		} finally {
+			// the microphone is released however recording ends, or no other app can use it
+			if (audioRecord != null) {
+				if (audioRecord.getRecordingState() == AudioRecord.RECORDSTATE_RECORDING) {
+					audioRecord.stop();
+				}
+				audioRecord.release();
+			}
 		}
 	}
 	
+	/**
+	 * Delivers the blocks of the ring to one listener on the listener's own executor.
+	 */
+	private class Consumer implements Runnable {
+		final MicrophoneListener listener;
+		final ExecutorService executor = Executors.newSingleThreadExecutor();
+		/** Whether a drain is scheduled on the executor and has not started yet. */
+		final AtomicBoolean scheduled = new AtomicBoolean();
+		/** The sequence number of the next block to deliver. Only used on the executor. */
+		long cursor;
+		long dropped;
+
+		Consumer(MicrophoneListener listener, long cursor){
+			this.listener = listener;
+			this.cursor = cursor;
+		}
+
+		/** Called on the recording thread after a block is published. */
+		void schedule(){
+			if (scheduled.compareAndSet(false, true) && !executor.isShutdown()){
+				try {
+					executor.execute(this);
+				} catch (RejectedExecutionException e) {
+					// the listener was unregistered since the check; the other listeners keep recording
+				}
+			}
+		}
+
+		@Override
+		public void run(){
+			// cleared first, so a block published during the drain schedules another one
+			scheduled.set(false);
+			long published = ring.getPublished();
+			while (cursor < published && !executor.isShutdown()){
+				long oldest = published - ring.getCapacity();
+				if (cursor < oldest){
+					drop(oldest - cursor);
+					cursor = oldest;
+				}
+				AudioRingBuffer.Block block = ring.acquire(cursor);
+				if (block == null){
+					// overwritten while we caught up
+					drop(1);
+				} else {
+					try {
+						listener.microphoneBuffer(block.getData(), block.getLength());
+					} finally {
+						ring.release(block);
+					}
+				}
+				cursor++;
+				published = ring.getPublished();
+			}
+		}
+
+		private void drop(long blocks){
+			dropped += blocks;
+			Log.w(TAG, listener.getClass().getSimpleName() + " fell behind, dropped " + blocks
+					+ " audio block(s), " + dropped + " in total");
+		}
+	}
+
 	public interface MicrophoneListener{
+		/**
+		 * Called on a thread dedicated to this listener with each recorded block. The buffer
+		 * is shared with the other listeners and reused once this returns, so it must not be
+		 * modified, and must be copied to be kept.
+		 */
 		void microphoneBuffer(short[] buffer, int window_size);
 	}
 }
@@ -0,0 +1,147 @@
+package cs.umass.edu.myactivitiestoolkit.audio;
+
+import cs.umass.edu.myactivitiestoolkit.processing.FloatFFT;
+
+/**
+ * Computes the short-time Fourier transform of a continuous audio stream incrementally.
+ * Each call to {@link #process(short[], int)} computes only the columns completed by the
+ * new samples: samples which do not complete a window are carried over, so windows
+ * overlap across buffer boundaries exactly as they do within a buffer.
+ * <br><br>
+ * Each column holds the magnitudes of the non-redundant bins, 0 to fftSize/2 inclusive,
+ * of one Hamming-windowed frame, zero-padded to the next power of two and transformed in
+ * single precision, which is ample for display. All arrays,
+ * including the columns, are allocated up front and reused, so a column is only valid
+ * until the next call. An instance holds the state of one stream and must be fed from
+ * one thread at a time.
+ *
+ * @see FloatFFT#realForward(float[], float[], float[])
+ */
+public class STFT {
+
+    private final int windowSize;
+
+    private final int hopSize;
+
+    private final int fftSize;
+
+    private final FloatFFT fft;
+
+    private final WindowFunction window;
+
+    /** The samples of the window being collected. */
+    private final short[] frame;
+
+    private int frameCount;
+
+    private final float[] re;
+
+    private final float[] im;
+
+    private double[][] columns = new double[0][];
+
+    private int numColumns;
+
+    /**
+     * @param windowSize the number of samples per column.
+     * @param hopSize the number of samples between the starts of consecutive columns, at
+     *                most the window size.
+     */
+    public STFT(int windowSize, int hopSize) {
+        if (hopSize <= 0 || hopSize > windowSize) {
+            throw new IllegalArgumentException("The hop size must be between 1 and the window size");
+        }
+        this.windowSize = windowSize;
+        this.hopSize = hopSize;
+        fftSize = Math.max(2, Integer.highestOneBit(windowSize - 1) * 2);
+        fft = new FloatFFT(fftSize);
+        window = WindowFunction.get(WindowFunction.Type.HAMMING, windowSize);
+        frame = new short[windowSize];
+        re = new float[fftSize];
+        im = new float[fftSize / 2 + 1];
+    }
+
+    /**
+     * Computes the columns completed by the given samples. Samples left over are kept for
+     * the next call.
+     * @param buffer the audio samples, continuing the previous buffer.
+     * @param length the number of samples in the buffer.
+     * @return the number of new columns, which are in {@link #getColumns()}.
+     */
+    public int process(short[] buffer, int length) {
+        ensureCapacity(getMaxColumns(length));
+        numColumns = 0;
+
+        int index = 0;
+        while (index < length) {
+            int count = Math.min(windowSize - frameCount, length - index);
+            System.arraycopy(buffer, index, frame, frameCount, count);
+            frameCount += count;
+            index += count;
+
+            if (frameCount == windowSize) {
+                computeColumn(columns[numColumns++]);
+                System.arraycopy(frame, hopSize, frame, 0, windowSize - hopSize);
+                frameCount -= hopSize;
+            }
+        }
+        return numColumns;
+    }
+
+    private void computeColumn(double[] column) {
+        window.copyWindowed(frame, 0, re, fftSize);
+        fft.realForward(re, re, im);
+        for (int i = 0; i < column.length; i++) {
+            column[i] = Math.sqrt(re[i] * re[i] + im[i] * im[i]);
+        }
+    }
+
+    /**
+     * @return the most columns a buffer of the given length can complete.
+     */
+    private int getMaxColumns(int length) {
+        int samples = frameCount + length;
+        return samples < windowSize ? 0 : (samples - windowSize) / hopSize + 1;
+    }
+
+    private void ensureCapacity(int count) {
+        if (columns.length < count) {
+            double[][] grown = new double[count][];
+            System.arraycopy(columns, 0, grown, 0, columns.length);
+            for (int i = columns.length; i < count; i++) {
+                grown[i] = new double[getNumBins()];
+            }
+            columns = grown;
+        }
+    }
+
+    /**
+     * @return the columns computed by the last call, oldest first. Only the first
+     * {@link #getNumColumns()} are valid.
+     */
+    public double[][] getColumns() {
+        return columns;
+    }
+
+    /**
+     * @return the number of columns computed by the last call.
+     */
+    public int getNumColumns() {
+        return numColumns;
+    }
+
+    /**
+     * @return the number of frequency bins per column.
+     */
+    public int getNumBins() {
+        return fftSize / 2 + 1;
+    }
+
+    /**
+     * Forgets the samples carried over from the previous buffer.
+     */
+    public void reset() {
+        frameCount = 0;
+        numColumns = 0;
+    }
+}
@@ -0,0 +1,198 @@
+package cs.umass.edu.myactivitiestoolkit.audio;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Identifies speakers on the device from the MFCC features of {@link StreamingMFCC},
+ * without sending any audio to the server.
+ * <br><br>
+ * A speaker is enrolled by collecting the frames computed between
+ * {@link #startEnrollment(String)} and {@link #stopEnrollment()}, which fits a
+ * {@link GaussianMixtureModel} to them. Afterwards, each frame is scored against every
+ * enrolled speaker's model. The scores are smoothed over time by an exponential moving
+ * average with a time constant of {@link #SMOOTHING_FRAMES} frames, and the speaker with
+ * the best smoothed score is identified once enough frames have been seen since the last
+ * {@link #reset()}. The first coefficient, which follows loudness rather than the voice,
+ * is ignored.
+ * <br><br>
+ * Enrollment and identification may be driven from different threads; the state is
+ * guarded by the instance's lock, and the {@link OnSpeakerListener} is called on the
+ * thread which delivered the features.
+ *
+ * @see GaussianMixtureModel
+ * @see StreamingMFCC
+ */
+public class SpeakerIdentifier implements StreamingMFCC.OnFeaturesListener {
+
+    /** The time constant of the smoothing, in frames. */
+    public static final int SMOOTHING_FRAMES = 30;
+
+    /** The number of frames needed after a reset before a speaker is identified. */
+    public static final int MIN_FRAMES = 20;
+
+    /** The number of components of each speaker's model. */
+    private static final int NUM_COMPONENTS = 8;
+
+    private static final int MAX_ITERATIONS = 30;
+
+    /** The index of the first coefficient used, skipping the energy coefficient c0. */
+    private static final int FIRST_COEFF = 1;
+
+    /**
+     * Receives the identified speaker.
+     */
+    public interface OnSpeakerListener {
+        /**
+         * Called when the identified speaker changes.
+         * @param speaker the name the speaker was enrolled with.
+         */
+        void onSpeakerIdentified(String speaker);
+    }
+
+    private OnSpeakerListener listener;
+
+    private final Map<String, GaussianMixtureModel> models = new LinkedHashMap<>();
+
+    /** The enrolled speakers and their smoothed scores, in the same order as the models. */
+    private String[] speakers = new String[0];
+
+    private GaussianMixtureModel[] speakerModels = new GaussianMixtureModel[0];
+
+    private double[] scores = new double[0];
+
+    private int numFrames;
+
+    private String currentSpeaker;
+
+    private String enrollingSpeaker;
+
+    private final List<double[]> enrollmentFrames = new ArrayList<>();
+
+    /**
+     * @param listener receives the identified speaker, or null.
+     */
+    public synchronized void setOnSpeakerListener(OnSpeakerListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Starts collecting frames to enroll a speaker, pausing identification. Any
+     * enrollment in progress is discarded.
+     * @param speaker the name of the speaker, replacing any speaker enrolled with the same name.
+     */
+    public synchronized void startEnrollment(String speaker) {
+        enrollingSpeaker = speaker;
+        enrollmentFrames.clear();
+    }
+
+    /**
+     * Fits the model of the speaker being enrolled to the frames collected since
+     * {@link #startEnrollment(String)}, and resumes identification. The model is fitted
+     * without holding the lock, so identification is not blocked meanwhile, but this
+     * takes long enough that it should not be called on the main thread.
+     * @return true if the speaker was enrolled, false if too few frames were collected.
+     */
+    public boolean stopEnrollment() {
+        String speaker;
+        double[][] frames;
+        synchronized (this) {
+            speaker = enrollingSpeaker;
+            enrollingSpeaker = null;
+            frames = enrollmentFrames.toArray(new double[enrollmentFrames.size()][]);
+            enrollmentFrames.clear();
+        }
+        if (speaker == null || frames.length < MIN_FRAMES) {
+            return false;
+        }
+        GaussianMixtureModel model = GaussianMixtureModel.train(frames, frames.length, FIRST_COEFF,
+                NUM_COMPONENTS, MAX_ITERATIONS);
+        synchronized (this) {
+            models.put(speaker, model);
+            updateSpeakers();
+        }
+        return true;
+    }
+
+    /**
+     * Forgets an enrolled speaker.
+     */
+    public synchronized void removeSpeaker(String speaker) {
+        if (models.remove(speaker) != null) {
+            updateSpeakers();
+        }
+    }
+
+    private void updateSpeakers() {
+        speakers = models.keySet().toArray(new String[models.size()]);
+        speakerModels = models.values().toArray(new GaussianMixtureModel[models.size()]);
+        scores = new double[speakers.length];
+        reset();
+    }
+
+    /**
+     * @return the names of the enrolled speakers.
+     */
+    public synchronized String[] getSpeakers() {
+        return speakers.clone();
+    }
+
+    /**
+     * @return the speaker identified, or null if none has been since the last reset.
+     */
+    public synchronized String getCurrentSpeaker() {
+        return currentSpeaker;
+    }
+
+    /**
+     * Forgets the smoothed scores, e.g. at the end of an utterance, so that the next
+     * speaker is identified from their own frames only.
+     */
+    public synchronized void reset() {
+        numFrames = 0;
+        currentSpeaker = null;
+    }
+
+    @Override
+    public synchronized void onFeatures(double[][] features, int numFrames) {
+        if (enrollingSpeaker != null) {
+            for (int i = 0; i < numFrames; i++) {
+                enrollmentFrames.add(features[i].clone());
+            }
+            return;
+        }
+        if (speakers.length == 0) {
+            return;
+        }
+        for (int i = 0; i < numFrames; i++) {
+            score(features[i]);
+        }
+        if (this.numFrames < MIN_FRAMES) {
+            return;
+        }
+        int best = 0;
+        for (int s = 1; s < speakers.length; s++) {
+            if (scores[s] > scores[best]) {
+                best = s;
+            }
+        }
+        if (!speakers[best].equals(currentSpeaker)) {
+            currentSpeaker = speakers[best];
+            if (listener != null) {
+                listener.onSpeakerIdentified(currentSpeaker);
+            }
+        }
+    }
+
+    private void score(double[] frame) {
+        // average the first frames equally, then forget old frames exponentially
+        numFrames++;
+        double alpha = 1.0 / Math.min(numFrames, SMOOTHING_FRAMES);
+        for (int s = 0; s < speakers.length; s++) {
+            double logLikelihood = speakerModels[s].logLikelihood(frame, FIRST_COEFF);
+            scores[s] += alpha * (logLikelihood - scores[s]);
+        }
+    }
+}
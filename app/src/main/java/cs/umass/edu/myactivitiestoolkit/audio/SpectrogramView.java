@@ -0,0 +1,171 @@
+package cs.umass.edu.myactivitiestoolkit.audio;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Rect;
+import android.util.AttributeSet;
+import android.view.View;
+
+/**
+ * Displays a scrolling spectrogram as a heat map, the newest column on the right.
+ * <br><br>
+ * The view keeps the last {@link #HISTORY_COLUMNS} columns in a single bitmap, used as a
+ * ring: each new column overwrites the oldest one in place, and {@link #onDraw(Canvas)}
+ * draws the two halves of the ring in order, which scrolls the image without moving any
+ * pixels. Values are mapped to colours through a precomputed heat map table, normalized
+ * by a running minimum and maximum which follow each column's range, jumping to new
+ * extremes and decaying towards quieter ones. Columns already drawn are not recoloured,
+ * so adding a column costs the same however long the history is.
+ *
+ * @see STFT
+ */
+public class SpectrogramView extends View {
+
+    /** The number of columns displayed. */
+    private static final int HISTORY_COLUMNS = 480;
+
+    /** The number of colours in the heat map. */
+    private static final int NUM_COLOURS = 256;
+
+    /** How quickly the running range shrinks towards a quieter column, per column. */
+    private static final double RANGE_DECAY = 0.01;
+
+    /** Maps a normalized value, scaled to [0, {@link #NUM_COLOURS}), to a colour. */
+    private static final int[] HEAT_MAP = new int[NUM_COLOURS];
+
+    static {
+        for (int i = 0; i < NUM_COLOURS; i++) {
+            HEAT_MAP[i] = heatMap(0, NUM_COLOURS - 1, i);
+        }
+    }
+
+    private Bitmap bitmap;
+
+    /** The pixels of one column, reused for every column. */
+    private int[] columnPixels;
+
+    /** The bitmap column the next spectrogram column is written to. */
+    private int writePosition;
+
+    private double runningMin;
+
+    private double runningMax;
+
+    private boolean hasRange;
+
+    private final Rect source = new Rect();
+
+    private final Rect destination = new Rect();
+
+    public SpectrogramView(Context context) {
+        super(context);
+    }
+
+    public SpectrogramView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+    }
+
+    public SpectrogramView(Context context, AttributeSet attrs, int defStyle) {
+        super(context, attrs, defStyle);
+    }
+
+    /**
+     * Appends columns to the spectrogram. Must be called on the UI thread.
+     * @param columns the new columns, oldest first, each holding one value per frequency
+     *                bin, the lowest frequency first.
+     * @param numColumns the number of columns to append.
+     */
+    public void addColumns(double[][] columns, int numColumns) {
+        if (numColumns == 0) {
+            return;
+        }
+        int height = columns[0].length;
+        if (bitmap == null || bitmap.getHeight() != height) {
+            bitmap = Bitmap.createBitmap(HISTORY_COLUMNS, height, Bitmap.Config.ARGB_8888);
+            columnPixels = new int[height];
+            writePosition = 0;
+            hasRange = false;
+        }
+        for (int i = 0; i < numColumns; i++) {
+            addColumn(columns[i]);
+        }
+        invalidate();
+    }
+
+    private void addColumn(double[] column) {
+        double min = column[0], max = column[0];
+        for (double value : column) {
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+        }
+        if (!hasRange) {
+            runningMin = min;
+            runningMax = max;
+            hasRange = true;
+        } else {
+            runningMin = min < runningMin ? min : runningMin + RANGE_DECAY * (min - runningMin);
+            runningMax = max > runningMax ? max : runningMax + RANGE_DECAY * (max - runningMax);
+        }
+
+        double range = runningMax - runningMin;
+        double scale = range > 0 ? (NUM_COLOURS - 1) / range : 0;
+        for (int j = 0; j < column.length; j++) {
+            int index = (int) ((column[j] - runningMin) * scale);
+            columnPixels[j] = HEAT_MAP[Math.max(0, Math.min(NUM_COLOURS - 1, index))];
+        }
+        bitmap.setPixels(columnPixels, 0, 1, writePosition, 0, 1, column.length);
+        writePosition = (writePosition + 1) % HISTORY_COLUMNS;
+    }
+
+    /**
+     * Clears the spectrogram, e.g. when recording restarts.
+     */
+    public void clear() {
+        if (bitmap != null) {
+            bitmap.eraseColor(0);
+        }
+        writePosition = 0;
+        hasRange = false;
+        invalidate();
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        if (bitmap == null) {
+            return;
+        }
+        int width = getWidth();
+        int height = getHeight();
+        // the oldest columns, from the write position to the end of the ring, go on the left
+        int split = width * (HISTORY_COLUMNS - writePosition) / HISTORY_COLUMNS;
+
+        source.set(writePosition, 0, HISTORY_COLUMNS, bitmap.getHeight());
+        destination.set(0, 0, split, height);
+        canvas.drawBitmap(bitmap, source, destination, null);
+
+        if (writePosition > 0) {
+            source.set(0, 0, writePosition, bitmap.getHeight());
+            destination.set(split, 0, width, height);
+            canvas.drawBitmap(bitmap, source, destination, null);
+        }
+    }
+
+    /**
+     * Converts the value to a corresponding heat map color
+     * @param minimum the minimum bound on the value
+     * @param maximum the maximum bound on the value
+     * @param value the value, within the range [minimum, maximum]
+     * @return an RGB color identifier
+     *
+     * @see <a href="http://stackoverflow.com/questions/20792445/calculate-rgb-value-for-a-range-of-values-to-create-heat-map">Aldorado's answer.</a>
+     */
+    private static int heatMap(double minimum, double maximum, double value) {
+        double ratio = 2 * (value - minimum) / (maximum - minimum);
+        int b = (int) Math.max(0, 255 * (1 - ratio));
+        int r = (int) Math.max(0, 255 * (ratio - 1));
+        int g = 255 - b - r;
+        return (r<<16|g<<8|b|255<<24);
+    }
+}
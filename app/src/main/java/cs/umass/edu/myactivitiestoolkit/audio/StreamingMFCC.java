@@ -0,0 +1,184 @@
+package cs.umass.edu.myactivitiestoolkit.audio;
+
+import cs.umass.edu.myactivitiestoolkit.processing.FloatFFT;
+
+/**
+ * Computes MFCC features over a continuous audio stream in short, overlapping frames,
+ * as is usual for speech: {@link #FRAME_LENGTH_MS} ms frames every {@link #HOP_MS} ms,
+ * instead of one frame per one-second {@link MicrophoneRecorder} buffer as in
+ * {@link MFCCFeatureExtractor}.
+ * <br><br>
+ * Register an instance with the {@link MicrophoneRecorder}, or pass it buffers through
+ * {@link #process(short[], int)}. Samples which do not complete a frame are carried over
+ * to the next buffer, so frames straddle buffer boundaries seamlessly. After each buffer
+ * the frames it completed are handed to the {@link OnFeaturesListener} as one feature
+ * matrix, one row of {@link #NUM_COEFFS} coefficients per frame.
+ * <br><br>
+ * Nothing is allocated per frame: the FFT, window and filterbank tables are shared by
+ * all instances, the FFT and filterbank buffers are allocated once per thread, and the
+ * feature matrix of an instance is reused and only grows when a longer buffer arrives.
+ * Frames are windowed and transformed in single precision, with a {@link FloatFFT}.
+ * An instance holds the state of one stream and must be fed from one thread at a time.
+ *
+ * @see MFCC
+ */
+public class StreamingMFCC implements MicrophoneRecorder.MicrophoneListener {
+
+    /** The audio sample rate, in Hz. */
+    public static final int SAMPLE_RATE = 8000;
+
+    /** The length of a frame, in milliseconds. */
+    public static final int FRAME_LENGTH_MS = 25;
+
+    /** The time between the starts of consecutive frames, in milliseconds. */
+    public static final int HOP_MS = 10;
+
+    /** The number of coefficients computed per frame. */
+    public static final int NUM_COEFFS = 12;
+
+    private static final int MEL_BANDS = 20;
+
+    private static final int FRAME_LENGTH = SAMPLE_RATE * FRAME_LENGTH_MS / 1000;
+
+    private static final int HOP_LENGTH = SAMPLE_RATE * HOP_MS / 1000;
+
+    /** The smallest power of two holding a frame. */
+    private static final int FFT_SIZE = Integer.highestOneBit(FRAME_LENGTH - 1) * 2;
+
+    private static final FloatFFT FEATURE_FFT = new FloatFFT(FFT_SIZE);
+
+    private static final WindowFunction FEATURE_WINDOW = WindowFunction.get(WindowFunction.Type.HAMMING, FRAME_LENGTH);
+
+    private static final MFCC FEATURE_MFCC = new MFCC(FFT_SIZE, NUM_COEFFS, MEL_BANDS, SAMPLE_RATE);
+
+    /** The buffers used while computing a frame, which are not part of the stream state. */
+    private static class Workspace {
+        final float[] re = new float[FFT_SIZE];
+        final float[] im = new float[FFT_SIZE / 2 + 1];
+        final double[] melEnergies = new double[MEL_BANDS];
+    }
+
+    private static final ThreadLocal<Workspace> WORKSPACES = new ThreadLocal<Workspace>() {
+        @Override
+        protected Workspace initialValue() {
+            return new Workspace();
+        }
+    };
+
+    /**
+     * Receives the features computed from each buffer.
+     */
+    public interface OnFeaturesListener {
+        /**
+         * Called on the thread which delivered the buffer, if it completed any frames.
+         * @param features one row of {@link #NUM_COEFFS} coefficients per frame, oldest
+         *                 first. Only the first numFrames rows are valid, and the matrix
+         *                 is overwritten by the next buffer.
+         * @param numFrames the number of frames completed by the buffer.
+         */
+        void onFeatures(double[][] features, int numFrames);
+    }
+
+    private OnFeaturesListener listener;
+
+    /** The samples of the frame being collected. */
+    private final short[] frame = new short[FRAME_LENGTH];
+
+    private int frameCount;
+
+    private double[][] features = new double[0][];
+
+    private int numFrames;
+
+    /**
+     * @param listener receives the features of each buffer, or null.
+     */
+    public void setOnFeaturesListener(OnFeaturesListener listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public void microphoneBuffer(short[] buffer, int window_size) {
+        if (process(buffer, window_size) > 0 && listener != null) {
+            listener.onFeatures(features, numFrames);
+        }
+    }
+
+    /**
+     * Computes the features of every frame completed by the given samples. Samples left
+     * over are kept for the next call.
+     * @param buffer the audio samples, continuing the previous buffer.
+     * @param length the number of samples in the buffer.
+     * @return the number of frames completed, whose features are in {@link #getFeatures()}.
+     */
+    public int process(short[] buffer, int length) {
+        ensureCapacity(getMaxFrames(length));
+        Workspace workspace = WORKSPACES.get();
+        numFrames = 0;
+
+        int index = 0;
+        while (index < length) {
+            int count = Math.min(FRAME_LENGTH - frameCount, length - index);
+            System.arraycopy(buffer, index, frame, frameCount, count);
+            frameCount += count;
+            index += count;
+
+            if (frameCount == FRAME_LENGTH) {
+                computeFrame(workspace, features[numFrames++]);
+                // keep the overlap with the next frame
+                System.arraycopy(frame, HOP_LENGTH, frame, 0, FRAME_LENGTH - HOP_LENGTH);
+                frameCount -= HOP_LENGTH;
+            }
+        }
+        return numFrames;
+    }
+
+    private void computeFrame(Workspace workspace, double[] ceps) {
+        float[] re = workspace.re;
+        FEATURE_WINDOW.copyWindowed(frame, 0, re, FFT_SIZE);
+        FEATURE_FFT.realForward(re, re, workspace.im);
+        FEATURE_MFCC.cepstrum(re, workspace.im, workspace.melEnergies, ceps, 0);
+    }
+
+    /**
+     * @return the most frames a buffer of the given length can complete.
+     */
+    private int getMaxFrames(int length) {
+        int samples = frameCount + length;
+        return samples < FRAME_LENGTH ? 0 : (samples - FRAME_LENGTH) / HOP_LENGTH + 1;
+    }
+
+    private void ensureCapacity(int frames) {
+        if (features.length < frames) {
+            double[][] grown = new double[frames][];
+            System.arraycopy(features, 0, grown, 0, features.length);
+            for (int i = features.length; i < frames; i++) {
+                grown[i] = new double[NUM_COEFFS];
+            }
+            features = grown;
+        }
+    }
+
+    /**
+     * @return the features of the last buffer, one row per frame. Only the first
+     * {@link #getNumFrames()} rows are valid.
+     */
+    public double[][] getFeatures() {
+        return features;
+    }
+
+    /**
+     * @return the number of frames completed by the last buffer.
+     */
+    public int getNumFrames() {
+        return numFrames;
+    }
+
+    /**
+     * Forgets the samples carried over from the previous buffer, e.g. when recording restarts.
+     */
+    public void reset() {
+        frameCount = 0;
+        numFrames = 0;
+    }
+}
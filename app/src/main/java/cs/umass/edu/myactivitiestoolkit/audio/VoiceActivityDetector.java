@@ -0,0 +1,251 @@
+package cs.umass.edu.myactivitiestoolkit.audio;
+
+import cs.umass.edu.myactivitiestoolkit.processing.FloatFFT;
+
+/**
+ * Detects speech in a continuous audio stream, so that expensive stages such as the
+ * spectrogram, MFCC features and uploads only see the audio worth processing.
+ * <br><br>
+ * The stream is cut into consecutive {@link #FRAME_LENGTH_MS} ms frames, carried over
+ * across buffers like in {@link StreamingMFCC}. Each frame is classified from three
+ * cheap features:
+ * <ul>
+ *     <li>its short-time energy, compared to a noise floor which follows the quietest
+ *     frames down immediately and rises back slowly;</li>
+ *     <li>its zero-crossing rate, which is low for voiced speech and high for hiss;</li>
+ *     <li>its spectral flatness, the ratio of the geometric to the arithmetic mean of the
+ *     power spectrum, which is close to 1 for noise and much lower for the harmonics of
+ *     voiced speech.</li>
+ * </ul>
+ * A frame is speech if its energy is well above the noise floor and at least one of the
+ * other two features agrees. Speech is extended by {@link #HANGOVER_FRAMES} frames after
+ * the last speech frame so that the quiet ends of words and short pauses are kept.
+ * <br><br>
+ * Speech frames are passed on to the {@link OnSpeechListener}, all frames of a buffer
+ * in one call; non-speech frames are dropped. An instance holds the state of one stream
+ * and must be fed from one thread at a time.
+ *
+ * @see FloatFFT#realForward(float[], float[], float[])
+ */
+public class VoiceActivityDetector implements MicrophoneRecorder.MicrophoneListener {
+
+    /** The audio sample rate, in Hz. */
+    public static final int SAMPLE_RATE = 8000;
+
+    /** The length of a frame, in milliseconds. */
+    public static final int FRAME_LENGTH_MS = 20;
+
+    /** The number of frames still passed on after the last speech frame. */
+    public static final int HANGOVER_FRAMES = 10;
+
+    private static final int FRAME_LENGTH = SAMPLE_RATE * FRAME_LENGTH_MS / 1000;
+
+    /** The smallest power of two holding a frame. */
+    private static final int FFT_SIZE = Integer.highestOneBit(FRAME_LENGTH - 1) * 2;
+
+    /** How far above the noise floor, in dB, the energy of a speech frame must be. */
+    private static final double ENERGY_MARGIN_DB = 9;
+
+    /** The energy, in dB, below which a frame is never speech, whatever the noise floor. */
+    private static final double MIN_ENERGY_DB = 30;
+
+    /** How fast the noise floor rises towards louder frames, in dB per frame (2.5 dB/s). */
+    private static final double NOISE_FLOOR_RISE_DB = 0.05;
+
+    /** The zero crossings per sample below which a frame looks voiced. */
+    private static final double MAX_VOICED_ZCR = 0.25;
+
+    /** The spectral flatness below which a frame looks tonal rather than noisy. */
+    private static final double MAX_VOICED_FLATNESS = 0.3;
+
+    /** Keeps the logarithms finite on digital silence. */
+    private static final double EPSILON = 1e-10;
+
+    private static final FloatFFT VAD_FFT = new FloatFFT(FFT_SIZE);
+
+    private static final WindowFunction VAD_WINDOW = WindowFunction.get(WindowFunction.Type.HAMMING, FRAME_LENGTH);
+
+    /**
+     * Receives the audio classified as speech.
+     */
+    public interface OnSpeechListener {
+        /**
+         * Called on the thread which delivered the buffer, with the speech frames it
+         * completed. Consecutive calls are contiguous audio until {@link #onSpeechEnd()}.
+         * @param samples the speech samples, overwritten by the next buffer.
+         * @param length the number of samples.
+         */
+        void onSpeech(short[] samples, int length);
+
+        /**
+         * Called when speech, including its hangover, has ended, e.g. to stop stages
+         * which carry samples over from joining speech across the silence.
+         */
+        void onSpeechEnd();
+    }
+
+    private OnSpeechListener listener;
+
+    /** The samples of the frame being collected. */
+    private final short[] frame = new short[FRAME_LENGTH];
+
+    private int frameCount;
+
+    private final float[] re = new float[FFT_SIZE];
+
+    private final float[] im = new float[FFT_SIZE / 2 + 1];
+
+    /** The speech samples of the current buffer. */
+    private short[] speech = new short[0];
+
+    private int speechLength;
+
+    private double noiseFloorDb = Double.NaN;
+
+    /** The number of frames left in the current speech segment, including its hangover. */
+    private int remainingFrames;
+
+    private long numFrames;
+
+    private long numSpeechFrames;
+
+    /**
+     * @param listener receives the audio classified as speech, or null.
+     */
+    public void setOnSpeechListener(OnSpeechListener listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public void microphoneBuffer(short[] buffer, int window_size) {
+        process(buffer, window_size);
+    }
+
+    /**
+     * Classifies every frame completed by the given samples and passes the speech frames
+     * on to the listener. Samples left over are kept for the next call.
+     * @param buffer the audio samples, continuing the previous buffer.
+     * @param length the number of samples in the buffer.
+     * @return the number of speech samples passed on.
+     */
+    public int process(short[] buffer, int length) {
+        if (speech.length < length + FRAME_LENGTH) {
+            speech = new short[length + FRAME_LENGTH];
+        }
+        speechLength = 0;
+
+        int index = 0;
+        while (index < length) {
+            int count = Math.min(FRAME_LENGTH - frameCount, length - index);
+            System.arraycopy(buffer, index, frame, frameCount, count);
+            frameCount += count;
+            index += count;
+
+            if (frameCount == FRAME_LENGTH) {
+                frameCount = 0;
+                numFrames++;
+                if (isSpeech()) {
+                    remainingFrames = HANGOVER_FRAMES + 1;
+                }
+                if (remainingFrames > 0) {
+                    remainingFrames--;
+                    numSpeechFrames++;
+                    System.arraycopy(frame, 0, speech, speechLength, FRAME_LENGTH);
+                    speechLength += FRAME_LENGTH;
+                    if (remainingFrames == 0) {
+                        flush();
+                        if (listener != null) {
+                            listener.onSpeechEnd();
+                        }
+                    }
+                }
+            }
+        }
+        int total = speechLength;
+        flush();
+        return total;
+    }
+
+    private void flush() {
+        if (speechLength > 0 && listener != null) {
+            listener.onSpeech(speech, speechLength);
+        }
+        speechLength = 0;
+    }
+
+    /**
+     * Classifies the current frame, updating the noise floor.
+     */
+    private boolean isSpeech() {
+        double energy = 0;
+        int crossings = 0;
+        for (int i = 0; i < FRAME_LENGTH; i++) {
+            energy += frame[i] * frame[i];
+            if (i > 0 && (frame[i] >= 0) != (frame[i - 1] >= 0)) {
+                crossings++;
+            }
+        }
+        double energyDb = 10 * Math.log10(energy / FRAME_LENGTH + EPSILON);
+        if (Double.isNaN(noiseFloorDb) || energyDb < noiseFloorDb) {
+            noiseFloorDb = energyDb;
+        } else {
+            noiseFloorDb = Math.min(energyDb, noiseFloorDb + NOISE_FLOOR_RISE_DB);
+        }
+        if (energyDb < MIN_ENERGY_DB || energyDb < noiseFloorDb + ENERGY_MARGIN_DB) {
+            // too quiet to be worth the spectrum
+            return false;
+        }
+        if ((double) crossings / FRAME_LENGTH < MAX_VOICED_ZCR) {
+            return true;
+        }
+        return getSpectralFlatness() < MAX_VOICED_FLATNESS;
+    }
+
+    /**
+     * @return the spectral flatness of the current frame, between 0 and 1, ignoring the DC bin.
+     */
+    private double getSpectralFlatness() {
+        VAD_WINDOW.copyWindowed(frame, 0, re, FFT_SIZE);
+        VAD_FFT.realForward(re, re, im);
+
+        double sumLog = 0, sum = 0;
+        int bins = FFT_SIZE / 2;
+        for (int i = 1; i <= bins; i++) {
+            double power = (double) re[i] * re[i] + (double) im[i] * im[i] + EPSILON;
+            sumLog += Math.log(power);
+            sum += power;
+        }
+        return Math.exp(sumLog / bins) / (sum / bins);
+    }
+
+    /**
+     * @return the number of frames classified so far.
+     */
+    public long getNumFrames() {
+        return numFrames;
+    }
+
+    /**
+     * @return the number of frames passed on as speech so far, including hangover frames.
+     */
+    public long getNumSpeechFrames() {
+        return numSpeechFrames;
+    }
+
+    /**
+     * @return the fraction of frames dropped as non-speech so far, 0 before any frame.
+     */
+    public double getSkippedFraction() {
+        return numFrames == 0 ? 0 : (double) (numFrames - numSpeechFrames) / numFrames;
+    }
+
+    /**
+     * Forgets the stream, e.g. when recording restarts. The counters are kept.
+     */
+    public void reset() {
+        frameCount = 0;
+        speechLength = 0;
+        remainingFrames = 0;
+        noiseFloorDb = Double.NaN;
+    }
+}
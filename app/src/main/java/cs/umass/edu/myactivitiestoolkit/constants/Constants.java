@@ -15,11 +15,15 @@ public class Constants {
         String BROADCAST_MESSAGE = "edu.umass.cs.my-activities-toolkit.action.broadcast-message";
         String BROADCAST_STATUS = "edu.umass.cs.my-activities-toolkit.action.broadcast-status";
         String BROADCAST_SPECTROGRAM = "edu.umass.cs.my-activities-toolkit.action.broadcast-spectrogram";
+        String BROADCAST_SPEAKER = "edu.umass.cs.my-activities-toolkit.action.broadcast-speaker";
         String BROADCAST_ACCELEROMETER_DATA = "edu.umass.cs.my-activities-toolkit.action.broadcast-accelerometer-data";
+        String BROADCAST_ACCELEROMETER_BATCH = "edu.umass.cs.my-activities-toolkit.action.broadcast-accelerometer-batch";
         String BROADCAST_ANDROID_STEP_COUNT = "edu.umass.cs.my-activities-toolkit.action.broadcast-android-step-count";
         String BROADCAST_LOCAL_STEP_COUNT = "edu.umass.cs.my-activities-toolkit.action.broadcast-local-step-count";
         String BROADCAST_SERVER_STEP_COUNT = "edu.umass.cs.my-activities-toolkit.action.broadcast-server-step-count";
         String BROADCAST_ACTIVITY = "edu.umass.cs.my-activities-toolkit.action.broadcast-activity";
+        String BROADCAST_STEP_BATCH = "edu.umass.cs.my-activities-toolkit.action.broadcast-step-batch";
+        String BROADCAST_GAIT = "edu.umass.cs.my-activities-toolkit.action.broadcast-gait";
         String BROADCAST_PPG = "edu.umass.cs.my-activities-toolkit.action.broadcast-ppg";
         String BROADCAST_PPG_PEAK = "edu.umass.cs.my-activities-toolkit.action.broadcast-ppg-peak";
         String BROADCAST_ACCELEROMETER_PEAK = "edu.umass.cs.my-activities-toolkit.action.broadcast-accelerometer-peak";
@@ -30,6 +34,7 @@ public class Constants {
         String NAVIGATE_TO_APP = "edu.umass.cs.my-activities-toolkit.action.navigate-to-app";
         String UPDATE_ACTIVITY = "edu.umass.cs.my-activities-toolkit.action.update-activity";
         String COLLECT_DATA = "edu.umass.cs.my-activities-toolkit.action.collect-data";
+        String ENROLL_SPEAKER = "edu.umass.cs.my-activities-toolkit.action.enroll-speaker";
     }
 
     /**
@@ -49,6 +54,7 @@ public class Constants {
         String MESSAGE = "edu.umass.cs.my-activities-toolkit.key.message";
         String STATUS = "edu.umass.cs.my-activities-toolkit.key.status";
         String ACCELEROMETER_DATA = "edu.umass.cs.my-activities-toolkit.key.accelerometer-data";
+        String ACCELEROMETER_TIMESTAMPS = "edu.umass.cs.my-activities-toolkit.key.accelerometer-timestamps";
         String TIMESTAMP = "edu.umass.cs.my-activities-toolkit.key.ppg-timestamp";
         String PPG_DATA = "edu.umass.cs.my-activities-toolkit.key.ppg-value";
         String HEART_RATE = "edu.umass.cs.my-activities-toolkit.key.heart-rate";
@@ -61,6 +67,12 @@ public class Constants {
         String NOTIFICATION_ID = "edu.umass.cs.my-activities-toolkit.key.sensor-service-type";
         String IS_COLLECTING = "edu.umass.cs.my-activities-toolkit.key.is-collecting";
         String LABELLED_ACTIVITY = "edu.umass.cs.my-activities-toolkit.key.labelled-activity";
+        String GAIT_CADENCE = "edu.umass.cs.my-activities-toolkit.key.gait-cadence";
+        String GAIT_INTERVAL_MEAN = "edu.umass.cs.my-activities-toolkit.key.gait-interval-mean";
+        String GAIT_INTERVAL_VARIANCE = "edu.umass.cs.my-activities-toolkit.key.gait-interval-variance";
+        String GAIT_REGULARITY = "edu.umass.cs.my-activities-toolkit.key.gait-regularity";
+        String SPEAKER = "edu.umass.cs.my-activities-toolkit.key.speaker";
+        String IS_ENROLLING = "edu.umass.cs.my-activities-toolkit.key.is-enrolling";
 
     }
 
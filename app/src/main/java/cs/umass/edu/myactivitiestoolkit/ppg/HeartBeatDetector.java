@@ -0,0 +1,141 @@
+package cs.umass.edu.myactivitiestoolkit.ppg;
+
+import java.util.LinkedList;
+import java.util.Queue;
+
+/**
+ * Detects heart beats in a filtered PPG signal using an upward threshold-crossing
+ * algorithm. The threshold is the midpoint of the min and max over the last
+ * {@link #BUFFER_WINDOW} milliseconds. The heart rate is the number of beats in
+ * the last minute.
+ * <br><br>
+ * All windows are measured against the event timestamps rather than the wall clock,
+ * so the detector behaves identically on live data and on replayed traces.
+ *
+ * @see PPGEvent
+ * @see cs.umass.edu.myactivitiestoolkit.services.PPGService
+ */
+public class HeartBeatDetector {
+
+    private static final long MILLIS_PER_SECOND = 1000;
+
+    private static final long MILLIS_PER_MINUTE = 60 * MILLIS_PER_SECOND;
+
+    /** The length of the window over which the threshold is computed, in milliseconds. */
+    private static final long BUFFER_WINDOW = 3 * MILLIS_PER_SECOND;
+
+    /** The length of the window over which the heart rate is computed, in milliseconds. */
+    private static final long PEAK_WINDOW = MILLIS_PER_MINUTE;
+
+    /** The length of the window over which the heart rate variability is computed, in milliseconds. */
+    private static final long HRV_WINDOW = 5 * MILLIS_PER_MINUTE;
+
+    /** The samples received in the last {@link #BUFFER_WINDOW} milliseconds. */
+    private final Queue<PPGEvent> buffer = new LinkedList<>();
+
+    /** The beats detected in the last {@link #PEAK_WINDOW} milliseconds. */
+    private final Queue<PPGEvent> currentPeaks = new LinkedList<>();
+
+    /** The timestamps of the beats contributing to {@link #hrvIntervals}. */
+    private final Queue<Long> hrvTimestamps = new LinkedList<>();
+
+    /** The inter-beat intervals in the last {@link #HRV_WINDOW} milliseconds. */
+    private final Queue<Long> hrvIntervals = new LinkedList<>();
+
+    /** The most recent sample, or null if no sample has been received. */
+    private PPGEvent lastEvent;
+
+    /** The timestamp of the most recent beat, or {@link Long#MIN_VALUE} if none has been detected. */
+    private long lastBeatTimestamp = Long.MIN_VALUE;
+
+    /**
+     * Processes a filtered PPG sample.
+     * @param event the filtered sample.
+     * @return true if the sample is a heart beat, false otherwise.
+     */
+    public boolean onSample(PPGEvent event) {
+        // Find threshold for zero crossing algorithm
+        double min = Double.MAX_VALUE;
+        double max = -Double.MAX_VALUE;
+        for (PPGEvent sample : buffer) {
+            if (sample.value > max)
+                max = sample.value;
+            if (sample.value < min)
+                min = sample.value;
+        }
+        double threshold = (min + max) / 2;
+
+        // Remove old peaks in one minute window
+        while (!currentPeaks.isEmpty() && event.timestamp - currentPeaks.peek().timestamp > PEAK_WINDOW) {
+            currentPeaks.remove();
+        }
+
+        boolean isPeak = lastEvent != null && !buffer.isEmpty()
+                && event.value > lastEvent.value
+                && lastEvent.value < threshold
+                && event.value > threshold;
+        if (isPeak) {
+            currentPeaks.add(event);
+            if (lastBeatTimestamp != Long.MIN_VALUE) {
+                hrvTimestamps.add(event.timestamp);
+                hrvIntervals.add(event.timestamp - lastBeatTimestamp);
+            }
+            lastBeatTimestamp = event.timestamp;
+        }
+
+        // Remove old intervals in five minute window
+        while (!hrvTimestamps.isEmpty() && event.timestamp - hrvTimestamps.peek() > HRV_WINDOW) {
+            hrvTimestamps.remove();
+            hrvIntervals.remove();
+        }
+
+        // Add event to a buffer of 3 seconds
+        buffer.add(event);
+        while (!buffer.isEmpty() && event.timestamp - buffer.peek().timestamp > BUFFER_WINDOW) {
+            buffer.remove();
+        }
+        lastEvent = event;
+        return isPeak;
+    }
+
+    /**
+     * @return the number of beats detected in the last minute.
+     */
+    public int getBeatsPerMinute() {
+        return currentPeaks.size();
+    }
+
+    /**
+     * @return the standard deviation of the inter-beat intervals over the last five
+     * minutes, in milliseconds, or 0 if fewer than two beats have been detected.
+     */
+    public double getHeartRateVariability() {
+        if (hrvIntervals.isEmpty()) {
+            return 0;
+        }
+        double average = 0;
+        for (Long interval : hrvIntervals) {
+            average += interval;
+        }
+        average /= hrvIntervals.size();
+        double variance = 0;
+        for (Long interval : hrvIntervals) {
+            double diff = average - interval;
+            variance += diff * diff;
+        }
+        variance /= hrvIntervals.size();
+        return Math.sqrt(variance);
+    }
+
+    /**
+     * Clears all buffered samples and detected beats.
+     */
+    public void reset() {
+        buffer.clear();
+        currentPeaks.clear();
+        hrvTimestamps.clear();
+        hrvIntervals.clear();
+        lastEvent = null;
+        lastBeatTimestamp = Long.MIN_VALUE;
+    }
+}
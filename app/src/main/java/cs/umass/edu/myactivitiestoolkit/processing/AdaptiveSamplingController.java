@@ -0,0 +1,234 @@
+package cs.umass.edu.myactivitiestoolkit.processing;
+
+/**
+ * Chooses the accelerometer sampling rate from a cheap on-device stillness estimate, so
+ * that the sensor does not run at full rate while the phone lies still for hours.
+ * <br><br>
+ * Stillness is the standard deviation of the acceleration magnitude over consecutive
+ * {@link #WINDOW_LENGTH} windows, computed from running sums, so each sample costs a
+ * handful of arithmetic operations. The controller moves between three modes:
+ * <ul>
+ *     <li>{@link Mode#ACTIVE}: full rate. After {@link #IDLE_DELAY} of still windows,
+ *     the controller drops to idle.</li>
+ *     <li>{@link Mode#IDLE}: low rate. Any sample deviating from the current window mean
+ *     by more than {@link #ONSET_THRESHOLD}, or a window which is no longer still, is
+ *     treated as motion onset and ramps straight back up to active. After
+ *     {@link #SUSPEND_DELAY} in idle, the controller suspends sampling, if suspending
+ *     is enabled.</li>
+ *     <li>{@link Mode#SUSPENDED}: the accelerometer is off and the caller waits for a
+ *     significant motion trigger, reported through {@link #onSignificantMotion(long)}.</li>
+ * </ul>
+ * The rate of each mode is given by {@link #getSamplingPeriodUs(Mode)}; callers should
+ * reconfigure their filters for {@link #getSampleRate(Mode)} when the mode changes.
+ * Samples within {@link #SETTLE_TIME} of a mode change are ignored, so the transient of
+ * the filters adjusting to the new rate is not mistaken for motion onset.
+ */
+public class AdaptiveSamplingController {
+
+    private static final long MILLIS_PER_SECOND = 1000;
+
+    private static final int MICROSECONDS_PER_SECOND = 1000 * 1000;
+
+    /** The length of the windows over which stillness is estimated, in milliseconds. */
+    private static final long WINDOW_LENGTH = 2 * MILLIS_PER_SECOND;
+
+    /** The standard deviation of the magnitude, in m/s^2, below which a window is still. */
+    private static final double STILL_THRESHOLD = 0.2;
+
+    /** The deviation from the window mean, in m/s^2, which counts as motion onset while idle. */
+    private static final double ONSET_THRESHOLD = 1.5;
+
+    /** How long the phone must be still before sampling drops to the idle rate, in milliseconds. */
+    private static final long IDLE_DELAY = 20 * MILLIS_PER_SECOND;
+
+    /** How long the phone must stay idle before sampling is suspended, in milliseconds. */
+    private static final long SUSPEND_DELAY = 2 * 60 * MILLIS_PER_SECOND;
+
+    /** How long samples are ignored after a mode change, in milliseconds. */
+    public static final long SETTLE_TIME = MILLIS_PER_SECOND;
+
+    /** The accelerometer rate while active, in Hz. */
+    private static final double ACTIVE_RATE = 30;
+
+    /** The accelerometer rate while idle, in Hz. */
+    private static final double IDLE_RATE = 5;
+
+    /** The sampling modes chosen by the controller. */
+    public enum Mode {
+        ACTIVE,
+        IDLE,
+        SUSPENDED
+    }
+
+    /** Notified on the thread feeding the controller whenever the mode changes. */
+    public interface OnModeChangedListener {
+        /**
+         * @param mode the new mode.
+         * @param timestamp the time of the sample or trigger which changed the mode, in milliseconds.
+         */
+        void onModeChanged(Mode mode, long timestamp);
+    }
+
+    private OnModeChangedListener listener;
+
+    private boolean suspendEnabled;
+
+    private Mode mode = Mode.ACTIVE;
+
+    /** The time at which the current mode was entered, or of the last motion while active. */
+    private long modeStart = Long.MIN_VALUE;
+
+    /** Samples before this time are ignored while the filters settle after a mode change. */
+    private long settleEnd = Long.MIN_VALUE;
+
+    private long windowStart = Long.MIN_VALUE;
+
+    private int windowCount;
+
+    private double windowSum;
+
+    private double windowSquareSum;
+
+    /**
+     * @param listener notified when the mode changes, or null.
+     */
+    public void setOnModeChangedListener(OnModeChangedListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Enables the suspended mode. Only enable it if a significant motion trigger can wake
+     * the controller up again.
+     * @param suspendEnabled whether sampling may be suspended after a long idle period.
+     */
+    public void setSuspendEnabled(boolean suspendEnabled) {
+        this.suspendEnabled = suspendEnabled;
+    }
+
+    /**
+     * @return the current sampling mode.
+     */
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * @param mode a sampling mode.
+     * @return the accelerometer rate of the mode, in Hz, or 0 if the accelerometer is off.
+     */
+    public static double getSampleRate(Mode mode) {
+        switch (mode) {
+            case ACTIVE:
+                return ACTIVE_RATE;
+            case IDLE:
+                return IDLE_RATE;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * @param mode a sampling mode.
+     * @return the accelerometer sampling period of the mode, in microseconds, or 0 if the
+     * accelerometer is off.
+     */
+    public static int getSamplingPeriodUs(Mode mode) {
+        double rate = getSampleRate(mode);
+        return rate == 0 ? 0 : (int) Math.round(MICROSECONDS_PER_SECOND / rate);
+    }
+
+    /**
+     * Updates the stillness estimate with an accelerometer sample and changes the mode
+     * if necessary.
+     * @param timestamp the time of the sample, in milliseconds.
+     * @param x acceleration along the x-axis
+     * @param y acceleration along the y-axis
+     * @param z acceleration along the z-axis
+     * @return the mode after this sample.
+     */
+    public Mode onSample(long timestamp, float x, float y, float z) {
+        if (mode == Mode.SUSPENDED || timestamp < settleEnd) {
+            return mode;
+        }
+        if (modeStart == Long.MIN_VALUE) {
+            modeStart = timestamp;
+        }
+        double magnitude = Math.sqrt(x * x + y * y + z * z);
+
+        if (mode == Mode.IDLE && windowCount > 0
+                && Math.abs(magnitude - windowSum / windowCount) > ONSET_THRESHOLD) {
+            setMode(Mode.ACTIVE, timestamp);
+            return mode;
+        }
+
+        if (windowCount == 0) {
+            windowStart = timestamp;
+        }
+        windowCount++;
+        windowSum += magnitude;
+        windowSquareSum += magnitude * magnitude;
+        if (timestamp - windowStart >= WINDOW_LENGTH) {
+            double mean = windowSum / windowCount;
+            double variance = Math.max(0, windowSquareSum / windowCount - mean * mean);
+            onWindow(Math.sqrt(variance) < STILL_THRESHOLD, timestamp);
+            windowCount = 0;
+            windowSum = windowSquareSum = 0;
+        }
+        return mode;
+    }
+
+    private void onWindow(boolean still, long timestamp) {
+        switch (mode) {
+            case ACTIVE:
+                if (!still) {
+                    modeStart = timestamp;
+                } else if (timestamp - modeStart >= IDLE_DELAY) {
+                    setMode(Mode.IDLE, timestamp);
+                }
+                break;
+            case IDLE:
+                if (!still) {
+                    setMode(Mode.ACTIVE, timestamp);
+                } else if (suspendEnabled && timestamp - modeStart >= SUSPEND_DELAY) {
+                    setMode(Mode.SUSPENDED, timestamp);
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Wakes the controller up from the suspended mode, e.g. when the significant motion
+     * sensor triggers.
+     * @param timestamp the time of the trigger, in milliseconds.
+     */
+    public void onSignificantMotion(long timestamp) {
+        if (mode == Mode.SUSPENDED) {
+            setMode(Mode.ACTIVE, timestamp);
+        }
+    }
+
+    private void setMode(Mode mode, long timestamp) {
+        this.mode = mode;
+        modeStart = timestamp;
+        settleEnd = timestamp + SETTLE_TIME;
+        windowCount = 0;
+        windowSum = windowSquareSum = 0;
+        if (listener != null) {
+            listener.onModeChanged(mode, timestamp);
+        }
+    }
+
+    /**
+     * Returns to the active mode and forgets the stillness estimate, without notifying
+     * the listener.
+     */
+    public void reset() {
+        mode = Mode.ACTIVE;
+        modeStart = Long.MIN_VALUE;
+        settleEnd = Long.MIN_VALUE;
+        windowCount = 0;
+        windowSum = windowSquareSum = 0;
+    }
+}
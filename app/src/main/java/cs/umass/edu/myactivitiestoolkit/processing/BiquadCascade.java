@@ -0,0 +1,128 @@
+package cs.umass.edu.myactivitiestoolkit.processing;
+
+/**
+ * Applies a cascade of second-order sections (biquads) independently to each channel of
+ * an interleaved signal. Each section is evaluated in transposed direct form II, which
+ * keeps two state values per section and channel and behaves well numerically for the
+ * low cutoff-to-sample-rate ratios of sensor filters.
+ * <br><br>
+ * The coefficients may be replaced while the filter is running, e.g. when the sample
+ * rate is recalibrated. The filter state is kept, so the output does not restart from
+ * zero; {@link #prime(float[], int)} sets the state to the steady state of a constant
+ * input instead, which avoids the start-up ramp of a fresh filter and the transient of
+ * state left over from other coefficients.
+ *
+ * @see ButterworthDesigner
+ */
+public class BiquadCascade {
+
+    private static final int COEFFICIENTS_PER_SECTION = ButterworthDesigner.COEFFICIENTS_PER_SECTION;
+
+    /** The number of independent channels filtered, e.g. 3 for the x, y and z axes. */
+    private final int numChannels;
+
+    /** b0, b1, b2, a1, a2 for each section. */
+    private double[] coefficients;
+
+    private int numSections;
+
+    /** Two state values per section per channel, grouped by channel. */
+    private double[] state;
+
+    /**
+     * @param coefficients the second-order section coefficients, as designed by {@link ButterworthDesigner}.
+     * @param numChannels the number of channels per sample.
+     */
+    public BiquadCascade(double[] coefficients, int numChannels) {
+        if (numChannels <= 0) {
+            throw new IllegalArgumentException("The number of channels must be positive.");
+        }
+        this.numChannels = numChannels;
+        setCoefficients(coefficients);
+    }
+
+    /**
+     * Replaces the filter coefficients. If the number of sections is unchanged, the filter
+     * state is kept; otherwise the filter is reset.
+     * @param coefficients the second-order section coefficients.
+     */
+    public void setCoefficients(double[] coefficients) {
+        if (coefficients.length == 0 || coefficients.length % COEFFICIENTS_PER_SECTION != 0) {
+            throw new IllegalArgumentException("Expected " + COEFFICIENTS_PER_SECTION + " coefficients per section.");
+        }
+        int sections = coefficients.length / COEFFICIENTS_PER_SECTION;
+        if (state == null || sections != numSections) {
+            numSections = sections;
+            state = new double[numChannels * numSections * 2];
+        }
+        this.coefficients = coefficients.clone();
+    }
+
+    /**
+     * @return the number of channels per sample.
+     */
+    public int getNumChannels() {
+        return numChannels;
+    }
+
+    /**
+     * Clears the filter state.
+     */
+    public void reset() {
+        for (int i = 0; i < state.length; i++) {
+            state[i] = 0;
+        }
+    }
+
+    /**
+     * Sets the state of every channel to the steady state the filter reaches on a constant
+     * input, so filtering that input from now on produces its DC response right away.
+     * @param input a sample, {@link #getNumChannels()} values.
+     * @param offset index in input of the first value of the sample.
+     */
+    public void prime(float[] input, int offset) {
+        double[] c = coefficients;
+        double[] s = state;
+        for (int channel = 0; channel < numChannels; channel++) {
+            double x = input[offset + channel];
+            for (int section = 0, k = 0, z = channel * numSections * 2; section < numSections;
+                 section++, k += COEFFICIENTS_PER_SECTION, z += 2) {
+                double y = x * (c[k] + c[k + 1] + c[k + 2]) / (1 + c[k + 3] + c[k + 4]);
+                s[z + 1] = c[k + 2] * x - c[k + 4] * y;
+                s[z] = c[k + 1] * x - c[k + 3] * y + s[z + 1];
+                x = y;
+            }
+        }
+    }
+
+    /**
+     * Filters a block of samples, interleaved by channel, into the given output array.
+     * The filter state carries over between calls and nothing is allocated. Passing the
+     * same array and offset for input and output filters the block in place.
+     * @param input the samples, {@link #getNumChannels()} values per sample.
+     * @param inputOffset index in input of the first value of the first sample.
+     * @param output receives the filtered samples, in the same layout.
+     * @param outputOffset index in output at which the first filtered value is written.
+     * @param numSamples the number of samples in the block.
+     */
+    public void filter(float[] input, int inputOffset, float[] output, int outputOffset, int numSamples) {
+        double[] c = coefficients;
+        double[] s = state;
+        for (int channel = 0; channel < numChannels; channel++) {
+            int stateOffset = channel * numSections * 2;
+            int in = inputOffset + channel;
+            int out = outputOffset + channel;
+            for (int n = 0; n < numSamples; n++, in += numChannels, out += numChannels) {
+                double x = input[in];
+                for (int section = 0, k = 0, z = stateOffset; section < numSections;
+                     section++, k += COEFFICIENTS_PER_SECTION, z += 2) {
+                    double y = c[k] * x + s[z];
+                    s[z] = c[k + 1] * x - c[k + 3] * y + s[z + 1];
+                    s[z + 1] = c[k + 2] * x - c[k + 4] * y;
+                    x = y;
+                }
+                output[out] = (float) x;
+            }
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package cs.umass.edu.myactivitiestoolkit.processing;
+
+/**
+ * Designs digital Butterworth filters of any order as cascades of second-order sections,
+ * using the bilinear transform with frequency pre-warping. The coefficients of each
+ * section are stored consecutively as {@code b0, b1, b2, a1, a2}, normalized so that
+ * {@code a0 = 1}, which is the layout expected by {@link BiquadCascade}. An odd order
+ * adds a first-order section, stored as a biquad with {@code b2 = a2 = 0}.
+ * <br><br>
+ * Cutoff frequencies are clamped to {@link #MAX_CUTOFF_FRACTION} of the sample rate,
+ * so a filter designed for a cutoff above the Nyquist frequency of a slow sensor
+ * stays stable rather than failing.
+ *
+ * @see BiquadCascade
+ * @see ButterworthFilter
+ */
+public final class ButterworthDesigner {
+
+    /** The number of coefficients stored per second-order section. */
+    public static final int COEFFICIENTS_PER_SECTION = 5;
+
+    /** The largest cutoff frequency designed, as a fraction of the sample rate. */
+    public static final double MAX_CUTOFF_FRACTION = 0.45;
+
+    private ButterworthDesigner() {
+    }
+
+    /**
+     * Designs a low-pass Butterworth filter.
+     * @param order the filter order, at least 1.
+     * @param cutoff the -3 dB cutoff frequency, in Hz.
+     * @param sampleRate the sample rate, in Hz.
+     * @return the second-order section coefficients.
+     */
+    public static double[] lowPass(int order, double cutoff, double sampleRate) {
+        return design(order, cutoff, sampleRate, false);
+    }
+
+    /**
+     * Designs a high-pass Butterworth filter.
+     * @param order the filter order, at least 1.
+     * @param cutoff the -3 dB cutoff frequency, in Hz.
+     * @param sampleRate the sample rate, in Hz.
+     * @return the second-order section coefficients.
+     */
+    public static double[] highPass(int order, double cutoff, double sampleRate) {
+        return design(order, cutoff, sampleRate, true);
+    }
+
+    /**
+     * Designs a band-pass filter as a high-pass Butterworth filter at the lower edge
+     * followed by a low-pass Butterworth filter at the upper edge. For the wide bands
+     * used on sensor data, e.g. 0.7-4 Hz for PPG, this matches the band-pass transform
+     * of the same order closely and keeps each section simple.
+     * @param order the order of each of the high-pass and low-pass halves, at least 1.
+     * @param lowCutoff the lower -3 dB frequency, in Hz.
+     * @param highCutoff the upper -3 dB frequency, in Hz.
+     * @param sampleRate the sample rate, in Hz.
+     * @return the second-order section coefficients.
+     */
+    public static double[] bandPass(int order, double lowCutoff, double highCutoff, double sampleRate) {
+        if (lowCutoff >= highCutoff) {
+            throw new IllegalArgumentException("The lower cutoff must be below the upper cutoff.");
+        }
+        double[] highPass = highPass(order, lowCutoff, sampleRate);
+        double[] lowPass = lowPass(order, highCutoff, sampleRate);
+        double[] sections = new double[highPass.length + lowPass.length];
+        System.arraycopy(highPass, 0, sections, 0, highPass.length);
+        System.arraycopy(lowPass, 0, sections, highPass.length, lowPass.length);
+        return sections;
+    }
+
+    /**
+     * @param order the filter order.
+     * @return the number of second-order sections in a low-pass or high-pass filter of the given order.
+     */
+    public static int getNumSections(int order) {
+        return (order + 1) / 2;
+    }
+
+    private static double[] design(int order, double cutoff, double sampleRate, boolean highPass) {
+        if (order < 1) {
+            throw new IllegalArgumentException("The filter order must be at least 1.");
+        }
+        if (cutoff <= 0 || sampleRate <= 0) {
+            throw new IllegalArgumentException("The cutoff and sample rate must be positive.");
+        }
+        double frequency = Math.min(cutoff, MAX_CUTOFF_FRACTION * sampleRate);
+        double k = Math.tan(Math.PI * frequency / sampleRate);
+        double[] sections = new double[getNumSections(order) * COEFFICIENTS_PER_SECTION];
+
+        int offset = 0;
+        for (int pair = 1; pair <= order / 2; pair++) {
+            // quality factor of the analog prototype pole pair (2 * pair - 1) * pi / (2 * order) off the imaginary axis
+            double q = 1 / (2 * Math.sin((2 * pair - 1) * Math.PI / (2 * order)));
+            double norm = 1 / (1 + k / q + k * k);
+            if (highPass) {
+                sections[offset] = norm;
+                sections[offset + 1] = -2 * norm;
+                sections[offset + 2] = norm;
+            } else {
+                sections[offset] = k * k * norm;
+                sections[offset + 1] = 2 * k * k * norm;
+                sections[offset + 2] = k * k * norm;
+            }
+            sections[offset + 3] = 2 * (k * k - 1) * norm;
+            sections[offset + 4] = (1 - k / q + k * k) * norm;
+            offset += COEFFICIENTS_PER_SECTION;
+        }
+        if (order % 2 == 1) {
+            double norm = 1 / (1 + k);
+            if (highPass) {
+                sections[offset] = norm;
+                sections[offset + 1] = -norm;
+            } else {
+                sections[offset] = k * norm;
+                sections[offset + 1] = k * norm;
+            }
+            sections[offset + 3] = (k - 1) * norm;
+        }
+        return sections;
+    }
+}
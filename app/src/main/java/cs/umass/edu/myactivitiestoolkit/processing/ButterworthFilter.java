@@ -0,0 +1,288 @@
+package cs.umass.edu.myactivitiestoolkit.processing;
+
+/**
+ * A low-pass, high-pass or band-pass Butterworth filter which calibrates itself to the
+ * actual sample rate of its input. The sample rate is estimated from the timestamps of
+ * the filtered samples by a {@link SampleRateEstimator}, and once it drifts more than
+ * {@link #RATE_TOLERANCE} from the rate the coefficients were designed for, the
+ * coefficients are recomputed.
+ * <br><br>
+ * The filter state starts at the steady state of the first sample, rather than at zero,
+ * so the output does not ramp up from zero when a filter is created or reset. Whenever
+ * the coefficients are redesigned, the state is primed again from the last input, since
+ * state left over from other coefficients would make the output jump.
+ * <br><br>
+ * Unlike {@link Filter}, which always assumes 30 Hz, the cutoff frequencies therefore
+ * hold whatever rate the sensor actually delivers, so sensor rates may be lowered
+ * without retuning the filters.
+ *
+ * @see ButterworthDesigner
+ * @see BiquadCascade
+ */
+public class ButterworthFilter {
+
+    /** The relative difference between the estimated and design sample rate which triggers a redesign. */
+    private static final double RATE_TOLERANCE = 0.1;
+
+    /** The frequency response of the filter. */
+    public enum Response {
+        LOW_PASS,
+        HIGH_PASS,
+        BAND_PASS
+    }
+
+    /**
+     * Describes a filter independently of its state and channel count. Two filters with
+     * equal specs produce the same output on the same input once they have measured its
+     * sample rate, so a spec may be used to share one filter between several consumers of
+     * a signal. The nominal rate is only where the filter starts, and is not part of the
+     * identity of a spec: specs which differ only in their nominal rate are equal.
+     */
+    public static final class Spec {
+
+        private final Response response;
+
+        private final int order;
+
+        /** The cutoff of a low-pass or high-pass filter, or the lower edge of a band-pass filter, in Hz. */
+        private final double lowCutoff;
+
+        /** The upper edge of a band-pass filter, in Hz, unused otherwise. */
+        private final double highCutoff;
+
+        /** The expected sample rate, in Hz, used until the actual rate is measured. */
+        private final double nominalRate;
+
+        private Spec(Response response, int order, double lowCutoff, double highCutoff, double nominalRate) {
+            this.response = response;
+            this.order = order;
+            this.lowCutoff = lowCutoff;
+            this.highCutoff = highCutoff;
+            this.nominalRate = nominalRate;
+        }
+
+        /**
+         * @param order the filter order, at least 1.
+         * @param cutoff the -3 dB cutoff frequency, in Hz.
+         * @param nominalRate the expected sample rate, in Hz, used until the actual rate is measured.
+         * @return the spec of a low-pass filter.
+         */
+        public static Spec lowPass(int order, double cutoff, double nominalRate) {
+            return new Spec(Response.LOW_PASS, order, cutoff, 0, nominalRate);
+        }
+
+        /**
+         * @param order the filter order, at least 1.
+         * @param cutoff the -3 dB cutoff frequency, in Hz.
+         * @param nominalRate the expected sample rate, in Hz, used until the actual rate is measured.
+         * @return the spec of a high-pass filter.
+         */
+        public static Spec highPass(int order, double cutoff, double nominalRate) {
+            return new Spec(Response.HIGH_PASS, order, cutoff, 0, nominalRate);
+        }
+
+        /**
+         * @param order the order of each of the high-pass and low-pass halves, at least 1.
+         * @param lowCutoff the lower -3 dB frequency, in Hz.
+         * @param highCutoff the upper -3 dB frequency, in Hz.
+         * @param nominalRate the expected sample rate, in Hz, used until the actual rate is measured.
+         * @return the spec of a band-pass filter.
+         * @see ButterworthDesigner#bandPass(int, double, double, double)
+         */
+        public static Spec bandPass(int order, double lowCutoff, double highCutoff, double nominalRate) {
+            return new Spec(Response.BAND_PASS, order, lowCutoff, highCutoff, nominalRate);
+        }
+
+        private double[] design(double sampleRate) {
+            switch (response) {
+                case HIGH_PASS:
+                    return ButterworthDesigner.highPass(order, lowCutoff, sampleRate);
+                case BAND_PASS:
+                    return ButterworthDesigner.bandPass(order, lowCutoff, highCutoff, sampleRate);
+                default:
+                    return ButterworthDesigner.lowPass(order, lowCutoff, sampleRate);
+            }
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Spec)) {
+                return false;
+            }
+            Spec other = (Spec) o;
+            return response == other.response && order == other.order
+                    && Double.compare(lowCutoff, other.lowCutoff) == 0
+                    && Double.compare(highCutoff, other.highCutoff) == 0;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = response.hashCode();
+            result = 31 * result + order;
+            result = 31 * result + Double.valueOf(lowCutoff).hashCode();
+            result = 31 * result + Double.valueOf(highCutoff).hashCode();
+            return result;
+        }
+    }
+
+    private final Spec spec;
+
+    private final SampleRateEstimator sampleRateEstimator;
+
+    private final BiquadCascade cascade;
+
+    /** The sample rate the current coefficients were designed for, in Hz. */
+    private double designRate;
+
+    /** The last sample filtered, from which the state is primed after a redesign. */
+    private final float[] lastInput;
+
+    /** Whether the state has been primed since the filter was created or reset. */
+    private boolean primed;
+
+    /**
+     * @param spec describes the filter.
+     * @param numChannels the number of channels per sample.
+     */
+    public ButterworthFilter(Spec spec, int numChannels) {
+        this.spec = spec;
+        sampleRateEstimator = new SampleRateEstimator(spec.nominalRate);
+        designRate = spec.nominalRate;
+        cascade = new BiquadCascade(spec.design(designRate), numChannels);
+        lastInput = new float[numChannels];
+    }
+
+    /**
+     * @param order the filter order, at least 1.
+     * @param cutoff the -3 dB cutoff frequency, in Hz.
+     * @param nominalRate the expected sample rate, in Hz, used until the actual rate is measured.
+     * @param numChannels the number of channels per sample.
+     * @return a low-pass filter.
+     */
+    public static ButterworthFilter lowPass(int order, double cutoff, double nominalRate, int numChannels) {
+        return new ButterworthFilter(Spec.lowPass(order, cutoff, nominalRate), numChannels);
+    }
+
+    /**
+     * @param order the filter order, at least 1.
+     * @param cutoff the -3 dB cutoff frequency, in Hz.
+     * @param nominalRate the expected sample rate, in Hz, used until the actual rate is measured.
+     * @param numChannels the number of channels per sample.
+     * @return a high-pass filter.
+     */
+    public static ButterworthFilter highPass(int order, double cutoff, double nominalRate, int numChannels) {
+        return new ButterworthFilter(Spec.highPass(order, cutoff, nominalRate), numChannels);
+    }
+
+    /**
+     * @param order the order of each of the high-pass and low-pass halves, at least 1.
+     * @param lowCutoff the lower -3 dB frequency, in Hz.
+     * @param highCutoff the upper -3 dB frequency, in Hz.
+     * @param nominalRate the expected sample rate, in Hz, used until the actual rate is measured.
+     * @param numChannels the number of channels per sample.
+     * @return a band-pass filter.
+     * @see ButterworthDesigner#bandPass(int, double, double, double)
+     */
+    public static ButterworthFilter bandPass(int order, double lowCutoff, double highCutoff,
+                                             double nominalRate, int numChannels) {
+        return new ButterworthFilter(Spec.bandPass(order, lowCutoff, highCutoff, nominalRate), numChannels);
+    }
+
+    /**
+     * Filters a single sample.
+     * @param timestamp the time of the sample, in milliseconds.
+     * @param input the sample, one value per channel.
+     * @param output receives the filtered sample; may be the input array.
+     */
+    public void filter(long timestamp, float[] input, float[] output) {
+        filter(timestamp, input, 0, output, 0, 1);
+    }
+
+    /**
+     * Filters a block of evenly spaced samples, interleaved by channel. Nothing is
+     * allocated unless the coefficients are redesigned. Passing the same array and
+     * offset for input and output filters the block in place.
+     * @param timestamp the time of the last sample in the block, in milliseconds.
+     * @param input the samples, {@link #getNumChannels()} values per sample.
+     * @param inputOffset index in input of the first value of the first sample.
+     * @param output receives the filtered samples, in the same layout.
+     * @param outputOffset index in output at which the first filtered value is written.
+     * @param numSamples the number of samples in the block.
+     */
+    public void filter(long timestamp, float[] input, int inputOffset, float[] output, int outputOffset, int numSamples) {
+        if (numSamples <= 0) {
+            return;
+        }
+        if (!primed) {
+            cascade.prime(input, inputOffset);
+            primed = true;
+        }
+        sampleRateEstimator.update(timestamp, numSamples);
+        if (sampleRateEstimator.isCalibrated()) {
+            double sampleRate = sampleRateEstimator.getSampleRate();
+            if (Math.abs(sampleRate - designRate) > RATE_TOLERANCE * designRate) {
+                redesign(sampleRate);
+            }
+        }
+        // copied first, since the block may be filtered in place
+        int numChannels = lastInput.length;
+        System.arraycopy(input, inputOffset + (numSamples - 1) * numChannels, lastInput, 0, numChannels);
+        cascade.filter(input, inputOffset, output, outputOffset, numSamples);
+    }
+
+    /**
+     * Redesigns the coefficients for a new sample rate right away, rather than once the
+     * change has been measured, and restarts the rate measurement from it. Use this when
+     * the sensor is re-registered at a different rate. The state is primed from the last
+     * input, so the output continues from the current level of the signal.
+     * @param sampleRate the new expected sample rate, in Hz.
+     */
+    public void setSampleRate(double sampleRate) {
+        sampleRateEstimator.reset(sampleRate);
+        if (sampleRate != designRate) {
+            redesign(sampleRate);
+        }
+    }
+
+    private void redesign(double sampleRate) {
+        designRate = sampleRate;
+        cascade.setCoefficients(spec.design(sampleRate));
+        if (primed) {
+            cascade.prime(lastInput, 0);
+        }
+    }
+
+    /**
+     * @return the spec this filter was built from.
+     */
+    public Spec getSpec() {
+        return spec;
+    }
+
+    /**
+     * @return the sample rate the current coefficients were designed for, in Hz.
+     */
+    public double getDesignRate() {
+        return designRate;
+    }
+
+    /**
+     * @return the number of channels per sample.
+     */
+    public int getNumChannels() {
+        return cascade.getNumChannels();
+    }
+
+    /**
+     * Clears the filter state and restarts the sample rate measurement, keeping the
+     * current coefficients. The state is primed again from the next sample.
+     */
+    public void reset() {
+        cascade.reset();
+        primed = false;
+        sampleRateEstimator.reset();
+    }
+}
@@ -1,5 +1,21 @@
 package cs.umass.edu.myactivitiestoolkit.processing;
 
+/**
+ * Discrete Fourier transform of complex and real signals of a fixed length n.
+ * <br><br>
+ * Powers of two are transformed in place by a radix-4 decimation-in-time kernel, which
+ * does two radix-2 stages per pass over the data with three complex multiplications
+ * per four points instead of four, after a bit-reversal permutation which is computed
+ * once per instance. Any other length is transformed with Bluestein's algorithm, which
+ * expresses the DFT as a convolution with a chirp and evaluates it with power-of-two
+ * FFTs of at least 2n-1 points. This avoids zero-padding a frame to the next power of
+ * two, but costs about three such transforms, so padding is cheaper whenever the
+ * padded spectrum will do.
+ * <br><br>
+ * Power-of-two transforms keep no state between calls and may be shared between
+ * threads. Other lengths use work buffers of the instance, which must then not be used
+ * by more than one thread at a time.
+ */
 public class FFT
 {
         int n, m;
@@ -9,16 +25,31 @@ public class FFT
         double[] cos;
         double[] sin;
 
+        /** Index pairs swapped by the bit-reversal permutation of n, and of n/2 points. */
+        private int[] swaps, halfSwaps;
+
+        /** The n/2 point transform used by the real transforms, if n is not a power of 2. */
+        private FFT half;
+
+        /** The power-of-two transform evaluating the Bluestein convolution, or null. */
+        private FFT convolution;
+
+        /** The chirp exp(-i*pi*k^2/n) of Bluestein's algorithm. */
+        private double[] chirpRe, chirpIm;
+
+        /** The transform of the conjugate chirp, scaled by the inverse transform's 1/M. */
+        private double[] kernelRe, kernelIm;
+
+        private double[] workRe, workIm;
+
         public FFT(int n)
         {
-                this.n = n;
-                this.m = (int)(Math.log(n) / Math.log(2));
-
-                // Make sure n is a power of 2
-                if (n != (1<<m))
+                if (n < 1)
                 {
-                        throw new RuntimeException("FFT length must be power of 2");
+                        throw new IllegalArgumentException("FFT length must be positive");
                 }
+                this.n = n;
+                this.m = Integer.numberOfTrailingZeros(n);
 
                 // precompute tables
                 cos = new double[n/2];
@@ -29,9 +60,51 @@ public class FFT
                         cos[i] = Math.cos(-2*Math.PI*i/n);
                         sin[i] = Math.sin(-2*Math.PI*i/n);
                 }
+
+                if (n == (1<<m))
+                {
+                        swaps = bitReversalSwaps(n);
+                        halfSwaps = bitReversalSwaps(Math.max(1, n/2));
+                }
         }
 
+        /**
+         * @return the index pairs (i, j), i &lt; j, exchanged by the bit-reversal
+         * permutation of size points, flattened.
+         */
+        private static int[] bitReversalSwaps(int size)
+        {
+                int[] pairs = new int[size];
+                int count = 0;
+                int j = 0;
+                for (int i=1; i < size - 1; i++)
+                {
+                        int n1 = size/2;
+                        while ( j >= n1 )
+                        {
+                                j = j - n1;
+                                n1 = n1/2;
+                        }
+                        j = j + n1;
 
+                        if (i < j)
+                        {
+                                pairs[count++] = i;
+                                pairs[count++] = j;
+                        }
+                }
+                int[] trimmed = new int[count];
+                System.arraycopy(pairs, 0, trimmed, 0, count);
+                return trimmed;
+        }
+
+        /**
+         * @return the length of the transform.
+         */
+        public int getSize()
+        {
+                return n;
+        }
 
         /***************************************************************
          * fft.c
@@ -52,61 +125,321 @@ public class FFT
          *   Permission to copy and use this program is granted 
          *   as long as this header is included. 
          ****************************************************************/
+        // The stages have since been paired into radix-4 passes, and lengths which are
+        // not a power of two are handled by bluestein().
         public void fft(double[] re, double[] im)
         {
-                int i,j,k,n1,n2,a;
-                double c,s,t1,t2;
+                if (swaps != null)
+                {
+                        transform(re, im, n, m, swaps);
+                }
+                else
+                {
+                        bluestein(re, im);
+                }
+        }
 
-                // Bit-reverse
-                j = 0;
-                n2 = n/2;
-                for (i=1; i < n - 1; i++)
+        /**
+         * The complex transform of n/2 points at the heart of the real transforms.
+         */
+        private void halfTransform(double[] re, double[] im)
+        {
+                if (halfSwaps != null)
                 {
-                        n1 = n2;
-                        while ( j >= n1 )
+                        transform(re, im, n/2, m-1, halfSwaps);
+                }
+                else
+                {
+                        if (half == null)
                         {
-                                j = j - n1;
-                                n1 = n1/2;
+                                half = new FFT(n/2);
                         }
-                        j = j + n1;
+                        half.fft(re, im);
+                }
+        }
 
-                        if (i < j)
-                        {
-                                t1 = re[i];
-                                re[i] = re[j];
-                                re[j] = t1;
-                                t1 = im[i];
-                                im[i] = im[j];
-                                im[j] = t1;
-                        }
+        /**
+         * In-place DIT DFT of the first size values of re and im, where size is a power of
+         * two dividing n. The twiddle factors are taken from the tables for n, so the same
+         * tables serve the half-size transform of {@link #realForward}.
+         */
+        private void transform(double[] re, double[] im, int size, int levels, int[] swaps)
+        {
+                // Bit-reverse
+                for (int p = 0; p < swaps.length; p += 2)
+                {
+                        int i = swaps[p];
+                        int j = swaps[p+1];
+                        double t = re[i];
+                        re[i] = re[j];
+                        re[j] = t;
+                        t = im[i];
+                        im[i] = im[j];
+                        im[j] = t;
                 }
 
-                // FFT
-                n2 = 1;
+                int q = 1;
 
-                for (i=0; i < m; i++)
+                // An odd number of stages starts with a radix-2 stage, whose twiddle factors are all 1
+                if ((levels & 1) != 0)
                 {
-                        n1 = n2;
-                        n2 = n2 + n2;
-                        a = 0;
+                        for (int k = 0; k < size; k += 2)
+                        {
+                                double tr = re[k+1];
+                                double ti = im[k+1];
+                                re[k+1] = re[k] - tr;
+                                im[k+1] = im[k] - ti;
+                                re[k] = re[k] + tr;
+                                im[k] = im[k] + ti;
+                        }
+                        q = 2;
+                }
 
-                        for (j=0; j < n1; j++)
+                // Radix-4 passes, each doing the radix-2 stages of half-size q and 2q. With
+                // w1 = W(2q)^j and w2 = W(4q)^j, the first stage pairs a0 with a1 and a2 with
+                // a3 through w1, and the second stage pairs the results through w2 and -i*w2.
+                for (; q < size; q *= 4)
+                {
+                        int stride = n / (4*q);
+                        for (int j = 0; j < q; j++)
                         {
-                                c = cos[a];
-                                s = sin[a];
-                                a +=  1 << (m-i-1);
+                                double w1r = cos[2*j*stride], w1i = sin[2*j*stride];
+                                double w2r = cos[j*stride], w2i = sin[j*stride];
+                                double w3r = w1r*w2r - w1i*w2i;
+                                double w3i = w1r*w2i + w1i*w2r;
 
-                                for (k=j; k < n; k=k+n2)
+                                for (int k = j; k < size; k += 4*q)
                                 {
-                                        t1 = c*re[k+n1] - s*im[k+n1];
-                                        t2 = s*re[k+n1] + c*im[k+n1];
-                                        re[k+n1] = re[k] - t1;
-                                        im[k+n1] = im[k] - t2;
-                                        re[k] = re[k] + t1;
-                                        im[k] = im[k] + t2;
+                                        int k1 = k + q, k2 = k1 + q, k3 = k2 + q;
+
+                                        double t1r = w1r*re[k1] - w1i*im[k1];
+                                        double t1i = w1r*im[k1] + w1i*re[k1];
+                                        double t2r = w2r*re[k2] - w2i*im[k2];
+                                        double t2i = w2r*im[k2] + w2i*re[k2];
+                                        double t3r = w3r*re[k3] - w3i*im[k3];
+                                        double t3i = w3r*im[k3] + w3i*re[k3];
+
+                                        double b0r = re[k] + t1r, b0i = im[k] + t1i;
+                                        double b1r = re[k] - t1r, b1i = im[k] - t1i;
+                                        double b2r = t2r + t3r, b2i = t2i + t3i;
+                                        double b3r = t2r - t3r, b3i = t2i - t3i;
+
+                                        re[k] = b0r + b2r;
+                                        im[k] = b0i + b2i;
+                                        re[k2] = b0r - b2r;
+                                        im[k2] = b0i - b2i;
+                                        re[k1] = b1r + b3i;
+                                        im[k1] = b1i - b3r;
+                                        re[k3] = b1r - b3i;
+                                        im[k3] = b1i + b3r;
                                 }
                         }
                 }
-        }                          
+        }
+
+        /**
+         * In-place DFT of n points, n not a power of two, by Bluestein's algorithm: with
+         * the chirp c(k) = exp(-i*pi*k^2/n), X(m) = c(m) * sum over k of x(k) c(k) conj(c(m-k)),
+         * a circular convolution once zero-padded to a power of two M &gt;= 2n-1.
+         */
+        private void bluestein(double[] re, double[] im)
+        {
+                if (convolution == null)
+                {
+                        initBluestein();
+                }
+                int size = convolution.n;
+
+                for (int k = 0; k < n; k++)
+                {
+                        workRe[k] = re[k]*chirpRe[k] - im[k]*chirpIm[k];
+                        workIm[k] = re[k]*chirpIm[k] + im[k]*chirpRe[k];
+                }
+                for (int k = n; k < size; k++)
+                {
+                        workRe[k] = 0;
+                        workIm[k] = 0;
+                }
+
+                convolution.fft(workRe, workIm);
+
+                // multiply by the kernel and conjugate, so the forward transform inverts
+                for (int k = 0; k < size; k++)
+                {
+                        double r = workRe[k]*kernelRe[k] - workIm[k]*kernelIm[k];
+                        double i = workRe[k]*kernelIm[k] + workIm[k]*kernelRe[k];
+                        workRe[k] = r;
+                        workIm[k] = -i;
+                }
+
+                convolution.fft(workRe, workIm);
+
+                for (int k = 0; k < n; k++)
+                {
+                        double r = workRe[k];
+                        double i = -workIm[k];
+                        re[k] = r*chirpRe[k] - i*chirpIm[k];
+                        im[k] = r*chirpIm[k] + i*chirpRe[k];
+                }
+        }
+
+        private void initBluestein()
+        {
+                int size = Integer.highestOneBit(2*n - 1);
+                if (size < 2*n - 1)
+                {
+                        size *= 2;
+                }
+                convolution = new FFT(size);
+
+                chirpRe = new double[n];
+                chirpIm = new double[n];
+                for (int k = 0; k < n; k++)
+                {
+                        // reduce k^2 modulo 2n, where the chirp repeats, to keep the angle accurate
+                        long phase = ((long) k * k) % (2L * n);
+                        chirpRe[k] = Math.cos(Math.PI * phase / n);
+                        chirpIm[k] = -Math.sin(Math.PI * phase / n);
+                }
+
+                kernelRe = new double[size];
+                kernelIm = new double[size];
+                kernelRe[0] = 1.0;
+                for (int k = 1; k < n; k++)
+                {
+                        kernelRe[k] = kernelRe[size-k] = chirpRe[k];
+                        kernelIm[k] = kernelIm[size-k] = -chirpIm[k];
+                }
+                convolution.fft(kernelRe, kernelIm);
+                for (int k = 0; k < size; k++)
+                {
+                        kernelRe[k] /= size;
+                        kernelIm[k] /= size;
+                }
+
+                workRe = new double[size];
+                workIm = new double[size];
+        }
+
+        /**
+         * Forward DFT of n real samples, computed as a complex FFT of n/2 points: the even
+         * samples are packed into the real parts and the odd samples into the imaginary
+         * parts, and the spectra of the two halves are separated and combined with one
+         * twiddle pass. This costs about half of {@link #fft} on the same samples with a
+         * zero imaginary part.
+         * <br><br>
+         * The output is the non-redundant half-spectrum, bins 0 to n/2 inclusive, which is
+         * identical to the first n/2+1 bins of {@link #fft}; the remaining bins are the
+         * complex conjugates of these. The transform is in place if x is re. n must be even.
+         *
+         * @param x  the n real samples
+         * @param re receives the real parts of the n/2+1 bins
+         * @param im receives the imaginary parts of the n/2+1 bins
+         */
+        public void realForward(double[] x, double[] re, double[] im)
+        {
+                if ((n & 1) != 0)
+                {
+                        throw new IllegalStateException("Real transforms need an even FFT length");
+                }
+                int h = n/2;
+
+                // Pack the even samples into re and the odd samples into im. Each sample
+                // is read before it can be overwritten, so x may be re.
+                for (int k = 0; k < h; k++)
+                {
+                        double even = x[2*k];
+                        im[k] = x[2*k+1];
+                        re[k] = even;
+                }
+
+                halfTransform(re, im);
+
+                // Bins 0 and n/2 are real
+                double r0 = re[0];
+                double i0 = im[0];
+                re[0] = r0 + i0;
+                im[0] = 0;
+                re[h] = r0 - i0;
+                im[h] = 0;
+
+                // Separate bins k and n/2-k into the spectra of the even and odd samples,
+                // and combine them with the twiddle factor of bin k
+                for (int k = 1, j = h - 1; k <= j; k++, j--)
+                {
+                        double zkr = re[k], zki = im[k];
+                        double zjr = re[j], zji = im[j];
+
+                        double er = 0.5*(zkr + zjr);
+                        double ei = 0.5*(zki - zji);
+                        double or = 0.5*(zki + zji);
+                        double oi = -0.5*(zkr - zjr);
+
+                        double tr = cos[k]*or - sin[k]*oi;
+                        double ti = cos[k]*oi + sin[k]*or;
+
+                        re[k] = er + tr;
+                        im[k] = ei + ti;
+                        re[j] = er - tr;
+                        im[j] = ti - ei;
+                }
+        }
+
+        /**
+         * Inverse of {@link #realForward}: recovers n real samples from the half-spectrum,
+         * bins 0 to n/2 inclusive, with a complex FFT of n/2 points. Unlike {@link #fft},
+         * the result is scaled by 1/n, so realInverse(realForward(x)) returns x. The
+         * imaginary parts of bins 0 and n/2 are ignored. The transform is in place if x
+         * is re; re and im are overwritten either way.
+         *
+         * @param re the real parts of the n/2+1 bins
+         * @param im the imaginary parts of the n/2+1 bins
+         * @param x  receives the n real samples
+         */
+        public void realInverse(double[] re, double[] im, double[] x)
+        {
+                if ((n & 1) != 0)
+                {
+                        throw new IllegalStateException("Real transforms need an even FFT length");
+                }
+                int h = n/2;
+                double scale = 1.0/h;
+
+                // Undo the separation, conjugating for the inverse transform
+                double r0 = re[0];
+                double rh = re[h];
+                re[0] = 0.5*(r0 + rh);
+                im[0] = -0.5*(r0 - rh);
+
+                for (int k = 1, j = h - 1; k <= j; k++, j--)
+                {
+                        double xkr = re[k], xki = im[k];
+                        double xjr = re[j], xji = im[j];
+
+                        double er = 0.5*(xkr + xjr);
+                        double ei = 0.5*(xki - xji);
+                        double dr = 0.5*(xkr - xjr);
+                        double di = 0.5*(xki + xji);
+
+                        // the odd spectrum is the difference rotated back by the twiddle factor
+                        double or = cos[k]*dr + sin[k]*di;
+                        double oi = cos[k]*di - sin[k]*dr;
+
+                        re[k] = er - oi;
+                        im[k] = -(ei + or);
+                        re[j] = er + oi;
+                        im[j] = -(or - ei);
+                }
+
+                halfTransform(re, im);
+
+                // Unpack from the end, so x may be re
+                for (int k = h - 1; k >= 0; k--)
+                {
+                        double even = re[k]*scale;
+                        x[2*k+1] = -im[k]*scale;
+                        x[2*k] = even;
+                }
+        }
 
 }
\ No newline at end of file
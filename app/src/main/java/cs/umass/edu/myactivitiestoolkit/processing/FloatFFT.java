@@ -0,0 +1,214 @@
+package cs.umass.edu.myactivitiestoolkit.processing;
+
+/**
+ * Single-precision version of the power-of-two transforms of {@link FFT}, for frames of
+ * 16-bit audio whose spectra are computed many times a second.
+ * <br><br>
+ * The kernels are those of {@link FFT}, with the data and twiddle factors held as floats,
+ * which halves the memory they stream through and the size of every frame buffer. The
+ * twiddle factors are computed in double precision and rounded once. With 24-bit
+ * mantissas the error grows with the number of stages, to a relative error of the
+ * spectrum of about 1e-6 at 256 points, far below the resolution of 16-bit samples; use
+ * {@link FFT} where more precision is needed, and for lengths which are not a power of
+ * two.
+ * <br><br>
+ * Instances keep no state between calls and may be shared between threads.
+ */
+public class FloatFFT
+{
+        private final int n, m;
+
+        private final float[] cos;
+        private final float[] sin;
+
+        /** Index pairs swapped by the bit-reversal permutation of n, and of n/2 points. */
+        private final int[] swaps, halfSwaps;
+
+        public FloatFFT(int n)
+        {
+                if (n < 2 || Integer.bitCount(n) != 1)
+                {
+                        throw new IllegalArgumentException("Float FFT length must be a power of two, at least 2");
+                }
+                this.n = n;
+                this.m = Integer.numberOfTrailingZeros(n);
+
+                cos = new float[n/2];
+                sin = new float[n/2];
+                for (int i = 0; i < n/2; i++)
+                {
+                        cos[i] = (float) Math.cos(-2*Math.PI*i/n);
+                        sin[i] = (float) Math.sin(-2*Math.PI*i/n);
+                }
+
+                swaps = bitReversalSwaps(n);
+                halfSwaps = bitReversalSwaps(n/2);
+        }
+
+        /**
+         * @return the index pairs exchanged by the bit-reversal permutation of size
+         * points, flattened, as in {@link FFT}.
+         */
+        private static int[] bitReversalSwaps(int size)
+        {
+                int[] pairs = new int[size];
+                int count = 0;
+                int j = 0;
+                for (int i = 1; i < size - 1; i++)
+                {
+                        int n1 = size/2;
+                        while (j >= n1)
+                        {
+                                j = j - n1;
+                                n1 = n1/2;
+                        }
+                        j = j + n1;
+
+                        if (i < j)
+                        {
+                                pairs[count++] = i;
+                                pairs[count++] = j;
+                        }
+                }
+                int[] trimmed = new int[count];
+                System.arraycopy(pairs, 0, trimmed, 0, count);
+                return trimmed;
+        }
+
+        /**
+         * @return the length of the transform.
+         */
+        public int getSize()
+        {
+                return n;
+        }
+
+        /**
+         * In-place complex DFT of n points, like {@link FFT#fft(double[], double[])}.
+         */
+        public void fft(float[] re, float[] im)
+        {
+                transform(re, im, n, m, swaps);
+        }
+
+        /**
+         * In-place DIT DFT of the first size values of re and im, the radix-4 kernel of
+         * {@link FFT} in single precision.
+         */
+        private void transform(float[] re, float[] im, int size, int levels, int[] swaps)
+        {
+                for (int p = 0; p < swaps.length; p += 2)
+                {
+                        int i = swaps[p];
+                        int j = swaps[p+1];
+                        float t = re[i];
+                        re[i] = re[j];
+                        re[j] = t;
+                        t = im[i];
+                        im[i] = im[j];
+                        im[j] = t;
+                }
+
+                int q = 1;
+
+                if ((levels & 1) != 0)
+                {
+                        for (int k = 0; k < size; k += 2)
+                        {
+                                float tr = re[k+1];
+                                float ti = im[k+1];
+                                re[k+1] = re[k] - tr;
+                                im[k+1] = im[k] - ti;
+                                re[k] = re[k] + tr;
+                                im[k] = im[k] + ti;
+                        }
+                        q = 2;
+                }
+
+                for (; q < size; q *= 4)
+                {
+                        int stride = n / (4*q);
+                        for (int j = 0; j < q; j++)
+                        {
+                                float w1r = cos[2*j*stride], w1i = sin[2*j*stride];
+                                float w2r = cos[j*stride], w2i = sin[j*stride];
+                                float w3r = w1r*w2r - w1i*w2i;
+                                float w3i = w1r*w2i + w1i*w2r;
+
+                                for (int k = j; k < size; k += 4*q)
+                                {
+                                        int k1 = k + q, k2 = k1 + q, k3 = k2 + q;
+
+                                        float t1r = w1r*re[k1] - w1i*im[k1];
+                                        float t1i = w1r*im[k1] + w1i*re[k1];
+                                        float t2r = w2r*re[k2] - w2i*im[k2];
+                                        float t2i = w2r*im[k2] + w2i*re[k2];
+                                        float t3r = w3r*re[k3] - w3i*im[k3];
+                                        float t3i = w3r*im[k3] + w3i*re[k3];
+
+                                        float b0r = re[k] + t1r, b0i = im[k] + t1i;
+                                        float b1r = re[k] - t1r, b1i = im[k] - t1i;
+                                        float b2r = t2r + t3r, b2i = t2i + t3i;
+                                        float b3r = t2r - t3r, b3i = t2i - t3i;
+
+                                        re[k] = b0r + b2r;
+                                        im[k] = b0i + b2i;
+                                        re[k2] = b0r - b2r;
+                                        im[k2] = b0i - b2i;
+                                        re[k1] = b1r + b3i;
+                                        im[k1] = b1i - b3r;
+                                        re[k3] = b1r - b3i;
+                                        im[k3] = b1i + b3r;
+                                }
+                        }
+                }
+        }
+
+        /**
+         * Forward DFT of n real samples, like {@link FFT#realForward(double[], double[], double[])}:
+         * re and im receive bins 0 to n/2 inclusive, and the transform is in place if x is re.
+         *
+         * @param x  the n real samples
+         * @param re receives the real parts of the n/2+1 bins
+         * @param im receives the imaginary parts of the n/2+1 bins
+         */
+        public void realForward(float[] x, float[] re, float[] im)
+        {
+                int h = n/2;
+
+                for (int k = 0; k < h; k++)
+                {
+                        float even = x[2*k];
+                        im[k] = x[2*k+1];
+                        re[k] = even;
+                }
+
+                transform(re, im, h, m-1, halfSwaps);
+
+                float r0 = re[0];
+                float i0 = im[0];
+                re[0] = r0 + i0;
+                im[0] = 0;
+                re[h] = r0 - i0;
+                im[h] = 0;
+
+                for (int k = 1, j = h - 1; k <= j; k++, j--)
+                {
+                        float zkr = re[k], zki = im[k];
+                        float zjr = re[j], zji = im[j];
+
+                        float er = 0.5f*(zkr + zjr);
+                        float ei = 0.5f*(zki - zji);
+                        float or = 0.5f*(zki + zji);
+                        float oi = -0.5f*(zkr - zjr);
+
+                        float tr = cos[k]*or - sin[k]*oi;
+                        float ti = cos[k]*oi + sin[k]*or;
+
+                        re[k] = er + tr;
+                        im[k] = ei + ti;
+                        re[j] = er - tr;
+                        im[j] = ti - ei;
+                }
+        }
+}
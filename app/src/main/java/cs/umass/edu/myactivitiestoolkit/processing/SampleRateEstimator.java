@@ -0,0 +1,107 @@
+package cs.umass.edu.myactivitiestoolkit.processing;
+
+/**
+ * Estimates the actual sample rate of a sensor stream from its timestamps. The requested
+ * rate of an Android sensor, e.g. {@code SENSOR_DELAY_NORMAL}, is only a hint, and the
+ * camera frame rate depends on the device and lighting, so filters designed for a fixed
+ * rate may end up with the wrong cutoff.
+ * <br><br>
+ * The sample interval is smoothed with an exponential moving average. Timestamps are in
+ * milliseconds, so individual intervals are coarse at high rates, but the rounding error
+ * averages out. Intervals longer than {@link #MAX_GAP} milliseconds, e.g. when a service
+ * is paused, and non-increasing timestamps are ignored.
+ */
+public class SampleRateEstimator {
+
+    private static final double MILLIS_PER_SECOND = 1000;
+
+    /** The weight of each new interval in the moving average. */
+    private static final double SMOOTHING = 1.0 / 32;
+
+    /** The longest interval, in milliseconds, treated as part of a continuous stream. */
+    private static final long MAX_GAP = 1000;
+
+    /** The number of intervals observed before the estimate is considered reliable. */
+    private static final int MIN_INTERVALS = 32;
+
+    /** The smoothed sample interval, in milliseconds. */
+    private double interval;
+
+    private long lastTimestamp;
+
+    private boolean hasTimestamp;
+
+    private int numIntervals;
+
+    /**
+     * @param initialRate the nominal sample rate, in Hz, reported until enough samples are observed.
+     */
+    public SampleRateEstimator(double initialRate) {
+        interval = MILLIS_PER_SECOND / initialRate;
+    }
+
+    /**
+     * Observes the timestamp of the most recent sample.
+     * @param timestamp the time of the sample, in milliseconds.
+     */
+    public void update(long timestamp) {
+        update(timestamp, 1);
+    }
+
+    /**
+     * Observes the timestamp of the last sample in a block of evenly spaced samples, such
+     * as a batched sensor delivery.
+     * @param timestamp the time of the last sample in the block, in milliseconds.
+     * @param numSamples the number of samples since the previous update.
+     */
+    public void update(long timestamp, int numSamples) {
+        if (hasTimestamp && numSamples > 0) {
+            long elapsed = timestamp - lastTimestamp;
+            if (elapsed > 0 && elapsed <= MAX_GAP * numSamples) {
+                double observed = (double) elapsed / numSamples;
+                if (numIntervals < MIN_INTERVALS) {
+                    // average the first intervals uniformly, so the nominal rate is quickly forgotten
+                    numIntervals += numSamples;
+                    double weight = Math.min(1.0, (double) numSamples / numIntervals);
+                    interval += weight * (observed - interval);
+                } else {
+                    interval += Math.min(1.0, SMOOTHING * numSamples) * (observed - interval);
+                }
+            }
+        }
+        lastTimestamp = timestamp;
+        hasTimestamp = true;
+    }
+
+    /**
+     * @return true if enough samples have been observed for the estimate to be reliable.
+     */
+    public boolean isCalibrated() {
+        return numIntervals >= MIN_INTERVALS;
+    }
+
+    /**
+     * @return the estimated sample rate, in Hz.
+     */
+    public double getSampleRate() {
+        return MILLIS_PER_SECOND / interval;
+    }
+
+    /**
+     * Forgets all observed timestamps, keeping the current estimate as the nominal rate.
+     */
+    public void reset() {
+        hasTimestamp = false;
+        numIntervals = 0;
+    }
+
+    /**
+     * Forgets all observed timestamps and restarts the estimate from a new nominal rate,
+     * e.g. after the sensor has been registered at a different rate.
+     * @param nominalRate the new nominal sample rate, in Hz.
+     */
+    public void reset(double nominalRate) {
+        reset();
+        interval = MILLIS_PER_SECOND / nominalRate;
+    }
+}
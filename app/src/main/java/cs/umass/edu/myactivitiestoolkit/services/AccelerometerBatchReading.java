@@ -0,0 +1,73 @@
+package cs.umass.edu.myactivitiestoolkit.services;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import edu.umass.cs.MHLClient.sensors.SensorReading;
+
+/**
+ * Wraps a batch of accelerometer readings into a single sensor reading to send to the
+ * server, rather than one {@link edu.umass.cs.MHLClient.sensors.AccelerometerReading}
+ * per sample. The data holds parallel arrays "t", "x", "y" and "z", one entry per sample,
+ * oldest first.
+ * <br><br>
+ * The batch is copied when the reading is created, so it may be recycled afterwards.
+ *
+ * @see SensorBatch
+ * @see edu.umass.cs.MHLClient.client.MobileIOClient
+ */
+public class AccelerometerBatchReading extends SensorReading {
+
+    /** The sensor type of accelerometer batch readings, distinct from single readings. */
+    public static final String SENSOR_TYPE = "SENSOR_ACCEL_BATCH";
+
+    private final long[] timestamps;
+
+    /** The x, y and z values of each sample, interleaved. */
+    private final float[] values;
+
+    /**
+     * Instantiates an accelerometer batch reading.
+     *
+     * @param userID a 10-byte hex string identifying the current user.
+     * @param deviceType describes the device.
+     * @param deviceID unique device identifier.
+     * @param batch the accelerometer samples; must not be empty.
+     */
+    public AccelerometerBatchReading(String userID, String deviceType, String deviceID, SensorBatch batch) {
+        super(userID, deviceType, deviceID, SENSOR_TYPE, batch.getTimestamp(0));
+        timestamps = new long[batch.size()];
+        System.arraycopy(batch.getTimestamps(), 0, timestamps, 0, timestamps.length);
+        values = new float[3 * timestamps.length];
+        System.arraycopy(batch.getValues(), 0, values, 0, values.length);
+    }
+
+    @Override
+    protected JSONObject toJSONObject() {
+        JSONObject obj = getBaseJSONObject();
+        JSONObject data = new JSONObject();
+
+        try {
+            JSONArray t = new JSONArray();
+            JSONArray x = new JSONArray();
+            JSONArray y = new JSONArray();
+            JSONArray z = new JSONArray();
+            for (int i = 0; i < timestamps.length; i++) {
+                t.put(timestamps[i]);
+                x.put(values[3 * i]);
+                y.put(values[3 * i + 1]);
+                z.put(values[3 * i + 2]);
+            }
+            data.put("t", t);
+            data.put("x", x);
+            data.put("y", y);
+            data.put("z", z);
+            obj.put("data", data);
+        } catch (JSONException e) {
+            e.printStackTrace();
+        }
+
+        return obj;
+    }
+}
@@ -1,22 +1,30 @@
 package cs.umass.edu.myactivitiestoolkit.services;
 
+import android.annotation.TargetApi;
+import android.content.Context;
 import android.content.Intent;
 import android.hardware.Sensor;
-import android.hardware.SensorEvent;
-import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
+import android.hardware.TriggerEvent;
+import android.hardware.TriggerEventListener;
+import android.os.Build;
+import android.os.Handler;
 import android.support.v4.content.LocalBroadcastManager;
 import android.util.Log;
 
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.util.Arrays;
 import java.util.HashMap;
 
 import cs.umass.edu.myactivitiestoolkit.R;
 import cs.umass.edu.myactivitiestoolkit.constants.Constants;
-import cs.umass.edu.myactivitiestoolkit.processing.Filter;
-import cs.umass.edu.myactivitiestoolkit.steps.OnStepListener;
+import cs.umass.edu.myactivitiestoolkit.processing.AdaptiveSamplingController;
+import cs.umass.edu.myactivitiestoolkit.steps.GaitAnalyzer;
+import cs.umass.edu.myactivitiestoolkit.steps.OnStepBatchListener;
+import cs.umass.edu.myactivitiestoolkit.steps.RollingStepStatistics;
+import cs.umass.edu.myactivitiestoolkit.steps.StepBatch;
 import cs.umass.edu.myactivitiestoolkit.steps.StepDetector;
 import edu.umass.cs.MHLClient.client.MessageReceiver;
 import edu.umass.cs.MHLClient.client.MobileIOClient;
@@ -28,12 +36,17 @@ import edu.umass.cs.MHLClient.sensors.SensorReading;
  * the phone. It is an ongoing foreground service that will run even when your
  * application is not running. Note, however, that a process of your application
  * will still be running! The sensor service will receive sensor events in the
- * {@link #onSensorChanged(SensorEvent)} method defined in the {@link SensorEventListener}
- * interface.
+ * {@link #onSensorBatch(SensorBatch)} method defined in {@link SensorService}, on the
+ * service's processing thread.
+ * <br><br>
+ * The accelerometer rate follows the user's activity: an {@link AdaptiveSamplingController}
+ * lowers it once the phone has been still for a while and raises it again on motion.
+ * After a long idle period the accelerometer is switched off entirely and the
+ * significant motion sensor, where available, wakes the service up again.
  * <br><br>
  * <b>ASSIGNMENT 0 (Data Collection & Visualization)</b> :
  *      In this assignment, you will display and visualize the accelerometer readings
- *      and send the data to the server. In {@link #onSensorChanged(SensorEvent)},
+ *      and send the data to the server. In {@link #onSensorBatch(SensorBatch)},
  *      you should send the data to the main UI using the method
  *      {@link #broadcastAccelerometerReading(long, float[])}. You should also
  *      use the {@link #mClient} object to send data to the server. You can
@@ -49,7 +62,7 @@ import edu.umass.cs.MHLClient.sensors.SensorReading;
  *      the fact that humans generally take steps every 0.5 - 2.0 seconds. Your local
  *      and server-side algorithms may be functionally identical, or you may choose
  *      to take advantage of other Python tools/libraries to improve performance.
- *      Call your local step detection algorithm from {@link #onSensorChanged(SensorEvent)}.
+ *      Call your local step detection algorithm from {@link #onSensorBatch(SensorBatch)}.
  *      <br><br>
  *      To listen for messages from the server,
  *      register a {@link MessageReceiver} with the {@link #mClient} and override
@@ -78,32 +91,54 @@ import edu.umass.cs.MHLClient.sensors.SensorReading;
  * @see android.app.Service
  * @see <a href="http://developer.android.com/guide/components/services.html#Foreground">
  * Foreground Service</a>
- * @see SensorEventListener#onSensorChanged(SensorEvent)
- * @see SensorEvent
+ * @see SensorHub
  * @see MobileIOClient
  */
-public class AccelerometerService extends SensorService implements SensorEventListener {
+public class AccelerometerService extends SensorService {
 
     /** Used during debugging to identify logs by class */
     private static final String TAG = AccelerometerService.class.getName();
 
-    /** Frequency to for step detection filter */
-    private static final double CUTOFF_FREQUENCY = 3.0;
+    /**
+     * How long the accelerometer may queue samples in its hardware FIFO before waking
+     * the CPU, in microseconds. Steps and plots lag by up to this long.
+     */
+    private static final int ACCELEROMETER_REPORT_LATENCY_US = 1000 * 1000;
+
+    /** Chooses the accelerometer rate from how still the phone is. */
+    private final AdaptiveSamplingController mSamplingController;
+
+    /** Re-enables the accelerometer when sampling is suspended and the phone moves. */
+    private TriggerEventListener mSignificantMotionListener;
 
-    /** Sensor Manager object for registering and unregistering system sensors */
     private SensorManager mSensorManager;
 
-    /** Manages the physical accelerometer sensor on the phone. */
-    private Sensor mAccelerometerSensor;
+    private Sensor mSignificantMotionSensor;
+
+    /**
+     * Guards the subscriptions, which are changed on the main thread when the service
+     * starts or stops and on the processing thread when the sampling mode changes.
+     */
+    private final Object mSubscriptionLock = new Object();
+
+    /**
+     * Whether the sensors are registered. Once they are unregistered, a mode change still
+     * in flight on the processing thread must not subscribe again. Guarded by
+     * {@link #mSubscriptionLock}.
+     */
+    private boolean mSensorsRegistered;
+
+    /** The filtered accelerometer stream, shared with the step detector. */
+    private SensorHub.Subscription mAccelerometerSubscription;
 
     /** Android built-in step detection sensor **/
-    private Sensor mAndroidStepSensor;
+    private SensorHub.Subscription mAndroidStepSubscription;
 
     /** Defines your step detection algorithm. **/
     private final StepDetector mStepDetector;
 
-    /** Customized filter based on time/frequency */
-    private final Filter mFilter;
+    /** Computes rolling cadence and step interval statistics over the detected steps. **/
+    private final GaitAnalyzer mGaitAnalyzer;
 
     /** The step count as predicted by the Android built-in step detection algorithm. */
     private int mAndroidStepCount = 0;
@@ -123,17 +158,20 @@ public class AccelerometerService extends SensorService implements SensorEventLi
 
     public AccelerometerService(){
         mLocalBroadcastManager = LocalBroadcastManager.getInstance(this);
-        mFilter = new Filter(CUTOFF_FREQUENCY);
-        mStepDetector = new StepDetector();
-        mStepDetector.registerOnStepListener(new OnStepListener() {
+        mStepDetector = new StepDetector(StepDetector.DetectionMode.STREAMING);
+        mGaitAnalyzer = new GaitAnalyzer();
+        mSamplingController = new AdaptiveSamplingController();
+        mSamplingController.setOnModeChangedListener(new AdaptiveSamplingController.OnModeChangedListener() {
             @Override
-            public void onStepCountUpdated(int stepCount) {
-                broadcastLocalStepCount(stepCount);
+            public void onModeChanged(AdaptiveSamplingController.Mode mode, long timestamp) {
+                onSamplingModeChanged(mode, timestamp);
             }
-
+        });
+        mStepDetector.registerOnStepListener(mGaitAnalyzer);
+        mStepDetector.registerOnStepBatchListener(new OnStepBatchListener() {
             @Override
-            public void onStepDetected(long timestamp, float[] values) {
-                broadcastStepDetected(timestamp, values);
+            public void onStepBatch(StepBatch batch) {
+                broadcastStepBatch(batch, mGaitAnalyzer);
             }
         });
 
@@ -215,15 +253,109 @@ public class AccelerometerService extends SensorService implements SensorEventLi
      */
     @Override
     protected void registerSensors(){
-        mSensorManager = (SensorManager) getSystemService(SENSOR_SERVICE);
+        mSensorManager = (SensorManager) getSystemService(Context.SENSOR_SERVICE);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            mSignificantMotionSensor = mSensorManager.getDefaultSensor(Sensor.TYPE_SIGNIFICANT_MOTION);
+        }
+        // without a significant motion sensor nothing could wake a suspended accelerometer
+        mSamplingController.setSuspendEnabled(mSignificantMotionSensor != null);
+        mSamplingController.reset();
+        synchronized (mSubscriptionLock) {
+            mSensorsRegistered = true;
+            subscribeAccelerometer(AdaptiveSamplingController.Mode.ACTIVE);
+            mAndroidStepSubscription = subscribe(Sensor.TYPE_STEP_DETECTOR, SensorManager.SENSOR_DELAY_UI, 0, null);
+        }
+    }
 
-        mAccelerometerSensor =  mSensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER);
-        mAndroidStepSensor = mSensorManager.getDefaultSensor(Sensor.TYPE_STEP_DETECTOR);
+    /**
+     * Subscribes to the accelerometer at the rate of the given sampling mode, replacing
+     * the current subscription. Must be called holding {@link #mSubscriptionLock}.
+     */
+    private void subscribeAccelerometer(AdaptiveSamplingController.Mode mode) {
+        // the readings we display and upload are filtered exactly as the step detector
+        // expects, so the hub runs the filter once and feeds both from the same stream.
+        // The new subscription is made first, so the sensor stays registered in between,
+        // and joins the same filter stage, which the hub retunes to the new rate in place.
+        SensorHub.Subscription previous = mAccelerometerSubscription;
+        mAccelerometerSubscription = subscribe(Sensor.TYPE_ACCELEROMETER,
+                AdaptiveSamplingController.getSamplingPeriodUs(mode),
+                ACCELEROMETER_REPORT_LATENCY_US, StepDetector.FILTER_SPEC);
+        if (previous != null) {
+            previous.release();
+        }
+    }
+
+    /**
+     * Called on the processing thread when the sampling mode changes.
+     */
+    private void onSamplingModeChanged(AdaptiveSamplingController.Mode mode, long timestamp) {
+        Log.d(TAG, "Accelerometer sampling mode: " + mode);
+        // the filtered signal is unsettled for a moment after the rate changes
+        mStepDetector.settle(timestamp);
+        synchronized (mSubscriptionLock) {
+            if (!mSensorsRegistered) {
+                // the service stopped while this batch was being processed
+                return;
+            }
+            if (mode == AdaptiveSamplingController.Mode.SUSPENDED) {
+                if (mAccelerometerSubscription != null) {
+                    mAccelerometerSubscription.release();
+                    mAccelerometerSubscription = null;
+                }
+                requestSignificantMotion(timestamp);
+            } else {
+                subscribeAccelerometer(mode);
+            }
+        }
+    }
 
-        mSensorManager.registerListener(this, mAccelerometerSensor, SensorManager.SENSOR_DELAY_NORMAL);
-        mSensorManager.registerListener(this, mAndroidStepSensor, SensorManager.SENSOR_DELAY_UI);
+    /**
+     * Requests the significant motion trigger which wakes the suspended accelerometer.
+     * Called on the processing thread from the controller's mode change listener.
+     * @param timestamp the time sampling was suspended, in milliseconds.
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    private void requestSignificantMotion(final long timestamp) {
+        if (mSignificantMotionListener == null) {
+            mSignificantMotionListener = new TriggerEventListener() {
+                @Override
+                public void onTrigger(final TriggerEvent event) {
+                    // triggers arrive on the main thread, the controller lives on the processing thread
+                    final long timestamp = (long) ((double) event.timestamp / Constants.TIMESTAMPS.NANOSECONDS_PER_MILLISECOND);
+                    Handler handler = getProcessingHandler();
+                    if (handler != null) {
+                        handler.post(new Runnable() {
+                            @Override
+                            public void run() {
+                                mSamplingController.onSignificantMotion(timestamp);
+                            }
+                        });
+                    }
+                }
+            };
+        }
+        if (!mSensorManager.requestTriggerSensor(mSignificantMotionListener, mSignificantMotionSensor)) {
+            // the trigger could not be requested, so keep sampling rather than go deaf. The
+            // controller is still changing mode, so it is woken up once that returns, and is
+            // kept from suspending again
+            mSamplingController.setSuspendEnabled(false);
+            Handler handler = getProcessingHandler();
+            if (handler != null) {
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        mSamplingController.onSignificantMotion(timestamp);
+                    }
+                });
+            }
+        }
+    }
 
-        mSensorManager.registerListener(mStepDetector, mAccelerometerSensor, SensorManager.SENSOR_DELAY_NORMAL);
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    private void cancelSignificantMotion() {
+        if (mSignificantMotionListener != null) {
+            mSensorManager.cancelTriggerSensor(mSignificantMotionListener, mSignificantMotionSensor);
+        }
     }
 
     /**
@@ -231,11 +363,19 @@ public class AccelerometerService extends SensorService implements SensorEventLi
      */
     @Override
     protected void unregisterSensors() {
-        if (mAccelerometerSensor != null) {
-            mSensorManager.unregisterListener(this, mAccelerometerSensor);
-        }
-        if (mAndroidStepSensor != null) {
-            mSensorManager.unregisterListener(this, mAndroidStepSensor);
+        synchronized (mSubscriptionLock) {
+            mSensorsRegistered = false;
+            if (mAccelerometerSubscription != null) {
+                mAccelerometerSubscription.release();
+                mAccelerometerSubscription = null;
+            }
+            if (mAndroidStepSubscription != null) {
+                mAndroidStepSubscription.release();
+                mAndroidStepSubscription = null;
+            }
+            if (mSignificantMotionSensor != null) {
+                cancelSignificantMotion();
+            }
         }
         mStepDetector.unregisterOnStepListeners();
     }
@@ -256,7 +396,7 @@ public class AccelerometerService extends SensorService implements SensorEventLi
     }
 
     /**
-     * This method is called when we receive a sensor reading. We will be interested in this method primarily.
+     * This method is called when we receive a batch of sensor readings. We will be interested in this method primarily.
      * <br><br>
      *
      * Assignment 0 : Your job is to send the accelerometer readings to the server as you receive
@@ -274,35 +414,52 @@ public class AccelerometerService extends SensorService implements SensorEventLi
      *
      * You also want to broadcast the accelerometer reading to the UI. You can do this by calling
      * {@link #broadcastAccelerometerReading(long, float[])}.
+     * <br><br>
+     *
+     * The readings are uploaded as one {@link AccelerometerBatchReading} and broadcast with
+     * {@link #broadcastAccelerometerBatch(SensorBatch)} per batch, so the cost of an intent and
+     * a server message is paid once per batch rather than once per sample.
      *
      * @see AccelerometerReading
+     * @see AccelerometerBatchReading
      * @see SensorReading
      * @see MobileIOClient
-     * @see SensorEvent
+     * @see SensorBatch
      * @see #broadcastAccelerometerReading(long, float[])
      */
 
     @Override
-    public void onSensorChanged(SensorEvent event) {
-        if (event.sensor.getType() == Sensor.TYPE_ACCELEROMETER) {
+    protected void onSensorBatch(SensorBatch batch) {
+        if (batch.getSensorType() == Sensor.TYPE_ACCELEROMETER) {
+
+            // one detection pass over the whole batch, so steps are broadcast once per batch
+            mStepDetector.onFilteredAccelerometerBatch(batch.getTimestamps(), batch.getValues(), batch.size());
 
-            float[] values = convertDoublesToFloats(mFilter.getFilteredValues(event.values));
+            // steps age out of the gait windows even when none are detected
+            if (batch.size() > 0 && mGaitAnalyzer.advanceTo(batch.getTimestamp(batch.size() - 1))) {
+                broadcastGait(mGaitAnalyzer);
+            }
 
-            // convert the timestamp to milliseconds (note this is not in Unix time)
-            long timestamp_in_milliseconds = (long) ((double) event.timestamp / Constants.TIMESTAMPS.NANOSECONDS_PER_MILLISECOND);
+            for (int i = 0; i < batch.size(); i++) {
+                mSamplingController.onSample(batch.getTimestamp(i),
+                        batch.getValue(i, 0), batch.getValue(i, 1), batch.getValue(i, 2));
+            }
 
-            broadcastAccelerometerReading(timestamp_in_milliseconds, values);
+            // one broadcast and one upload for the whole batch, rather than one per sample
+            broadcastAccelerometerBatch(batch);
 
-            mClient.sendSensorReading(new AccelerometerReading(mUserID, "MOBILE", "", timestamp_in_milliseconds, values));
+            mClient.sendSensorReading(new AccelerometerBatchReading(mUserID, "MOBILE", "", batch));
 
 //            if (isCollecting) {
 //                Log.d(TAG, "CURRENT ACTIVITY: " + mCurrentActivity);
 //                mClient.sendSensorReading(new AccelerometerReading(mUserID, "MOBILE", "", timestamp_in_milliseconds, mCurrentActivity, values));
 //            }
-        } else if (event.sensor.getType() == Sensor.TYPE_STEP_DETECTOR) {
+        } else if (batch.getSensorType() == Sensor.TYPE_STEP_DETECTOR) {
 
-            // we received a step event detected by the built-in Android step detector (assignment 1)
-            broadcastAndroidStepCount(mAndroidStepCount++);
+            // we received step events detected by the built-in Android step detector (assignment 1)
+            for (int i = 0; i < batch.size(); i++) {
+                broadcastAndroidStepCount(mAndroidStepCount++);
+            }
 
         } else {
 
@@ -312,22 +469,6 @@ public class AccelerometerService extends SensorService implements SensorEventLi
         }
     }
 
-    private float[] convertDoublesToFloats(double[] input) {
-        if (input == null) {
-            return null;
-        }
-        float[] output = new float[input.length];
-        for (int i = 0; i < input.length; i++) {
-            output[i] = (float) input[i];
-        }
-        return output;
-    }
-
-    @Override
-    public void onAccuracyChanged(Sensor sensor, int accuracy) {
-//        Log.i(TAG, "Accuracy changed: " + accuracy);
-    }
-
     /**
      * Broadcasts the accelerometer reading to other application components, e.g. the main UI.
      * @param accelerometerReadings the x, y, and z accelerometer readings
@@ -340,6 +481,20 @@ public class AccelerometerService extends SensorService implements SensorEventLi
                     .setAction(Constants.ACTION.BROADCAST_ACCELEROMETER_DATA));
     }
 
+    /**
+     * Broadcasts a batch of accelerometer readings in a single intent to other application
+     * components, e.g. the main UI. The timestamps and the interleaved x, y and z values are
+     * copied, since the batch is recycled.
+     * @param batch the accelerometer readings
+     */
+    public void broadcastAccelerometerBatch(SensorBatch batch) {
+        mLocalBroadcastManager.sendBroadcast(
+                new Intent()
+                    .putExtra(Constants.KEY.ACCELEROMETER_TIMESTAMPS, Arrays.copyOf(batch.getTimestamps(), batch.size()))
+                    .putExtra(Constants.KEY.ACCELEROMETER_DATA, Arrays.copyOf(batch.getValues(), 3 * batch.size()))
+                    .setAction(Constants.ACTION.BROADCAST_ACCELEROMETER_BATCH));
+    }
+
     // ***************** Methods for broadcasting step counts (assignment 1) *****************
 
     /**
@@ -387,6 +542,51 @@ public class AccelerometerService extends SensorService implements SensorEventLi
                     .setAction(Constants.ACTION.BROADCAST_ACCELEROMETER_PEAK));
     }
 
+    /**
+     * Broadcasts all steps found in one detection pass, the updated step count and the
+     * gait statistics in a single intent, instead of separate step count, step and gait
+     * intents per step. The gait extras are arrays indexed by the {@link GaitAnalyzer}
+     * window constants.
+     */
+    public void broadcastStepBatch(StepBatch batch, GaitAnalyzer gaitAnalyzer) {
+        mLocalBroadcastManager.sendBroadcast(
+                putGaitExtras(new Intent(), gaitAnalyzer)
+                    .putExtra(Constants.KEY.STEP_COUNT, batch.getStepCount())
+                    .putExtra(Constants.KEY.ACCELEROMETER_PEAK_TIMESTAMP, batch.copyTimestamps())
+                    .putExtra(Constants.KEY.ACCELEROMETER_PEAK_VALUE, batch.copyValues())
+                    .setAction(Constants.ACTION.BROADCAST_STEP_BATCH));
+    }
+
+    /**
+     * Broadcasts the gait statistics alone, when steps have left the windows without
+     * new steps being detected. The extras are those of {@link #broadcastStepBatch(StepBatch, GaitAnalyzer)}.
+     */
+    public void broadcastGait(GaitAnalyzer gaitAnalyzer) {
+        mLocalBroadcastManager.sendBroadcast(
+                putGaitExtras(new Intent(), gaitAnalyzer)
+                    .setAction(Constants.ACTION.BROADCAST_GAIT));
+    }
+
+    private static Intent putGaitExtras(Intent intent, GaitAnalyzer gaitAnalyzer) {
+        int windows = gaitAnalyzer.getWindowCount();
+        double[] cadence = new double[windows];
+        double[] intervalMean = new double[windows];
+        double[] intervalVariance = new double[windows];
+        double[] regularity = new double[windows];
+        for (int i = 0; i < windows; i++) {
+            RollingStepStatistics statistics = gaitAnalyzer.getStatistics(i);
+            cadence[i] = statistics.getCadence();
+            intervalMean[i] = statistics.getIntervalMean();
+            intervalVariance[i] = statistics.getIntervalVariance();
+            regularity[i] = statistics.getRegularity();
+        }
+        return intent
+                .putExtra(Constants.KEY.GAIT_CADENCE, cadence)
+                .putExtra(Constants.KEY.GAIT_INTERVAL_MEAN, intervalMean)
+                .putExtra(Constants.KEY.GAIT_INTERVAL_VARIANCE, intervalVariance)
+                .putExtra(Constants.KEY.GAIT_REGULARITY, regularity);
+    }
+
     public void broadcastActivity(String activity) {
         mLocalBroadcastManager.sendBroadcast(
                 new Intent()
@@ -4,14 +4,19 @@ import android.content.Intent;
 import android.support.v4.content.LocalBroadcastManager;
 import android.util.Log;
 
-import org.imirsel.m2k.util.Window;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import at.tuwien.ifs.feature.extraction.audio.spectrum.Spectrogram;
+import java.util.Arrays;
+
 import cs.umass.edu.myactivitiestoolkit.R;
 import cs.umass.edu.myactivitiestoolkit.audio.AudioBufferReading;
+import cs.umass.edu.myactivitiestoolkit.audio.BinaryAudioReading;
 import cs.umass.edu.myactivitiestoolkit.audio.MicrophoneRecorder;
+import cs.umass.edu.myactivitiestoolkit.audio.STFT;
+import cs.umass.edu.myactivitiestoolkit.audio.SpeakerIdentifier;
+import cs.umass.edu.myactivitiestoolkit.audio.StreamingMFCC;
+import cs.umass.edu.myactivitiestoolkit.audio.VoiceActivityDetector;
 import cs.umass.edu.myactivitiestoolkit.constants.Constants;
 import cs.umass.edu.myactivitiestoolkit.view.fragments.AudioFragment;
 import edu.umass.cs.MHLClient.client.MessageReceiver;
@@ -22,6 +27,23 @@ import edu.umass.cs.MHLClient.client.MessageReceiver;
  * the spectrogram of the audio data for you and send it to the UI for visualization.
  * <br><br>
  *
+ * Buffers first go through a {@link VoiceActivityDetector}, and only the audio it
+ * classifies as speech reaches the spectrogram and {@link #onSpeech(short[], int)}, so
+ * silence and background noise cost neither processing nor bandwidth.
+ * <br><br>
+ *
+ * Speakers can also be identified on the device, with no round trip to the server: the
+ * speech is turned into {@link StreamingMFCC} features and scored by a
+ * {@link SpeakerIdentifier}, and changes of speaker are broadcast with
+ * {@link Constants.ACTION#BROADCAST_SPEAKER}. Speakers are enrolled from the
+ * {@link AudioFragment} while recording, which starts the service with
+ * {@link Constants.ACTION#ENROLL_SPEAKER}, the speaker's name in
+ * {@link Constants.KEY#SPEAKER} and {@link Constants.KEY#IS_ENROLLING} set to true before
+ * they speak, then to false. Enrollment is rejected while the service is not recording.
+ * The speaker models are held in memory only, so the enrolled speakers are forgotten when
+ * the recording stops.
+ * <br><br>
+ *
  * Assignment 4 : In this assignment, you will send the incoming audio buffer to the server.
  * In your Python script, you will do the entire processing and classification pipeline. In
  * {@link #onConnected()}, we have registered a {@link edu.umass.cs.MHLClient.client.MessageReceiver}
@@ -34,21 +56,50 @@ import edu.umass.cs.MHLClient.client.MessageReceiver;
  * @see MicrophoneRecorder
  * @see MicrophoneRecorder.MicrophoneListener
  * @see AudioBufferReading
+ * @see STFT
+ * @see VoiceActivityDetector
+ * @see SpeakerIdentifier
  * @see Constants.MHLClientFilter
  * @see edu.umass.cs.MHLClient.client.MessageReceiver
  * @see SensorService
  * @see android.app.Service
  * @see #mClient
  */
-public class AudioService extends SensorService implements MicrophoneRecorder.MicrophoneListener {
+public class AudioService extends SensorService implements MicrophoneRecorder.MicrophoneListener,
+        VoiceActivityDetector.OnSpeechListener, SpeakerIdentifier.OnSpeakerListener {
 
     /** Used during debugging to identify logs by class */
     @SuppressWarnings("unused")
     private static final String TAG = AudioService.class.getName();
 
+    /** The number of samples per spectrogram column. */
+    private static final int SPECTROGRAM_WINDOW_SIZE = 100;
+
+    /** The number of samples between consecutive spectrogram columns. */
+    private static final int SPECTROGRAM_HOP_SIZE = 50;
+
     /** The sensor responsible for collecting audio data from the phone. */
     private MicrophoneRecorder mMicrophoneRecorder;
 
+    /**
+     * Computes the spectrogram incrementally, carrying the overlap between buffers. Like
+     * the detector and the features, it is built by {@link #preparePipeline()} on the
+     * recording thread, so that its tables are not computed on the main thread at start-up.
+     */
+    private STFT mSpectrogram;
+
+    /** Drops the audio which is not speech before any further processing. */
+    private VoiceActivityDetector mVoiceActivityDetector;
+
+    /** Computes the MFCC features of the speech, in short frames. */
+    private StreamingMFCC mFeatures;
+
+    /** Whether the pipeline must be built or reset before the next buffer is processed. */
+    private volatile boolean mPipelineStale = true;
+
+    /** Identifies the speaker from the features, and holds the enrolled speakers. */
+    private final SpeakerIdentifier mSpeakerIdentifier = new SpeakerIdentifier();
+
     @Override
     protected void onServiceStarted() {
         broadcastMessage(Constants.MESSAGE.AUDIO_SERVICE_STARTED);
@@ -61,6 +112,9 @@ public class AudioService extends SensorService implements MicrophoneRecorder.Mi
 
     protected void registerSensors() {
         mMicrophoneRecorder = MicrophoneRecorder.getInstance(this);
+        mPipelineStale = true;
+        mSpeakerIdentifier.reset();
+        mSpeakerIdentifier.setOnSpeakerListener(this);
 
         Log.d(TAG, "Starting microphone.");
         mMicrophoneRecorder.registerListener(this);
@@ -75,6 +129,42 @@ public class AudioService extends SensorService implements MicrophoneRecorder.Mi
         }
     }
 
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        if (intent != null && Constants.ACTION.ENROLL_SPEAKER.equals(intent.getAction())) {
+            if (getProcessingHandler() == null) {
+                //not recording, so there is no speech to enroll from; don't stay started idle
+                broadcastStatus("Start the microphone before enrolling a speaker.");
+                stopSelf(startId);
+                return START_NOT_STICKY;
+            }
+            if (intent.getBooleanExtra(Constants.KEY.IS_ENROLLING, false)) {
+                mSpeakerIdentifier.startEnrollment(intent.getStringExtra(Constants.KEY.SPEAKER));
+            } else {
+                finishEnrollment();
+            }
+            return START_STICKY;
+        }
+        return super.onStartCommand(intent, flags, startId);
+    }
+
+    /**
+     * Fits the model of the speaker being enrolled on the processing thread, since it takes
+     * too long for the main thread.
+     */
+    private void finishEnrollment() {
+        getProcessingHandler().post(new Runnable() {
+            @Override
+            public void run() {
+                if (mSpeakerIdentifier.stopEnrollment()) {
+                    broadcastStatus("Speaker enrolled.");
+                } else {
+                    broadcastStatus("Not enough speech to enroll the speaker.");
+                }
+            }
+        });
+    }
+
     @Override
     public void onConnected() {
         mClient.registerMessageReceiver(new MessageReceiver(Constants.MHLClientFilter.SPEAKER_DETECTED) {
@@ -88,7 +178,7 @@ public class AudioService extends SensorService implements MicrophoneRecorder.Mi
                     e.printStackTrace();
                     return;
                 }
-                // TODO: Send the speaker to the UI
+                broadcastSpeaker(speaker);
             }
         });
         super.onConnected();
@@ -111,7 +201,7 @@ public class AudioService extends SensorService implements MicrophoneRecorder.Mi
 
     /**
      * Broadcasts spectrogram of audio data.
-     * @param spectrogram 2d array of values
+     * @param spectrogram 2d array of values, one array of frequency bins per column
      */
     public void broadcastSpectrogram(double[][] spectrogram) {
         Intent intent = new Intent();
@@ -122,38 +212,108 @@ public class AudioService extends SensorService implements MicrophoneRecorder.Mi
     }
 
     /**
-     * Called when an audio buffer is received. We compute and visualize the spectrogram
-     * for you.
-     * <br><br>
-     *
-     * Your job is just to send the audio buffer to the server. You should wrap it using
-     * an {@link AudioBufferReading}. For the timestamp, you can pass in any arbitrary
-     * value, or the current system time. It doesn't matter since it won't be used on the
-     * other end, as we aren't live streaming the audio data.
+     * Broadcasts the identified speaker.
+     * @param speaker the name of the speaker
+     */
+    public void broadcastSpeaker(String speaker) {
+        Intent intent = new Intent();
+        intent.putExtra(Constants.KEY.SPEAKER, speaker);
+        intent.setAction(Constants.ACTION.BROADCAST_SPEAKER);
+        LocalBroadcastManager manager = LocalBroadcastManager.getInstance(this);
+        manager.sendBroadcast(intent);
+    }
+
+    /**
+     * Called when an audio buffer is received. The buffer is passed to the voice activity
+     * detector, which calls {@link #onSpeech(short[], int)} with the speech it contains.
      *
      * @param buffer the raw audio data
      * @param window_size the size of the buffer
      *
      * @see MicrophoneRecorder
      * @see cs.umass.edu.myactivitiestoolkit.audio.MicrophoneRecorder.MicrophoneListener
-     * @see AudioBufferReading
      */
     @Override
     public void microphoneBuffer(short[] buffer, int window_size) {
         Log.d(TAG, String.valueOf(buffer.length));
+        if (mPipelineStale) {
+            mPipelineStale = false;
+            preparePipeline();
+        }
+        mVoiceActivityDetector.process(buffer, window_size);
+    }
 
+    /**
+     * Builds the processing pipeline on the first buffer after the service starts, and
+     * resets it on the first buffer after each restart of the recording. It is called on
+     * the thread delivering the buffers, which is the only one using the pipeline.
+     */
+    private void preparePipeline() {
+        if (mVoiceActivityDetector == null) {
+            mSpectrogram = new STFT(SPECTROGRAM_WINDOW_SIZE, SPECTROGRAM_HOP_SIZE);
+            mVoiceActivityDetector = new VoiceActivityDetector();
+            mVoiceActivityDetector.setOnSpeechListener(this);
+            mFeatures = new StreamingMFCC();
+            mFeatures.setOnFeaturesListener(mSpeakerIdentifier);
+        } else {
+            mSpectrogram.reset();
+            mVoiceActivityDetector.reset();
+            mFeatures.reset();
+        }
+    }
+
+    /**
+     * Called with the speech in each audio buffer. We compute and visualize the spectrogram
+     * for you. Only the columns completed by these samples are computed and broadcast; the
+     * windows overlapping the next samples are completed when they arrive.
+     * <br><br>
+     *
+     * Your job is just to send the audio to the server. You should wrap it using
+     * an {@link AudioBufferReading}, or a {@link BinaryAudioReading}, which encodes the
+     * samples several times more compactly if the server decodes its frames. For the timestamp, you can pass in any arbitrary
+     * value, or the current system time. It doesn't matter since it won't be used on the
+     * other end, as we aren't live streaming the audio data.
+     *
+     * @param samples the speech samples
+     * @param length the number of samples
+     *
+     * @see VoiceActivityDetector
+     * @see AudioBufferReading
+     */
+    @Override
+    public void onSpeech(short[] samples, int length) {
         //TODO: Send the audio buffer to the server
 
-        //convert short[] to double[] for computing spectrogram
-        double[] dBuffer = new double[buffer.length];
-        for (int j=0;j<buffer.length;j++) {
-            dBuffer[j] = buffer[j];
-        }
+        //identify the speaker on the device
+        mFeatures.microphoneBuffer(samples, length);
 
-        //compute spectrogram
-        double[][] spectrogram = Spectrogram.computeSpectrogram(dBuffer, 100, 50, Window.RECTANGULAR);
+        //compute the new spectrogram columns
+        int numColumns = mSpectrogram.process(samples, length);
+        if (numColumns == 0) {
+            return;
+        }
 
-        //broadcast to UI
+        //broadcast to UI, copying the columns since the STFT reuses them
+        double[][] columns = mSpectrogram.getColumns();
+        double[][] spectrogram = new double[numColumns][];
+        for (int j = 0; j < numColumns; j++) {
+            spectrogram[j] = Arrays.copyOf(columns[j], columns[j].length);
+        }
         broadcastSpectrogram(spectrogram);
     }
+
+    @Override
+    public void onSpeechEnd() {
+        //don't let spectrogram columns span the silence
+        mSpectrogram.reset();
+        mFeatures.reset();
+        mSpeakerIdentifier.reset();
+        Log.d(TAG, String.format("Speech ended, %.1f%% of %d frames skipped as non-speech",
+                100 * mVoiceActivityDetector.getSkippedFraction(), mVoiceActivityDetector.getNumFrames()));
+    }
+
+    @Override
+    public void onSpeakerIdentified(String speaker) {
+        broadcastSpeaker(speaker);
+    }
 }
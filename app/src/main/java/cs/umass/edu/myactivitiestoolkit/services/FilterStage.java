@@ -0,0 +1,71 @@
+package cs.umass.edu.myactivitiestoolkit.services;
+
+import cs.umass.edu.myactivitiestoolkit.processing.ButterworthFilter;
+
+/**
+ * The filter of a {@link SensorHub} stage. The filter is created on the first sample,
+ * once the number of channels is known, designed for the rate the sensor is registered
+ * at, and retuned in place whenever the registration changes, so its output continues
+ * from the current level of the signal rather than starting from scratch.
+ * <br><br>
+ * The stage has no Android dependencies, so offline tools can run the filter exactly as
+ * the hub does.
+ */
+public class FilterStage {
+
+    private static final double MICROSECONDS_PER_SECOND = 1000 * 1000;
+
+    private final ButterworthFilter.Spec spec;
+
+    /** Created on the first sample, once the number of channels is known. */
+    private ButterworthFilter filter;
+
+    private float[] output;
+
+    /** The sampling period the sensor is registered at, in microseconds, or 0 if unknown. */
+    private int samplingPeriod;
+
+    /**
+     * @param spec the filter applied to the samples.
+     */
+    public FilterStage(ButterworthFilter.Spec spec) {
+        this.spec = spec;
+    }
+
+    /**
+     * @return the spec of the filter.
+     */
+    public ButterworthFilter.Spec getSpec() {
+        return spec;
+    }
+
+    /**
+     * Retunes the filter when the sensor is registered at a different rate.
+     * @param samplingPeriod the registered sampling period, in microseconds, or 0 if the
+     *                       sensor delivers as fast as it can.
+     */
+    public void setSamplingPeriod(int samplingPeriod) {
+        if (samplingPeriod != this.samplingPeriod && samplingPeriod > 0 && filter != null) {
+            filter.setSampleRate(MICROSECONDS_PER_SECOND / samplingPeriod);
+        }
+        this.samplingPeriod = samplingPeriod;
+    }
+
+    /**
+     * Filters a single sample.
+     * @param timestamp the time of the sample, in milliseconds.
+     * @param values the sample, one value per channel.
+     * @return the filtered sample, in an array which is reused for the next sample.
+     */
+    public float[] filter(long timestamp, float[] values) {
+        if (filter == null) {
+            filter = new ButterworthFilter(spec, values.length);
+            if (samplingPeriod > 0) {
+                filter.setSampleRate(MICROSECONDS_PER_SECOND / samplingPeriod);
+            }
+            output = new float[values.length];
+        }
+        filter.filter(timestamp, values, output);
+        return output;
+    }
+}
@@ -10,20 +10,16 @@ import android.util.Log;
 import android.view.Gravity;
 import android.view.WindowManager;
 
-import java.util.ArrayList;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.Queue;
-
 import cs.umass.edu.myactivitiestoolkit.R;
 import cs.umass.edu.myactivitiestoolkit.ppg.HRSensorReading;
+import cs.umass.edu.myactivitiestoolkit.ppg.HeartBeatDetector;
 import cs.umass.edu.myactivitiestoolkit.ppg.PPGSensorReading;
 import cs.umass.edu.myactivitiestoolkit.constants.Constants;
 import cs.umass.edu.myactivitiestoolkit.ppg.HeartRateCameraView;
 import cs.umass.edu.myactivitiestoolkit.ppg.PPGEvent;
 import cs.umass.edu.myactivitiestoolkit.ppg.PPGListener;
 import cs.umass.edu.myactivitiestoolkit.processing.FFT;
-import cs.umass.edu.myactivitiestoolkit.processing.Filter;
+import cs.umass.edu.myactivitiestoolkit.processing.ButterworthFilter;
 import cs.umass.edu.myactivitiestoolkit.util.Interpolator;
 import edu.umass.cs.MHLClient.client.MobileIOClient;
 
@@ -34,7 +30,7 @@ import edu.umass.cs.MHLClient.client.MobileIOClient;
  * <br><br>
  * <b>ASSIGNMENT (PHOTOPLETHYSMOGRAPHY)</b> :
  * In {@link #onSensorChanged(PPGEvent)}, you should smooth the PPG reading using
- * a {@link Filter}. You should send the filtered PPG reading both to the server
+ * a {@link ButterworthFilter}. You should send the filtered PPG reading both to the server
  * and to the {@link cs.umass.edu.myactivitiestoolkit.view.fragments.HeartRateFragment}
  * for visualization. Then call your heart rate detection algorithm, buffering the
  * readings if necessary, and send the bpm measurement back to the UI.
@@ -49,7 +45,7 @@ import edu.umass.cs.MHLClient.client.MobileIOClient;
  * @see HeartRateCameraView
  * @see PPGEvent
  * @see PPGListener
- * @see Filter
+ * @see ButterworthFilter
  * @see MobileIOClient
  * @see PPGSensorReading
  * @see Service
@@ -60,25 +56,41 @@ public class PPGService extends SensorService implements PPGListener
     /** used for debugging purposes */
     private static final String TAG = PPGService.class.getName();
 
-    private static final int MILLIS_PER_MINUTE = 1000 * 60;
-
-    private static final int MILLIS_PER_SECOND = 1000;
-
     /* Surface view responsible for collecting PPG data and displaying the camera preview. */
     private HeartRateCameraView mPPGSensor;
 
-    private Filter mFilter;
+    /** Expected camera frame rate in Hz, until the filters have measured the actual rate. */
+    private static final double NOMINAL_SAMPLE_RATE = 30;
+
+    /** Cutoff of the smoothing filter applied to the displayed and uploaded signal, in Hz. */
+    private static final double CUTOFF_FREQUENCY = 4.0;
+
+    /** Lower edge of the heart rate band, in Hz (42 beats per minute). */
+    private static final double HEART_RATE_LOW_CUTOFF = 0.7;
+
+    private static final int FILTER_ORDER = 2;
+
+    /** Smooths the PPG signal while keeping its level, for display and upload. */
+    private ButterworthFilter mFilter;
 
-    private final Queue<PPGEvent> currentPeaks = new LinkedList<>();
+    /** Isolates the heart rate band of the PPG signal for beat detection. */
+    private ButterworthFilter mHeartRateFilter;
 
-    private final Queue<PPGEvent> buffer = new LinkedList<>();
+    /** Holds the filtered value of the current sample, so filtering does not allocate. */
+    private final float[] mFilteredValue = new float[1];
 
-    private final Queue<Long> hrv = new LinkedList<>();
+    /** Holds the band-passed value of the current sample. */
+    private final float[] mHeartRateValue = new float[1];
+
+    /** Detects heart beats in the filtered PPG signal. */
+    private final HeartBeatDetector mHeartBeatDetector = new HeartBeatDetector();
 
     @Override
     protected void start() {
         Log.d(TAG, "START");
-        mFilter = new Filter(4.0);
+        mFilter = ButterworthFilter.lowPass(FILTER_ORDER, CUTOFF_FREQUENCY, NOMINAL_SAMPLE_RATE, 1);
+        mHeartRateFilter = ButterworthFilter.bandPass(FILTER_ORDER, HEART_RATE_LOW_CUTOFF, CUTOFF_FREQUENCY,
+                NOMINAL_SAMPLE_RATE, 1);
         mPPGSensor = new HeartRateCameraView(getApplicationContext(), null);
 
         WindowManager winMan = (WindowManager) getSystemService(Context.WINDOW_SERVICE);
@@ -157,7 +169,7 @@ public class PPGService extends SensorService implements PPGListener
     /**
      * This method is called each time a PPG sensor reading is received.
      * <br><br>
-     * You should smooth the data using {@link Filter} and then send the filtered data both
+     * You should smooth the data using {@link ButterworthFilter} and then send the filtered data both
      * to the server and the main UI for real-time visualization. Run your algorithm to
      * detect heart beats, calculate your current bpm and send the bmp measurement to the
      * main UI. Additionally, it may be useful for you to send the peaks you detect to
@@ -179,7 +191,11 @@ public class PPGService extends SensorService implements PPGListener
     @Override
     public void onSensorChanged(PPGEvent event) {
         // Smooth data (NOTE: Comment out for unsmoothed PPG signal)
-        event = new PPGEvent(mFilter.getFilteredValues((float) event.value)[0], event.timestamp);
+        mFilteredValue[0] = (float) event.value;
+        mHeartRateValue[0] = mFilteredValue[0];
+        mFilter.filter(event.timestamp, mFilteredValue, mFilteredValue);
+        mHeartRateFilter.filter(event.timestamp, mHeartRateValue, mHeartRateValue);
+        event = new PPGEvent(mFilteredValue[0], event.timestamp);
 
         // Send the data to the UI fragment for visualization
         broadcastPPGReading(event.timestamp, event.value);
@@ -187,69 +203,14 @@ public class PPGService extends SensorService implements PPGListener
         // Send the filtered mean red value to the server
         mClient.sendSensorReading(new PPGSensorReading(mUserID, "MOBILE", "", event.timestamp, event.value));
 
-        // Find threshold for zero crossing algorithm
-        double min = Double.MAX_VALUE;
-        double max = Double.MIN_VALUE;
-        double threshold = 0;
-        for (PPGEvent sample : buffer) {
-            double sample_data = sample.value;
-            if (sample_data > max)
-                max = sample_data;
-            else if (sample_data < min)
-                min = sample_data;
-        }
-        threshold = (min + max)/2;
-
-        // Remove old peaks in one minute window
-        while (currentPeaks.size() > 0
-                && System.currentTimeMillis() - currentPeaks.peek().timestamp > MILLIS_PER_MINUTE) {
-            currentPeaks.remove();
-        }
-
         // Call your heart beat and bpm detection algorithm
-        if (!buffer.isEmpty() && isPeak(buffer, threshold, event)) {
-            currentPeaks.add(event);
-            // EXTRA CREDIT: Calculate HRV
-            if (!buffer.isEmpty()) {
-                hrv.add(event.timestamp - buffer.peek().timestamp);
-            }
-        }
-
-        // Remove old peaks in five minute window
-        while (hrv.size() > 0
-                && System.currentTimeMillis() - hrv.peek() > MILLIS_PER_MINUTE*5) {
-            hrv.remove();
-        }
-
-        // Calculate standard deviation
-        double standardDev = 0;
-        if (!hrv.isEmpty()) {
-            int average = 0;
-            for (Long timestamp : hrv) {
-                average += timestamp;
-            }
-            average /= hrv.size();
-            long variance = 0;
-            for (Long timestamp : hrv) {
-                long diff = average - timestamp;
-                diff *= diff;
-                variance += diff;
-            }
-            variance /= hrv.size();
-            standardDev = Math.sqrt(variance);
-        }
-
-        // Add event to a buffer of 3 seconds
-        buffer.add(event);
-        while (buffer.size() > 0
-                && System.currentTimeMillis() - buffer.peek().timestamp > MILLIS_PER_SECOND * 3) {
-            buffer.remove();
-        }
+        mHeartBeatDetector.onSample(new PPGEvent(mHeartRateValue[0], event.timestamp));
 
         // Send your heart rate and hrv estimate to UI and the server
-        broadcastBPM(currentPeaks.size());
-       // broadcastHRV(standardDev);
-        mClient.sendSensorReading(new HRSensorReading(mUserID, "MOBILE", "", event.timestamp, currentPeaks.size()));
+        int bpm = mHeartBeatDetector.getBeatsPerMinute();
+        broadcastBPM(bpm);
+       // broadcastHRV(mHeartBeatDetector.getHeartRateVariability());
+        mClient.sendSensorReading(new HRSensorReading(mUserID, "MOBILE", "", event.timestamp, bpm));
     }
 
     /**
@@ -301,14 +262,4 @@ public class PPGService extends SensorService implements PPGListener
         LocalBroadcastManager manager = LocalBroadcastManager.getInstance(this);
         manager.sendBroadcast(intent);
     }
-
-    boolean isPeak(Queue<PPGEvent> buffer, double threshold, PPGEvent event) {
-        List<PPGEvent> events = new ArrayList<>(buffer);
-        PPGEvent lastEvent = events.get(events.size()-1);
-
-        Log.i(TAG, "last: " + lastEvent.value + " " + "current: " + event.value + " " + threshold);
-        return event.value > lastEvent.value
-            && lastEvent.value < threshold
-            && event.value > threshold;
-    }
 }
\ No newline at end of file
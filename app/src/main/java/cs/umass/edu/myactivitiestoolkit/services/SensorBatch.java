@@ -0,0 +1,117 @@
+package cs.umass.edu.myactivitiestoolkit.services;
+
+/**
+ * A batch of consecutive samples from one sensor, as delivered by the {@link SensorHub}.
+ * Timestamps and values are stored in primitive arrays, the values interleaved by
+ * channel, so a batch can be processed in a single pass, e.g. by a batch filter.
+ * <br><br>
+ * Batches are recycled by the hub once the listener returns, so a listener must copy
+ * any samples it keeps beyond the call.
+ *
+ * @see SensorHub.OnSensorBatchListener
+ */
+public class SensorBatch {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final int sensorType;
+
+    private final int numChannels;
+
+    private long[] timestamps = new long[INITIAL_CAPACITY];
+
+    private float[] values;
+
+    private int size;
+
+    SensorBatch(int sensorType, int numChannels) {
+        this.sensorType = sensorType;
+        this.numChannels = numChannels;
+        values = new float[INITIAL_CAPACITY * numChannels];
+    }
+
+    /**
+     * Appends a sample, growing the batch if necessary. Only the first
+     * {@link #getNumChannels()} values are kept.
+     */
+    void add(long timestamp, float[] sample) {
+        if (size == timestamps.length) {
+            long[] grownTimestamps = new long[size * 2];
+            System.arraycopy(timestamps, 0, grownTimestamps, 0, size);
+            timestamps = grownTimestamps;
+            float[] grownValues = new float[size * 2 * numChannels];
+            System.arraycopy(values, 0, grownValues, 0, size * numChannels);
+            values = grownValues;
+        }
+        timestamps[size] = timestamp;
+        System.arraycopy(sample, 0, values, size * numChannels, numChannels);
+        size++;
+    }
+
+    void clear() {
+        size = 0;
+    }
+
+    /**
+     * @return the type of the sensor, e.g. {@link android.hardware.Sensor#TYPE_ACCELEROMETER}
+     */
+    public int getSensorType() {
+        return sensorType;
+    }
+
+    /**
+     * @return the number of values per sample.
+     */
+    public int getNumChannels() {
+        return numChannels;
+    }
+
+    /**
+     * @return the number of samples in the batch.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param index the index of the sample, where 0 is the oldest.
+     * @return the time of the sample, in milliseconds (note this is not in Unix time)
+     */
+    public long getTimestamp(int index) {
+        checkIndex(index);
+        return timestamps[index];
+    }
+
+    /**
+     * @param index the index of the sample, where 0 is the oldest.
+     * @param channel the index of the value within the sample.
+     * @return the value.
+     */
+    public float getValue(int index, int channel) {
+        checkIndex(index);
+        return values[index * numChannels + channel];
+    }
+
+    /**
+     * @return the timestamps of the samples, in milliseconds. Only the first {@link #size()}
+     * entries are valid. The array is owned by the batch and must not be modified.
+     */
+    public long[] getTimestamps() {
+        return timestamps;
+    }
+
+    /**
+     * @return the values of the samples, interleaved by channel. Only the first
+     * {@link #size()} * {@link #getNumChannels()} entries are valid. The array is owned
+     * by the batch and must not be modified.
+     */
+    public float[] getValues() {
+        return values;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + ", size " + size);
+        }
+    }
+}
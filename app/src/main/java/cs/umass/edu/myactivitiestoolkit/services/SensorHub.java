@@ -0,0 +1,364 @@
+package cs.umass.edu.myactivitiestoolkit.services;
+
+import android.content.Context;
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import cs.umass.edu.myactivitiestoolkit.constants.Constants;
+import cs.umass.edu.myactivitiestoolkit.processing.ButterworthFilter;
+
+/**
+ * Shares sensor streams between all of their consumers. The hub holds a single
+ * {@link SensorManager} registration per sensor, however many components subscribe to
+ * it, and runs each distinct filter stage once per event, fanning the filtered values
+ * out to every subscriber which asked for the same {@link ButterworthFilter.Spec}.
+ * <br><br>
+ * Subscriptions are reference-counted: the sensor is registered when its first
+ * subscription is made and unregistered when its last subscription is released, and a
+ * filter stage lives exactly as long as it has subscribers. If subscribers ask for
+ * different sampling periods or report latencies, the sensor is registered at the
+ * fastest of them; {@code SENSOR_DELAY_*} constants are compared by the period they
+ * stand for, so they can be mixed with explicit periods in microseconds. When the
+ * registered period changes, the filter of every stage is retuned to the new rate in
+ * place, keeping its level, so subscribers which re-subscribe at another rate with the
+ * same spec see a continuous signal rather than a filter starting from scratch.
+ * <br><br>
+ * Samples are delivered in {@link SensorBatch batches}. A subscription with a non-zero
+ * report latency lets the sensor hardware queue samples in its FIFO for up to that long
+ * before waking the CPU (on API 19 and above), and the hub collects samples until the
+ * batch spans the latency before handing it over. Sensor events are received on the
+ * hub's own thread and batches are posted to the {@link Handler} of each subscription,
+ * so no sensor processing runs on the main thread.
+ *
+ * @see OnSensorBatchListener
+ * @see Subscription
+ */
+public class SensorHub implements SensorEventListener {
+
+    /** Marks a sensor which is not registered with the sensor manager. */
+    private static final int UNREGISTERED = -1;
+
+    private static final int MICROSECONDS_PER_MILLISECOND = 1000;
+
+    /** The periods, in microseconds, of the {@code SensorManager.SENSOR_DELAY_*} constants. */
+    private static final int[] SENSOR_DELAY_PERIODS_US = {0, 20000, 66667, 200000};
+
+    /**
+     * Receives batches of samples of a sensor, optionally filtered.
+     */
+    public interface OnSensorBatchListener {
+        /**
+         * Called on the subscription's handler for each batch of samples.
+         * @param batch the samples, oldest first. The batch is recycled once this returns,
+         *              so samples kept beyond the call must be copied.
+         */
+        void onSensorBatch(SensorBatch batch);
+    }
+
+    /**
+     * A handle on a subscription, used to release it.
+     */
+    public final class Subscription implements Runnable {
+
+        private final SensorEntry entry;
+
+        private final Stage stage;
+
+        private final OnSensorBatchListener listener;
+
+        private final Handler handler;
+
+        /** The requested sampling period, in microseconds. */
+        private final int samplingPeriod;
+
+        private final int maxReportLatencyUs;
+
+        /** The batch being filled on the hub thread, created on the first sample. */
+        private SensorBatch batch;
+
+        /** Filled batches posted to the handler, oldest first. */
+        private final ArrayDeque<SensorBatch> ready = new ArrayDeque<>();
+
+        /** Delivered batches available for reuse. */
+        private final ArrayDeque<SensorBatch> free = new ArrayDeque<>();
+
+        private volatile boolean released;
+
+        private Subscription(SensorEntry entry, Stage stage, OnSensorBatchListener listener, Handler handler,
+                             int samplingPeriod, int maxReportLatencyUs) {
+            this.entry = entry;
+            this.stage = stage;
+            this.listener = listener;
+            this.handler = handler;
+            this.samplingPeriod = samplingPeriod;
+            this.maxReportLatencyUs = maxReportLatencyUs;
+        }
+
+        /** Called on the hub thread for every sample of the stage. */
+        private void add(int sensorType, long timestamp, float[] values) {
+            if (batch == null) {
+                batch = obtainBatch(sensorType, values.length);
+            }
+            batch.add(timestamp, values);
+            long span = timestamp - batch.getTimestamp(0);
+            if (maxReportLatencyUs <= span * MICROSECONDS_PER_MILLISECOND) {
+                synchronized (this) {
+                    ready.add(batch);
+                }
+                batch = null;
+                handler.post(this);
+            }
+        }
+
+        private synchronized SensorBatch obtainBatch(int sensorType, int numChannels) {
+            SensorBatch recycled = free.poll();
+            return recycled != null ? recycled : new SensorBatch(sensorType, numChannels);
+        }
+
+        /** Delivers the oldest ready batch on the handler. */
+        @Override
+        public void run() {
+            SensorBatch delivered;
+            synchronized (this) {
+                delivered = ready.poll();
+            }
+            if (delivered == null) {
+                return;
+            }
+            if (!released) {
+                listener.onSensorBatch(delivered);
+            }
+            delivered.clear();
+            synchronized (this) {
+                free.add(delivered);
+            }
+        }
+
+        /**
+         * Stops delivering samples to the listener. Batches which have not been delivered
+         * yet are dropped. When the last subscription of a sensor is released, the sensor
+         * is unregistered. Releasing twice has no effect.
+         */
+        public void release() {
+            if (!released) {
+                released = true;
+                SensorHub.this.release(this);
+            }
+        }
+    }
+
+    /** A filter stage and the subscriptions to its output. */
+    private static class Stage {
+
+        /** The filter spec, or null if the raw values are delivered. */
+        final ButterworthFilter.Spec spec;
+
+        /** The filter, or null if the raw values are delivered. */
+        final FilterStage filter;
+
+        final ArrayList<Subscription> subscriptions = new ArrayList<>();
+
+        Stage(ButterworthFilter.Spec spec) {
+            this.spec = spec;
+            filter = spec != null ? new FilterStage(spec) : null;
+        }
+    }
+
+    /** The registration of a single sensor. */
+    private static class SensorEntry {
+
+        final Sensor sensor;
+
+        final ArrayList<Stage> stages = new ArrayList<>();
+
+        /** The number of subscriptions over all stages. */
+        int numSubscriptions;
+
+        /** The sampling period, in microseconds, the sensor is currently registered with, or {@link #UNREGISTERED}. */
+        int samplingPeriod = UNREGISTERED;
+
+        /** The report latency the sensor is currently registered with, in microseconds. */
+        int maxReportLatencyUs;
+
+        SensorEntry(Sensor sensor) {
+            this.sensor = sensor;
+        }
+    }
+
+    private static SensorHub sInstance;
+
+    private final SensorManager mSensorManager;
+
+    /** Receives the sensor events, so filtering and batching stay off the main thread. */
+    private final Handler mHandler;
+
+    /** The registered sensors, by sensor type. */
+    private final HashMap<Integer, SensorEntry> mSensors = new HashMap<>();
+
+    /**
+     * @param context any context; the hub keeps only the sensor manager.
+     * @return the hub shared by all components of the application.
+     */
+    public static synchronized SensorHub getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new SensorHub((SensorManager) context.getApplicationContext()
+                    .getSystemService(Context.SENSOR_SERVICE));
+        }
+        return sInstance;
+    }
+
+    private SensorHub(SensorManager sensorManager) {
+        mSensorManager = sensorManager;
+        HandlerThread thread = new HandlerThread(SensorHub.class.getSimpleName());
+        thread.start();
+        mHandler = new Handler(thread.getLooper());
+    }
+
+    /**
+     * Subscribes to the samples of the default sensor of the given type.
+     * @param sensorType the type of the sensor, e.g. {@link Sensor#TYPE_ACCELEROMETER}
+     * @param samplingPeriod the requested rate, one of the {@code SensorManager.SENSOR_DELAY_*}
+     *                       constants or a period in microseconds
+     * @param maxReportLatencyUs the longest time, in microseconds, samples may be held back
+     *                           to be delivered in one batch; 0 delivers every sample on its own
+     * @param spec the filter applied to the samples, or null to receive the raw values
+     * @param handler the handler on which batches are delivered
+     * @param listener receives the batches
+     * @return the subscription, or null if the device has no sensor of the given type
+     */
+    public synchronized Subscription subscribe(int sensorType, int samplingPeriod, int maxReportLatencyUs,
+                                               ButterworthFilter.Spec spec, Handler handler,
+                                               OnSensorBatchListener listener) {
+        SensorEntry entry = mSensors.get(sensorType);
+        if (entry == null) {
+            Sensor sensor = mSensorManager.getDefaultSensor(sensorType);
+            if (sensor == null) {
+                return null;
+            }
+            entry = new SensorEntry(sensor);
+            mSensors.put(sensorType, entry);
+        }
+
+        Stage stage = findStage(entry, spec);
+        if (stage == null) {
+            stage = new Stage(spec);
+            if (stage.filter != null && entry.samplingPeriod != UNREGISTERED) {
+                stage.filter.setSamplingPeriod(entry.samplingPeriod);
+            }
+            entry.stages.add(stage);
+        }
+        Subscription subscription = new Subscription(entry, stage, listener, handler,
+                toMicroseconds(samplingPeriod), maxReportLatencyUs);
+        stage.subscriptions.add(subscription);
+        entry.numSubscriptions++;
+        updateRegistration(entry);
+        return subscription;
+    }
+
+    /**
+     * @param samplingPeriod a {@code SensorManager.SENSOR_DELAY_*} constant or a period in microseconds
+     * @return the period in microseconds.
+     */
+    private static int toMicroseconds(int samplingPeriod) {
+        if (samplingPeriod >= 0 && samplingPeriod < SENSOR_DELAY_PERIODS_US.length) {
+            return SENSOR_DELAY_PERIODS_US[samplingPeriod];
+        }
+        return samplingPeriod;
+    }
+
+    private static Stage findStage(SensorEntry entry, ButterworthFilter.Spec spec) {
+        for (Stage stage : entry.stages) {
+            if (spec == null ? stage.spec == null : spec.equals(stage.spec)) {
+                return stage;
+            }
+        }
+        return null;
+    }
+
+    private synchronized void release(Subscription subscription) {
+        SensorEntry entry = subscription.entry;
+        Stage stage = subscription.stage;
+        stage.subscriptions.remove(subscription);
+        entry.numSubscriptions--;
+        subscription.handler.removeCallbacks(subscription);
+
+        if (stage.subscriptions.isEmpty()) {
+            entry.stages.remove(stage);
+        }
+        if (entry.numSubscriptions == 0) {
+            mSensorManager.unregisterListener(this, entry.sensor);
+            mSensors.remove(entry.sensor.getType());
+        } else {
+            updateRegistration(entry);
+        }
+    }
+
+    /**
+     * Registers the sensor at the fastest sampling period and shortest report latency of
+     * its subscriptions, if it is not already registered with them.
+     */
+    private void updateRegistration(SensorEntry entry) {
+        int samplingPeriod = Integer.MAX_VALUE;
+        int maxReportLatencyUs = Integer.MAX_VALUE;
+        for (Stage stage : entry.stages) {
+            for (Subscription subscription : stage.subscriptions) {
+                samplingPeriod = Math.min(samplingPeriod, subscription.samplingPeriod);
+                maxReportLatencyUs = Math.min(maxReportLatencyUs, subscription.maxReportLatencyUs);
+            }
+        }
+        if (samplingPeriod == entry.samplingPeriod && maxReportLatencyUs == entry.maxReportLatencyUs) {
+            return;
+        }
+        if (entry.samplingPeriod != UNREGISTERED) {
+            mSensorManager.unregisterListener(this, entry.sensor);
+        }
+        for (Stage stage : entry.stages) {
+            if (stage.filter != null) {
+                stage.filter.setSamplingPeriod(samplingPeriod);
+            }
+        }
+        entry.samplingPeriod = samplingPeriod;
+        entry.maxReportLatencyUs = maxReportLatencyUs;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            mSensorManager.registerListener(this, entry.sensor, samplingPeriod, maxReportLatencyUs, mHandler);
+        } else {
+            mSensorManager.registerListener(this, entry.sensor, samplingPeriod, mHandler);
+        }
+    }
+
+    @Override
+    public synchronized void onSensorChanged(SensorEvent event) {
+        int sensorType = event.sensor.getType();
+        SensorEntry entry = mSensors.get(sensorType);
+        if (entry == null) {
+            return;
+        }
+        // convert the timestamp to milliseconds (note this is not in Unix time)
+        long timestamp = (long) ((double) event.timestamp / Constants.TIMESTAMPS.NANOSECONDS_PER_MILLISECOND);
+
+        for (int i = 0; i < entry.stages.size(); i++) {
+            Stage stage = entry.stages.get(i);
+            float[] values = event.values;
+            if (stage.filter != null) {
+                values = stage.filter.filter(timestamp, values);
+            }
+            for (int j = 0; j < stage.subscriptions.size(); j++) {
+                stage.subscriptions.get(j).add(sensorType, timestamp, values);
+            }
+        }
+    }
+
+    @Override
+    public void onAccuracyChanged(Sensor sensor, int accuracy) {
+        // no-op
+    }
+}
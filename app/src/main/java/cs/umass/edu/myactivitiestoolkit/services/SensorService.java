@@ -4,6 +4,8 @@ import android.app.Notification;
 import android.app.PendingIntent;
 import android.app.Service;
 import android.content.Intent;
+import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.IBinder;
 import android.support.annotation.Nullable;
 import android.support.v4.app.NotificationCompat;
@@ -12,6 +14,7 @@ import android.util.Log;
 
 import cs.umass.edu.myactivitiestoolkit.R;
 import cs.umass.edu.myactivitiestoolkit.constants.Constants;
+import cs.umass.edu.myactivitiestoolkit.processing.ButterworthFilter;
 import cs.umass.edu.myactivitiestoolkit.view.activities.MainActivity;
 import edu.umass.cs.MHLClient.client.ConnectionStateHandler;
 import edu.umass.cs.MHLClient.client.MobileIOClient;
@@ -25,6 +28,11 @@ import edu.umass.cs.MHLClient.client.MobileIOClient;
  * and {@link #getNotificationID()}. This ensures that the only code required in each concrete
  * implementation is relevant to the corresponding sensors and the service related code can be
  * maintained separately. A sensor service is not instantiable.
+ * <br><br>
+ * Each running service has its own processing thread. Sensors subscribed through
+ * {@link #subscribe(int, int, int, ButterworthFilter.Spec)} are delivered to
+ * {@link #onSensorBatch(SensorBatch)} on that thread, in batches when a report latency
+ * is given, so sensor processing neither runs on nor wakes up the main thread.
  *
  * @author CS390MB
  *
@@ -43,6 +51,20 @@ public abstract class SensorService extends Service implements ConnectionStateHa
     /** The user ID required to authenticate the server connection. */
     protected String mUserID;
 
+    /** Runs the sensor processing of this service while it is started. */
+    private HandlerThread mProcessingThread;
+
+    /** Posts work to {@link #mProcessingThread}. */
+    private Handler mProcessingHandler;
+
+    /** Forwards the batches of all subscriptions to {@link #onSensorBatch(SensorBatch)}. */
+    private final SensorHub.OnSensorBatchListener mSensorBatchListener = new SensorHub.OnSensorBatchListener() {
+        @Override
+        public void onSensorBatch(SensorBatch batch) {
+            SensorService.this.onSensorBatch(batch);
+        }
+    };
+
     /**
      * Called when the servie has been started.
      */
@@ -76,6 +98,41 @@ public abstract class SensorService extends Service implements ConnectionStateHa
      */
     protected abstract void unregisterSensors();
 
+    /**
+     * Called on the processing thread with each batch of samples from the sensors
+     * subscribed through {@link #subscribe(int, int, int, ButterworthFilter.Spec)}.
+     * @param batch the samples, oldest first. The batch is recycled once this returns.
+     */
+    protected void onSensorBatch(SensorBatch batch){
+        // allow subclasses to process the sensors they subscribe to
+    }
+
+    /**
+     * Subscribes to a sensor through the shared {@link SensorHub}, with batches delivered
+     * to {@link #onSensorBatch(SensorBatch)} on the processing thread. Must be called while
+     * the service is started, e.g. from {@link #registerSensors()}.
+     * @param sensorType the type of the sensor, e.g. {@link android.hardware.Sensor#TYPE_ACCELEROMETER}
+     * @param samplingPeriod the requested rate, one of the {@code SensorManager.SENSOR_DELAY_*}
+     *                       constants or a period in microseconds
+     * @param maxReportLatencyUs the longest time, in microseconds, samples may be held back
+     *                           to be delivered in one batch; 0 delivers every sample on its own
+     * @param spec the filter applied to the samples, or null to receive the raw values
+     * @return the subscription, to be released in {@link #unregisterSensors()}, or null if
+     * the device has no sensor of the given type
+     */
+    protected SensorHub.Subscription subscribe(int sensorType, int samplingPeriod, int maxReportLatencyUs,
+                                               ButterworthFilter.Spec spec){
+        return SensorHub.getInstance(this).subscribe(sensorType, samplingPeriod, maxReportLatencyUs, spec,
+                mProcessingHandler, mSensorBatchListener);
+    }
+
+    /**
+     * @return the handler of the processing thread, or null if the service is not started.
+     */
+    protected Handler getProcessingHandler(){
+        return mProcessingHandler;
+    }
+
     /**
      * Returns the unique ID of the notification. If a notification with the ID already exists,
      * it will be replaced with the new notification.
@@ -102,6 +159,11 @@ public abstract class SensorService extends Service implements ConnectionStateHa
         Log.d(TAG, "Service started");
         startForeground(getNotificationID(), getNotification());
         connectToServer();
+        if (mProcessingThread == null) {
+            mProcessingThread = new HandlerThread(getClass().getSimpleName());
+            mProcessingThread.start();
+            mProcessingHandler = new Handler(mProcessingThread.getLooper());
+        }
         registerSensors();
         onServiceStarted();
     }
@@ -112,6 +174,11 @@ public abstract class SensorService extends Service implements ConnectionStateHa
     protected void stop(){
         Log.d(TAG, "Service stopped");
         unregisterSensors();
+        if (mProcessingThread != null) {
+            mProcessingThread.quit();
+            mProcessingThread = null;
+            mProcessingHandler = null;
+        }
 //        if (client != null)
 //            client.disconnect(); //TODO
         stopForeground(true);
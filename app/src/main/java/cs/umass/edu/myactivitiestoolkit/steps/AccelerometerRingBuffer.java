@@ -0,0 +1,192 @@
+package cs.umass.edu.myactivitiestoolkit.steps;
+
+/**
+ * Fixed-capacity ring buffer of accelerometer samples. The magnitude, timestamp and
+ * x, y, z vector of each sample are stored in parallel primitive arrays, so adding a
+ * sample never allocates. Once the buffer is full, each new sample evicts the oldest.
+ * <br><br>
+ * The minimum and maximum magnitude over the buffered samples are maintained with
+ * monotonic deques, so {@link #getMinMagnitude()} and {@link #getMaxMagnitude()} run
+ * in constant time and {@link #add(long, float, float, float)} in amortized constant time.
+ * <br><br>
+ * Samples are indexed from 0 (the oldest) to {@link #size()} - 1 (the newest).
+ */
+public class AccelerometerRingBuffer {
+
+    /** The number of axes stored per sample. */
+    private static final int NUM_AXES = 3;
+
+    /** The maximum number of samples held by the buffer. */
+    private final int capacity;
+
+    /** The magnitude of each buffered sample. */
+    private final float[] magnitudes;
+
+    /** The timestamp of each buffered sample. */
+    private final long[] timestamps;
+
+    /** The x, y, z values of each buffered sample, interleaved. */
+    private final float[] vectors;
+
+    /** Slot of the oldest buffered sample. */
+    private int head;
+
+    /** The number of buffered samples. */
+    private int size;
+
+    /** Slots of candidate minima, in increasing order of magnitude. */
+    private final int[] minDeque;
+
+    /** Slots of candidate maxima, in decreasing order of magnitude. */
+    private final int[] maxDeque;
+
+    private int minFirst, minSize;
+
+    private int maxFirst, maxSize;
+
+    /**
+     * Instantiates an empty ring buffer.
+     * @param capacity the maximum number of samples held at once.
+     */
+    public AccelerometerRingBuffer(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive.");
+        }
+        this.capacity = capacity;
+        magnitudes = new float[capacity];
+        timestamps = new long[capacity];
+        vectors = new float[capacity * NUM_AXES];
+        minDeque = new int[capacity];
+        maxDeque = new int[capacity];
+    }
+
+    /**
+     * Adds a sample to the buffer, evicting the oldest sample if the buffer is full.
+     * @param timestamp the time at which the sample was taken
+     * @param x acceleration along the x-axis
+     * @param y acceleration along the y-axis
+     * @param z acceleration along the z-axis
+     */
+    public void add(long timestamp, float x, float y, float z) {
+        if (size == capacity) {
+            // a deque entry in the evicted slot can only be the oldest sample, at its front
+            if (minSize > 0 && minDeque[minFirst] == head) {
+                minFirst = next(minFirst);
+                minSize--;
+            }
+            if (maxSize > 0 && maxDeque[maxFirst] == head) {
+                maxFirst = next(maxFirst);
+                maxSize--;
+            }
+            head = next(head);
+            size--;
+        }
+
+        int slot = wrap(head + size);
+        float magnitude = (float) Math.sqrt(x * x + y * y + z * z);
+        magnitudes[slot] = magnitude;
+        timestamps[slot] = timestamp;
+        vectors[slot * NUM_AXES] = x;
+        vectors[slot * NUM_AXES + 1] = y;
+        vectors[slot * NUM_AXES + 2] = z;
+        size++;
+
+        while (minSize > 0 && magnitudes[minDeque[wrap(minFirst + minSize - 1)]] >= magnitude) {
+            minSize--;
+        }
+        minDeque[wrap(minFirst + minSize)] = slot;
+        minSize++;
+
+        while (maxSize > 0 && magnitudes[maxDeque[wrap(maxFirst + maxSize - 1)]] <= magnitude) {
+            maxSize--;
+        }
+        maxDeque[wrap(maxFirst + maxSize)] = slot;
+        maxSize++;
+    }
+
+    /**
+     * Removes all samples from the buffer.
+     */
+    public void clear() {
+        head = size = 0;
+        minFirst = minSize = 0;
+        maxFirst = maxSize = 0;
+    }
+
+    /**
+     * @return the number of buffered samples.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the maximum number of samples held at once.
+     */
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * @return the smallest magnitude among the buffered samples. The buffer must not be empty.
+     */
+    public float getMinMagnitude() {
+        checkNotEmpty();
+        return magnitudes[minDeque[minFirst]];
+    }
+
+    /**
+     * @return the largest magnitude among the buffered samples. The buffer must not be empty.
+     */
+    public float getMaxMagnitude() {
+        checkNotEmpty();
+        return magnitudes[maxDeque[maxFirst]];
+    }
+
+    /**
+     * @param index index of the sample, where 0 is the oldest buffered sample.
+     * @return the magnitude of the sample.
+     */
+    public float getMagnitude(int index) {
+        return magnitudes[slotAt(index)];
+    }
+
+    /**
+     * @param index index of the sample, where 0 is the oldest buffered sample.
+     * @return the timestamp of the sample.
+     */
+    public long getTimestamp(int index) {
+        return timestamps[slotAt(index)];
+    }
+
+    /**
+     * Copies the x, y, z values of a sample into the given array.
+     * @param index index of the sample, where 0 is the oldest buffered sample.
+     * @param out array of length at least 3 which receives the values.
+     */
+    public void copyVector(int index, float[] out) {
+        System.arraycopy(vectors, slotAt(index) * NUM_AXES, out, 0, NUM_AXES);
+    }
+
+    private int slotAt(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + ", size " + size);
+        }
+        return wrap(head + index);
+    }
+
+    private int next(int slot) {
+        return slot + 1 == capacity ? 0 : slot + 1;
+    }
+
+    /** Maps a slot in [0, 2 * capacity) back into the buffer. */
+    private int wrap(int slot) {
+        return slot >= capacity ? slot - capacity : slot;
+    }
+
+    private void checkNotEmpty() {
+        if (size == 0) {
+            throw new IllegalStateException("The buffer is empty.");
+        }
+    }
+}
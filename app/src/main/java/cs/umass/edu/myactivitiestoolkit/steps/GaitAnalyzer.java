@@ -0,0 +1,105 @@
+package cs.umass.edu.myactivitiestoolkit.steps;
+
+/**
+ * Incremental gait analytics over detected steps. Register the analyzer as an
+ * {@link OnStepListener} with the {@link StepDetector}; it maintains
+ * {@link RollingStepStatistics} over a short (10 second), medium (1 minute) and
+ * long (10 minute) window, each updated in amortized constant time per step.
+ */
+public class GaitAnalyzer implements OnStepListener {
+
+    /** Index of the 10 second window. */
+    public static final int WINDOW_SHORT = 0;
+
+    /** Index of the 1 minute window. */
+    public static final int WINDOW_MEDIUM = 1;
+
+    /** Index of the 10 minute window. */
+    public static final int WINDOW_LONG = 2;
+
+    /** The window lengths, in milliseconds, indexed by the window constants. */
+    private static final long[] WINDOW_LENGTHS = {10 * 1000, 60 * 1000, 10 * 60 * 1000};
+
+    /**
+     * Clients may register a listener to be notified when the gait statistics change.
+     */
+    public interface OnGaitUpdatedListener {
+        void onGaitUpdated(GaitAnalyzer gaitAnalyzer);
+    }
+
+    private final RollingStepStatistics[] mWindows;
+
+    private OnGaitUpdatedListener mListener;
+
+    public GaitAnalyzer() {
+        mWindows = new RollingStepStatistics[WINDOW_LENGTHS.length];
+        for (int i = 0; i < WINDOW_LENGTHS.length; i++) {
+            mWindows[i] = new RollingStepStatistics(WINDOW_LENGTHS[i]);
+        }
+    }
+
+    /**
+     * Sets the listener notified after each step is added to the windows.
+     * @param listener the listener, or null to remove it.
+     */
+    public void setOnGaitUpdatedListener(OnGaitUpdatedListener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * @return the number of windows maintained.
+     */
+    public int getWindowCount() {
+        return mWindows.length;
+    }
+
+    /**
+     * @param window one of {@link #WINDOW_SHORT}, {@link #WINDOW_MEDIUM} or {@link #WINDOW_LONG}.
+     * @return the statistics over the given window.
+     */
+    public RollingStepStatistics getStatistics(int window) {
+        return mWindows[window];
+    }
+
+    /**
+     * Evicts the steps which fall outside each window ending at the given time, so the
+     * statistics decay while no steps are detected. The listener is notified if any
+     * window changed.
+     * @param timestamp the current time, in milliseconds, in the time base of the steps.
+     * @return true if any window changed.
+     */
+    public boolean advanceTo(long timestamp) {
+        boolean changed = false;
+        for (RollingStepStatistics window : mWindows) {
+            changed |= window.advanceTo(timestamp);
+        }
+        if (changed && mListener != null) {
+            mListener.onGaitUpdated(this);
+        }
+        return changed;
+    }
+
+    /**
+     * Clears the steps from all windows.
+     */
+    public void reset() {
+        for (RollingStepStatistics window : mWindows) {
+            window.reset();
+        }
+    }
+
+    @Override
+    public void onStepCountUpdated(int stepCount) {
+        // the statistics depend only on step times
+    }
+
+    @Override
+    public void onStepDetected(long timestamp, float[] values) {
+        for (RollingStepStatistics window : mWindows) {
+            window.addStep(timestamp);
+        }
+        if (mListener != null) {
+            mListener.onGaitUpdated(this);
+        }
+    }
+}
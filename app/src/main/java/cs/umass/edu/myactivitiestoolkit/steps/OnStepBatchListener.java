@@ -0,0 +1,13 @@
+package cs.umass.edu.myactivitiestoolkit.steps;
+
+/**
+ * Clients may register an OnStepBatchListener to receive all steps found in a
+ * detection pass, along with the updated step count, in a single callback.
+ * Batches are only delivered for passes which found at least one step.
+ *
+ * @see StepBatch
+ * @see OnStepListener
+ */
+public interface OnStepBatchListener {
+    void onStepBatch(StepBatch batch);
+}
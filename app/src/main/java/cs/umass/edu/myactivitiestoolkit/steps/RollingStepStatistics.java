@@ -0,0 +1,170 @@
+package cs.umass.edu.myactivitiestoolkit.steps;
+
+/**
+ * Gait statistics over the steps detected in a sliding time window: cadence, the mean
+ * and variance of the interval between consecutive steps, and regularity. The interval
+ * sum and sum of squares are updated as steps enter and leave the window, so each step
+ * costs amortized constant time regardless of the window length. Both sums are kept in
+ * integer milliseconds, so they do not drift however long the window slides.
+ * <br><br>
+ * The window ends at the most recent step or at the time passed to {@link #advanceTo(long)},
+ * whichever is later, so the statistics decay once the user stops walking. Intervals
+ * longer than {@link #BOUT_GAP} separate two bouts of walking and are not counted.
+ *
+ * @see GaitAnalyzer
+ */
+public class RollingStepStatistics {
+
+    private static final double MILLIS_PER_MINUTE = 60 * 1000;
+
+    /** The longest interval, in milliseconds, between two steps of the same bout. */
+    public static final long BOUT_GAP = 2000;
+
+    /** Initial capacity, in steps. The buffer grows if steps arrive faster. */
+    private static final int INITIAL_CAPACITY = 64;
+
+    /** The length of the window, in milliseconds. */
+    private final long windowLength;
+
+    /** Ring buffer of the timestamps of the steps within the window. */
+    private long[] timestamps = new long[INITIAL_CAPACITY];
+
+    private int head, size;
+
+    /** The number of intervals within the window which are no longer than the bout gap. */
+    private int intervalCount;
+
+    /** The sum of the intervals between consecutive steps within the window. */
+    private long intervalSum;
+
+    /** The sum of the squared intervals between consecutive steps within the window. */
+    private long intervalSquareSum;
+
+    /**
+     * @param windowLength the length of the window, in milliseconds.
+     */
+    public RollingStepStatistics(long windowLength) {
+        this.windowLength = windowLength;
+    }
+
+    /**
+     * Adds a step and evicts the steps which fall outside the window ending at it.
+     * @param timestamp the time of the step, in milliseconds.
+     */
+    public void addStep(long timestamp) {
+        if (size > 0) {
+            long interval = timestamp - timestamps[(head + size - 1) % timestamps.length];
+            if (interval <= BOUT_GAP) {
+                intervalCount++;
+                intervalSum += interval;
+                intervalSquareSum += interval * interval;
+            }
+        }
+        if (size == timestamps.length) {
+            grow();
+        }
+        timestamps[(head + size) % timestamps.length] = timestamp;
+        size++;
+
+        advanceTo(timestamp);
+    }
+
+    /**
+     * Evicts the steps which fall outside the window ending at the given time. Call this
+     * as time passes without steps, so the statistics cover only recent walking.
+     * @param timestamp the current time, in milliseconds.
+     * @return true if any step was evicted.
+     */
+    public boolean advanceTo(long timestamp) {
+        boolean evicted = false;
+        while (size > 0 && timestamp - timestamps[head] > windowLength) {
+            if (size > 1) {
+                long interval = timestamps[(head + 1) % timestamps.length] - timestamps[head];
+                if (interval <= BOUT_GAP) {
+                    intervalCount--;
+                    intervalSum -= interval;
+                    intervalSquareSum -= interval * interval;
+                }
+            }
+            head = (head + 1) % timestamps.length;
+            size--;
+            evicted = true;
+        }
+        return evicted;
+    }
+
+    private void grow() {
+        long[] grown = new long[timestamps.length * 2];
+        for (int i = 0; i < size; i++) {
+            grown[i] = timestamps[(head + i) % timestamps.length];
+        }
+        timestamps = grown;
+        head = 0;
+    }
+
+    /**
+     * Removes all steps from the window.
+     */
+    public void reset() {
+        head = size = intervalCount = 0;
+        intervalSum = intervalSquareSum = 0;
+    }
+
+    /**
+     * @return the length of the window, in milliseconds.
+     */
+    public long getWindowLength() {
+        return windowLength;
+    }
+
+    /**
+     * @return the number of steps within the window.
+     */
+    public int getStepCount() {
+        return size;
+    }
+
+    /**
+     * @return the mean interval between consecutive steps of the same bout, in
+     * milliseconds, or 0 if there are no such intervals within the window.
+     */
+    public double getIntervalMean() {
+        return intervalCount == 0 ? 0 : (double) intervalSum / intervalCount;
+    }
+
+    /**
+     * @return the population variance of the interval between consecutive steps of the
+     * same bout, in square milliseconds, or 0 if there are no such intervals within the window.
+     */
+    public double getIntervalVariance() {
+        if (intervalCount == 0) {
+            return 0;
+        }
+        double mean = (double) intervalSum / intervalCount;
+        return Math.max(0, (double) intervalSquareSum / intervalCount - mean * mean);
+    }
+
+    /**
+     * @return the cadence while walking, in steps per minute, or 0 if there are no
+     * intervals between steps of the same bout within the window.
+     */
+    public double getCadence() {
+        double mean = getIntervalMean();
+        return mean == 0 ? 0 : MILLIS_PER_MINUTE / mean;
+    }
+
+    /**
+     * Regularity is 1 minus the coefficient of variation of the step interval, clamped
+     * to [0, 1], so a perfectly even gait scores 1.
+     * @return the regularity, or 0 if there are no intervals between steps of the same
+     * bout within the window.
+     */
+    public double getRegularity() {
+        double mean = getIntervalMean();
+        if (mean == 0) {
+            return 0;
+        }
+        double coefficientOfVariation = Math.sqrt(getIntervalVariance()) / mean;
+        return Math.max(0, 1 - coefficientOfVariation);
+    }
+}
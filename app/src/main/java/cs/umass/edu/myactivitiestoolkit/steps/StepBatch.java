@@ -0,0 +1,94 @@
+package cs.umass.edu.myactivitiestoolkit.steps;
+
+import java.util.Arrays;
+
+/**
+ * The steps found in a single detection pass of the {@link StepDetector}, delivered to
+ * {@link OnStepBatchListener}s in one callback instead of two callbacks per step.
+ * <br><br>
+ * The detector reuses a single batch across passes, so listeners must copy anything
+ * they need to keep beyond the callback, e.g. using {@link #copyTimestamps()} and
+ * {@link #copyValues()}.
+ */
+public class StepBatch {
+
+    /** The number of axes stored per step. */
+    private static final int NUM_AXES = 3;
+
+    private long[] timestamps = new long[8];
+
+    private float[] values = new float[8 * NUM_AXES];
+
+    private int size;
+
+    private int stepCount;
+
+    /**
+     * Appends a step to the batch.
+     * @param timestamp the time of the step, in milliseconds.
+     * @param vector the x, y and z accelerometer values at the step.
+     * @param stepCount the total step count after this step.
+     */
+    void add(long timestamp, float[] vector, int stepCount) {
+        if (size == timestamps.length) {
+            timestamps = Arrays.copyOf(timestamps, size * 2);
+            values = Arrays.copyOf(values, size * 2 * NUM_AXES);
+        }
+        timestamps[size] = timestamp;
+        System.arraycopy(vector, 0, values, size * NUM_AXES, NUM_AXES);
+        size++;
+        this.stepCount = stepCount;
+    }
+
+    /**
+     * Removes all steps from the batch.
+     */
+    void clear() {
+        size = 0;
+    }
+
+    /**
+     * @return the number of steps in the batch.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the total step count after the last step in the batch.
+     */
+    public int getStepCount() {
+        return stepCount;
+    }
+
+    /**
+     * @param index index of the step within the batch.
+     * @return the time of the step, in milliseconds.
+     */
+    public long getTimestamp(int index) {
+        return timestamps[index];
+    }
+
+    /**
+     * @param index index of the step within the batch.
+     * @param axis 0, 1 or 2 for the x, y or z axis.
+     * @return the accelerometer value along the axis at the step.
+     */
+    public float getValue(int index, int axis) {
+        return values[index * NUM_AXES + axis];
+    }
+
+    /**
+     * @return a new array holding the time of each step, in milliseconds.
+     */
+    public long[] copyTimestamps() {
+        return Arrays.copyOf(timestamps, size);
+    }
+
+    /**
+     * @return a new array holding the x, y and z values of each step, interleaved.
+     */
+    public float[] copyValues() {
+        return Arrays.copyOf(values, size * NUM_AXES);
+    }
+}
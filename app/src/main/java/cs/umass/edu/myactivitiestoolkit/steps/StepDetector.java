@@ -3,14 +3,11 @@ package cs.umass.edu.myactivitiestoolkit.steps;
 import android.hardware.Sensor;
 import android.hardware.SensorEvent;
 import android.hardware.SensorEventListener;
-import android.util.Log;
 
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
 
 import cs.umass.edu.myactivitiestoolkit.constants.Constants;
-import cs.umass.edu.myactivitiestoolkit.processing.Filter;
+import cs.umass.edu.myactivitiestoolkit.processing.ButterworthFilter;
 
 /**
  * This class is responsible for detecting steps from the accelerometer sensor.
@@ -25,31 +22,121 @@ public class StepDetector implements SensorEventListener {
     /** Frequency to for step detection filter */
     private static final double CUTOFF_FREQUENCY = 3.0;
 
+    /** Order of the step detection filter */
+    private static final int FILTER_ORDER = 2;
+
+    /** Expected accelerometer rate in Hz, until the filter has measured the actual rate */
+    private static final double NOMINAL_SAMPLE_RATE = 30;
+
+    /**
+     * The filter applied to accelerometer readings before detection. Readings which have
+     * already been filtered with this spec, e.g. by a shared sensor stream, may be passed
+     * to {@link #onFilteredAccelerometerReading(long, float[])} instead.
+     */
+    public static final ButterworthFilter.Spec FILTER_SPEC =
+            ButterworthFilter.Spec.lowPass(FILTER_ORDER, CUTOFF_FREQUENCY, NOMINAL_SAMPLE_RATE);
+
     /** Threshold for difference between max and min in one buffer */
     private static final double DELTA_THRESHOLD = 5;
 
-    /** Rate to run step detection algorithm */
-    private static final double SAMPLE_RATE = 200;
+    /** Number of samples over which the step detection algorithm is run */
+    private static final int SAMPLE_RATE = 200;
+
+    /** Minimum time between consecutive steps in streaming mode, in milliseconds */
+    private static final long MIN_STEP_INTERVAL = 500;
+
+    /** How long readings are ignored after {@link #settle(long)}, in milliseconds */
+    private static final long SETTLE_TIME = 1000;
+
+    /**
+     * Defines when the step detection algorithm runs over the buffered signal.
+     */
+    public enum DetectionMode {
+        /**
+         * Steps are detected once per block of {@link #SAMPLE_RATE} samples, after
+         * which the buffer is cleared. Steps are reported only when the block fills.
+         */
+        BLOCK,
+        /**
+         * Steps are detected on every sample against the midpoint of the min and max
+         * over the last {@link #SAMPLE_RATE} samples. Each step is reported on the
+         * sample that crosses the threshold, and steps closer together than
+         * {@link #MIN_STEP_INTERVAL} are ignored.
+         */
+        STREAMING
+    }
 
     /** Maintains the set of listeners registered to handle step events. **/
     private ArrayList<OnStepListener> mStepListeners;
 
+    /** Maintains the set of listeners registered to handle batches of step events. **/
+    private ArrayList<OnStepBatchListener> mStepBatchListeners;
+
+    /** Collects the steps found in the current detection pass, reused across passes */
+    private final StepBatch mStepBatch;
+
     /**
      * The number of steps taken.
      */
     private int stepCount;
 
-    /** Customized filter based on time/frequency */
-    private final Filter mFilter;
+    /** Low-pass filter which calibrates itself to the actual accelerometer rate */
+    private final ButterworthFilter mFilter;
 
     /** Holds the current signal values to be processed */
-    private final List<AccelerometerBuffer> mCurrentBuffers;
+    private final AccelerometerRingBuffer mBuffer;
+
+    /** Receives the filtered values of the current sample, reused across samples */
+    private final float[] mFilteredValues;
+
+    /** Determines when steps are detected over the buffered signal */
+    private final DetectionMode mMode;
+
+    /** The timestamp of the last step detected in streaming mode */
+    private long mLastStepTimestamp = Long.MIN_VALUE;
+
+    /** Readings before this time are ignored while the filter feeding the detector settles */
+    private long mSettleEnd = Long.MIN_VALUE;
 
     public StepDetector(){
+        this(DetectionMode.BLOCK);
+    }
+
+    /**
+     * Instantiates a step detector.
+     * @param mode whether steps are detected per block or on every sample.
+     */
+    public StepDetector(DetectionMode mode){
         mStepListeners = new ArrayList<>();
+        mStepBatchListeners = new ArrayList<>();
+        mStepBatch = new StepBatch();
         stepCount = 0;
-        mFilter = new Filter(CUTOFF_FREQUENCY);
-        mCurrentBuffers = new ArrayList<>();
+        mFilter = new ButterworthFilter(FILTER_SPEC, 3);
+        mBuffer = new AccelerometerRingBuffer(mode == DetectionMode.STREAMING ? SAMPLE_RATE : SAMPLE_RATE + 1);
+        mFilteredValues = new float[3];
+        mMode = mode;
+    }
+
+    /**
+     * Tells the detector that the accelerometer now runs at a different rate, e.g. after
+     * adaptive sampling has changed the sensor registration, so that its filter is
+     * redesigned immediately rather than once the new rate has been measured.
+     * @param sampleRate the new accelerometer rate, in Hz.
+     */
+    public void setSampleRate(double sampleRate) {
+        mFilter.setSampleRate(sampleRate);
+    }
+
+    /**
+     * Tells the detector that the filter feeding it is settling, e.g. after adaptive
+     * sampling has changed the accelerometer rate. The buffered signal, sampled at the old
+     * rate, is discarded, and readings within {@link #SETTLE_TIME} of the given time are
+     * ignored, so the filter transient is not counted as steps.
+     * @param timestamp the time of the change, in milliseconds.
+     */
+    public void settle(long timestamp) {
+        mBuffer.clear();
+        mSettleEnd = timestamp + SETTLE_TIME;
     }
 
     /**
@@ -69,10 +156,28 @@ public class StepDetector implements SensorEventListener {
     }
 
     /**
-     * Unregisters all step listeners.
+     * Registers a listener which receives all steps found in a detection pass in a
+     * single callback, rather than one callback per step.
+     * @param stepBatchListener defines how batches of step events are handled.
+     */
+    public void registerOnStepBatchListener(final OnStepBatchListener stepBatchListener){
+        mStepBatchListeners.add(stepBatchListener);
+    }
+
+    /**
+     * Unregisters the specified step batch listener.
+     * @param stepBatchListener the listener to be unregistered. It must already be registered.
+     */
+    public void unregisterOnStepBatchListener(final OnStepBatchListener stepBatchListener){
+        mStepBatchListeners.remove(stepBatchListener);
+    }
+
+    /**
+     * Unregisters all step listeners, including step batch listeners.
      */
     public void unregisterOnStepListeners(){
         mStepListeners.clear();
+        mStepBatchListeners.clear();
     }
 
     /**
@@ -87,24 +192,90 @@ public class StepDetector implements SensorEventListener {
     @Override
     public void onSensorChanged(SensorEvent event) {
         if (event.sensor.getType() == Sensor.TYPE_ACCELEROMETER) {
-
-            float[] values = convertDoublesToFloats(mFilter.getFilteredValues(event.values));
             // convert the timestamp to milliseconds (note this is not in Unix time)
             long timestamp_in_milliseconds = (long) ((double) event.timestamp / Constants.TIMESTAMPS.NANOSECONDS_PER_MILLISECOND);
+            onAccelerometerReading(timestamp_in_milliseconds, event.values);
+        }
+    }
+
+    /**
+     * Filters and buffers a single accelerometer reading and runs the step detection
+     * algorithm, either on this reading or once a full block has been buffered,
+     * depending on the {@link DetectionMode}. No memory is allocated per reading;
+     * the min and max of the buffer are maintained incrementally.
+     *
+     * @param timestamp the time of the reading, in milliseconds
+     * @param values the x, y and z accelerometer values
+     */
+    public void onAccelerometerReading(long timestamp, float[] values) {
+        mFilter.filter(timestamp, values, mFilteredValues);
+        onFilteredAccelerometerReading(timestamp, mFilteredValues);
+    }
+
+    /**
+     * Buffers a single accelerometer reading which has already been filtered with
+     * {@link #FILTER_SPEC} and runs the step detection algorithm, as in
+     * {@link #onAccelerometerReading(long, float[])}. The detector's own filter is bypassed.
+     *
+     * @param timestamp the time of the reading, in milliseconds
+     * @param filteredValues the filtered x, y and z accelerometer values
+     */
+    public void onFilteredAccelerometerReading(long timestamp, float[] filteredValues) {
+        detect(timestamp, filteredValues[0], filteredValues[1], filteredValues[2]);
+        dispatchStepBatch();
+    }
+
+    /**
+     * Runs the step detection algorithm over a batch of accelerometer readings which have
+     * already been filtered with {@link #FILTER_SPEC}, e.g. a batched sensor delivery.
+     * Step batch listeners are notified once, with all steps found in the batch.
+     *
+     * @param timestamps the time of each reading, in milliseconds
+     * @param filteredValues the filtered x, y and z values of each reading, interleaved
+     * @param numReadings the number of readings in the batch
+     */
+    public void onFilteredAccelerometerBatch(long[] timestamps, float[] filteredValues, int numReadings) {
+        for (int i = 0; i < numReadings; i++) {
+            detect(timestamps[i], filteredValues[3 * i], filteredValues[3 * i + 1], filteredValues[3 * i + 2]);
+        }
+        dispatchStepBatch();
+    }
+
+    /**
+     * Buffers a filtered reading and runs the step detection algorithm, collecting any
+     * steps found into {@link #mStepBatch}.
+     */
+    private void detect(long timestamp, float x, float y, float z) {
+        if (timestamp < mSettleEnd) {
+            return;
+        }
+        mBuffer.add(timestamp, x, y, z);
 
-            mCurrentBuffers.add(new AccelerometerBuffer(values, timestamp_in_milliseconds));
-
-            if (mCurrentBuffers.size() > SAMPLE_RATE) {
-                AccelerometerBuffer minBuffer = Collections.min(mCurrentBuffers);
-                AccelerometerBuffer maxBuffer = Collections.max(mCurrentBuffers);
-                Log.i(TAG, "minmax:" + minBuffer.value + " " + maxBuffer.value);
-                if (maxBuffer.value - minBuffer.value > DELTA_THRESHOLD) {
-                    double threshold = (maxBuffer.value + minBuffer.value) / 2;
-                    detectSteps(mCurrentBuffers, threshold);
-                }
-                mCurrentBuffers.clear();
+        if (mMode == DetectionMode.STREAMING) {
+            detectStepStreaming();
+        } else if (mBuffer.size() > SAMPLE_RATE) {
+            float min = mBuffer.getMinMagnitude();
+            float max = mBuffer.getMaxMagnitude();
+            if (max - min > DELTA_THRESHOLD) {
+                double threshold = (max + min) / 2;
+                detectSteps(threshold);
             }
+            mBuffer.clear();
+        }
+    }
+
+    /**
+     * Delivers the steps found in the current detection pass to the step batch
+     * listeners, if any steps were found.
+     */
+    private void dispatchStepBatch() {
+        if (mStepBatch.size() == 0) {
+            return;
         }
+        for (OnStepBatchListener stepBatchListener : mStepBatchListeners){
+            stepBatchListener.onStepBatch(mStepBatch);
+        }
+        mStepBatch.clear();
     }
 
     @Override
@@ -115,7 +286,8 @@ public class StepDetector implements SensorEventListener {
     /**
      * This method is called when a step is detected. It updates the current step count,
      * notifies all listeners that a step has occurred and also notifies all listeners
-     * of the current step count.
+     * of the current step count. The step is also added to the batch delivered to step
+     * batch listeners at the end of the detection pass.
      */
     private void onStepDetected(long timestamp, float[] values){
         stepCount++;
@@ -123,27 +295,53 @@ public class StepDetector implements SensorEventListener {
             stepListener.onStepDetected(timestamp, values);
             stepListener.onStepCountUpdated(stepCount);
         }
+        if (!mStepBatchListeners.isEmpty()) {
+            mStepBatch.add(timestamp, values, stepCount);
+        }
     }
 
-    private void detectSteps(List<AccelerometerBuffer> buffers, double threshold) {
-        // Check for new step using upward crossing algorithm
-        for (int i = 1; i < buffers.size(); i++) {
-            if (buffers.get(i).value > buffers.get(i - 1).value
-                    && buffers.get(i-1).value <= threshold
-                    && buffers.get(i).value >= threshold)
-                onStepDetected(buffers.get(i).timestamp, buffers.get(i).vector);
+    /**
+     * Checks whether the newest sample completes an upward crossing of the midpoint
+     * threshold over the sliding window, so a step is reported as soon as it occurs.
+     */
+    private void detectStepStreaming() {
+        int newest = mBuffer.size() - 1;
+        if (newest < 1) {
+            return;
+        }
+        float min = mBuffer.getMinMagnitude();
+        float max = mBuffer.getMaxMagnitude();
+        if (max - min <= DELTA_THRESHOLD) {
+            return;
+        }
+        double threshold = (max + min) / 2;
+        float previous = mBuffer.getMagnitude(newest - 1);
+        float current = mBuffer.getMagnitude(newest);
+        long timestamp = mBuffer.getTimestamp(newest);
+        if (current > previous
+                && previous <= threshold
+                && current >= threshold
+                && (mLastStepTimestamp == Long.MIN_VALUE || timestamp - mLastStepTimestamp >= MIN_STEP_INTERVAL)) {
+            mLastStepTimestamp = timestamp;
+            float[] values = new float[3];
+            mBuffer.copyVector(newest, values);
+            onStepDetected(timestamp, values);
         }
     }
 
-
-    private float[] convertDoublesToFloats(double[] input) {
-        if (input == null) {
-            return null;
-        }
-        float[] output = new float[input.length];
-        for (int i = 0; i < input.length; i++) {
-            output[i] = (float) input[i];
+    private void detectSteps(double threshold) {
+        // Check for new step using upward crossing algorithm
+        for (int i = 1; i < mBuffer.size(); i++) {
+            float previous = mBuffer.getMagnitude(i - 1);
+            float current = mBuffer.getMagnitude(i);
+            if (current > previous
+                    && previous <= threshold
+                    && current >= threshold) {
+                // listeners may hold on to the values, so each step gets its own copy
+                float[] values = new float[3];
+                mBuffer.copyVector(i, values);
+                onStepDetected(mBuffer.getTimestamp(i), values);
+            }
         }
-        return output;
     }
 }
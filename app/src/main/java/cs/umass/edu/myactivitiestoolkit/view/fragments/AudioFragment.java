@@ -8,7 +8,6 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.pm.PackageManager;
-import android.graphics.Bitmap;
 import android.os.Build;
 import android.os.Bundle;
 import android.support.annotation.NonNull;
@@ -17,11 +16,13 @@ import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.CompoundButton;
-import android.widget.ImageView;
+import android.widget.EditText;
 import android.widget.Switch;
 import android.widget.Toast;
+import android.widget.ToggleButton;
 
 import cs.umass.edu.myactivitiestoolkit.R;
+import cs.umass.edu.myactivitiestoolkit.audio.SpectrogramView;
 import cs.umass.edu.myactivitiestoolkit.constants.Constants;
 import cs.umass.edu.myactivitiestoolkit.services.AudioService;
 import cs.umass.edu.myactivitiestoolkit.services.AccelerometerService;
@@ -32,9 +33,14 @@ import cs.umass.edu.myactivitiestoolkit.util.PermissionsUtil;
 /**
  * Fragment used for interacting with the {@link AudioService}. We have already set up
  * the permissions request for you. We also display the spectrogram of the incoming audio
- * buffer as a heat map on an image view. You should update the UI to display the current
+ * as a scrolling heat map on a {@link SpectrogramView}. You should update the UI to display the current
  * speaker. You must set up the fragment to listen for speaker identification messages that
  * you send from the audio service. You may make any other UI changes as you please.
+ * <br><br>
+ *
+ * While the microphone is on, a speaker can be enrolled for on-device identification by
+ * entering their name and pressing the enroll button before they speak, then again once
+ * they are done.
  *
  * @author CS390MB
  *
@@ -49,12 +55,18 @@ public class AudioFragment extends Fragment {
     /** Request code required for obtaining audio recording permission. **/
     private static final int AUDIO_PERMISSION_REQUEST_CODE = 5;
 
-    /** The image displaying the audio spectrogram. **/
-    private ImageView imgSpectrogram;
+    /** The view displaying the audio spectrogram. **/
+    private SpectrogramView spectrogramView;
 
     /** The switch which toggles the {@link AudioService}. **/
     private Switch switchRecord;
 
+    /** The name of the speaker to enroll. **/
+    private EditText txtSpeakerName;
+
+    /** The button which starts and finishes enrolling a speaker, enabled while recording. **/
+    private ToggleButton btnEnrollSpeaker;
+
     /** Reference to the service manager which communicates to the {@link PPGService}. **/
     private ServiceManager serviceManager;
 
@@ -69,12 +81,18 @@ public class AudioFragment extends Fragment {
             if (intent.getAction() != null) {
                 if (intent.getAction().equals(Constants.ACTION.BROADCAST_MESSAGE)) {
                     int message = intent.getIntExtra(Constants.KEY.MESSAGE, -1);
-                    if (message == Constants.MESSAGE.AUDIO_SERVICE_STOPPED){
+                    if (message == Constants.MESSAGE.AUDIO_SERVICE_STARTED){
+                        btnEnrollSpeaker.setEnabled(true);
+                    } else if (message == Constants.MESSAGE.AUDIO_SERVICE_STOPPED){
                         switchRecord.setChecked(false);
+                        //the service discards the enrollment in progress when it stops
+                        txtSpeakerName.setEnabled(true);
+                        btnEnrollSpeaker.setChecked(false);
+                        btnEnrollSpeaker.setEnabled(false);
                     }
                 } else if (intent.getAction().equals(Constants.ACTION.BROADCAST_SPECTROGRAM)){
                     double[][] spectrogram = (double[][]) intent.getSerializableExtra(Constants.KEY.SPECTROGRAM);
-                    updateSpectrogram(spectrogram);
+                    spectrogramView.addColumns(spectrogram, spectrogram.length);
                 }
             }
         }
@@ -102,10 +120,42 @@ public class AudioFragment extends Fragment {
                 }
             }
         });
-        imgSpectrogram = (ImageView) rootView.findViewById(R.id.imgSpectrogram);
+        txtSpeakerName = (EditText) rootView.findViewById(R.id.txtSpeakerName);
+        btnEnrollSpeaker = (ToggleButton) rootView.findViewById(R.id.btnEnrollSpeaker);
+        btnEnrollSpeaker.setEnabled(switchRecord.isChecked());
+        btnEnrollSpeaker.setOnCheckedChangeListener(new CompoundButton.OnCheckedChangeListener() {
+            @Override
+            public void onCheckedChanged(CompoundButton compoundButton, boolean enrolling) {
+                String speaker = txtSpeakerName.getText().toString().trim();
+                if (enrolling && speaker.isEmpty()) {
+                    Toast.makeText(getActivity(), "Enter the name of the speaker first.", Toast.LENGTH_SHORT).show();
+                    compoundButton.setChecked(false);
+                    return;
+                }
+                if (!enrolling && txtSpeakerName.isEnabled()) {
+                    return; //no enrollment was started
+                }
+                txtSpeakerName.setEnabled(!enrolling);
+                enrollSpeaker(speaker, enrolling);
+            }
+        });
+        spectrogramView = (SpectrogramView) rootView.findViewById(R.id.spectrogram);
         return rootView;
     }
 
+    /**
+     * Starts or finishes enrolling a speaker in the {@link AudioService}.
+     * @param speaker the name of the speaker
+     * @param enrolling true when the speaker starts speaking, false when they are done
+     */
+    private void enrollSpeaker(String speaker, boolean enrolling) {
+        Intent intent = new Intent(getActivity(), AudioService.class);
+        intent.setAction(Constants.ACTION.ENROLL_SPEAKER);
+        intent.putExtra(Constants.KEY.SPEAKER, speaker);
+        intent.putExtra(Constants.KEY.IS_ENROLLING, enrolling);
+        getActivity().startService(intent);
+    }
+
     /**
      * When the fragment starts, register a {@link #receiver} to receive messages from the
      * {@link AudioService}. The intent filter defines messages we are interested in receiving.
@@ -198,53 +248,4 @@ public class AudioFragment extends Fragment {
             }
         }
     }
-
-    /**
-     * Converts the spectrogram values into a heat map and projects the pixels onto a bitmap.
-     * @param spectrogram the spectrogram values as a 2D array.
-     */
-    private void updateSpectrogram(double[][] spectrogram){
-        int width = spectrogram.length;
-        int height = spectrogram[0].length;
-
-        int[] rgbValues = new int[width * height];
-
-        double max = 0, min = 0;
-        for (int j = 0; j < height; j++) {
-            for (double[] row : spectrogram) {
-                if (row[j] > max) {
-                    max = row[j];
-                }
-                if (row[j] < min) {
-                    min = row[j];
-                }
-            }
-        }
-        int counter = 0;
-        for (int j = 0; j < height/2; j++) {
-            for (double[] row : spectrogram) {
-                rgbValues[counter++] = heatMap(min, max, row[j]);
-            }
-        }
-
-        Bitmap bitmap = Bitmap.createBitmap(rgbValues, width, height, Bitmap.Config.ARGB_8888);
-        imgSpectrogram.setImageBitmap(bitmap);
-    }
-
-    /**
-     * Converts the value to a corresponding heat map color
-     * @param minimum the minimum bound on the value
-     * @param maximum the maximum bound on the value
-     * @param value the value, within the range [minimum, maximum]
-     * @return an RGB color identifier
-     *
-     * @see <a href="http://stackoverflow.com/questions/20792445/calculate-rgb-value-for-a-range-of-values-to-create-heat-map">Aldorado's answer.</a>
-     */
-    private int heatMap(double minimum, double maximum, double value) {
-        double ratio = 2 * (value - minimum) / (maximum - minimum);
-        int b = (int) Math.max(0, 255 * (1 - ratio));
-        int r = (int) Math.max(0, 255 * (ratio - 1));
-        int g = 255 - b - r;
-        return (r<<16|g<<8|b|255<<24);
-    }
 }
\ No newline at end of file
@@ -47,6 +47,7 @@ import cs.umass.edu.myactivitiestoolkit.constants.Constants;
 import cs.umass.edu.myactivitiestoolkit.services.AccelerometerService;
 import cs.umass.edu.myactivitiestoolkit.services.ServiceManager;
 import cs.umass.edu.myactivitiestoolkit.services.msband.BandService;
+import cs.umass.edu.myactivitiestoolkit.steps.GaitAnalyzer;
 
 /**
  * Fragment which visualizes the 3-axis accelerometer signal, displays the step count estimates and
@@ -108,6 +109,9 @@ public class ExerciseFragment extends Fragment {
     /** Displays the calories burned computed by algorithm. **/
     private TextView txtCalories;
 
+    /** Displays the cadence and gait regularity over the last minute. **/
+    private TextView txtGait;
+
     /***/
     private Long initial_timestamp;
 
@@ -205,25 +209,21 @@ public class ExerciseFragment extends Fragment {
                     timestamp = intent.getLongExtra(Constants.KEY.TIMESTAMP, -1);
                     float[] accelerometerValues = intent.getFloatArrayExtra(Constants.KEY.ACCELEROMETER_DATA);
                     displayAccelerometerReading(accelerometerValues[0], accelerometerValues[1], accelerometerValues[2]);
-
-                    mTimestamps.add(timestamp);
-                    mXValues.add(accelerometerValues[0]);
-                    mYValues.add(accelerometerValues[1]);
-                    mZValues.add(accelerometerValues[2]);
-                    if (mNumberOfPoints >= GRAPH_CAPACITY) {
-                        mTimestamps.poll();
-                        mXValues.poll();
-                        mYValues.poll();
-                        mZValues.poll();
-                        while (mPeakTimestamps.size() > 0 && (mPeakTimestamps.peek().longValue() < mTimestamps.peek().longValue())){
-                            mPeakTimestamps.poll();
-                            mPeakValues.poll();
+                    addAccelerometerReading(timestamp, accelerometerValues, 0);
+                    updatePlot();
+                } else if (intent.getAction().equals(Constants.ACTION.BROADCAST_ACCELEROMETER_BATCH)) {
+                    long[] timestamps = intent.getLongArrayExtra(Constants.KEY.ACCELEROMETER_TIMESTAMPS);
+                    float[] accelerometerValues = intent.getFloatArrayExtra(Constants.KEY.ACCELEROMETER_DATA);
+                    if (timestamps != null && accelerometerValues != null && timestamps.length > 0) {
+                        for (int i = 0; i < timestamps.length; i++) {
+                            addAccelerometerReading(timestamps[i], accelerometerValues, 3 * i);
                         }
+                        int last = 3 * (timestamps.length - 1);
+                        timestamp = timestamps[timestamps.length - 1];
+                        displayAccelerometerReading(accelerometerValues[last], accelerometerValues[last + 1],
+                                accelerometerValues[last + 2]);
+                        updatePlot();
                     }
-                    else
-                        mNumberOfPoints++;
-
-                    updatePlot();
                 } else if (intent.getAction().equals(Constants.ACTION.BROADCAST_ANDROID_STEP_COUNT)) {
                     int stepCount = intent.getIntExtra(Constants.KEY.STEP_COUNT, 0);
                     displayAndroidStepCount(stepCount);
@@ -248,6 +248,20 @@ public class ExerciseFragment extends Fragment {
                         mPeakTimestamps.add(timestamp);
                         mPeakValues.add(values[2]); //place on z-axis signal
                     }
+                } else if (intent.getAction().equals(Constants.ACTION.BROADCAST_STEP_BATCH)) {
+                    int stepCount = intent.getIntExtra(Constants.KEY.STEP_COUNT, 0);
+                    displayLocalStepCount(stepCount);
+                    long[] timestamps = intent.getLongArrayExtra(Constants.KEY.ACCELEROMETER_PEAK_TIMESTAMP);
+                    float[] values = intent.getFloatArrayExtra(Constants.KEY.ACCELEROMETER_PEAK_VALUE);
+                    if (timestamps != null && values != null) {
+                        for (int i = 0; i < timestamps.length; i++) {
+                            mPeakTimestamps.add(timestamps[i]);
+                            mPeakValues.add(values[3 * i + 2]); //place on z-axis signal
+                        }
+                    }
+                    displayGait(intent);
+                } else if (intent.getAction().equals(Constants.ACTION.BROADCAST_GAIT)) {
+                    displayGait(intent);
                 } else if (intent.getAction().equals(Constants.ACTION.BROADCAST_ACTIVITY)) {
                     String activity = intent.getStringExtra(Constants.KEY.ACTIVITY);
                     if (activity != null && txtActivity != null && !activity.equals(txtActivity.getText())) {
@@ -306,6 +320,7 @@ public class ExerciseFragment extends Fragment {
 
 
         txtCalories = (TextView) view.findViewById(R.id.txtCalories);
+        txtGait = (TextView) view.findViewById(R.id.txtGait);
 
 //        SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(getActivity());
 //        Integer calcHeight = Integer.parseInt(preferences.getString(getString(R.string.pref_height_key),
@@ -425,11 +440,14 @@ public class ExerciseFragment extends Fragment {
         IntentFilter filter = new IntentFilter();
         filter.addAction(Constants.ACTION.BROADCAST_MESSAGE);
         filter.addAction(Constants.ACTION.BROADCAST_ACCELEROMETER_DATA);
+        filter.addAction(Constants.ACTION.BROADCAST_ACCELEROMETER_BATCH);
         filter.addAction(Constants.ACTION.BROADCAST_ACCELEROMETER_PEAK);
         filter.addAction(Constants.ACTION.BROADCAST_ANDROID_STEP_COUNT);
         filter.addAction(Constants.ACTION.BROADCAST_LOCAL_STEP_COUNT);
         filter.addAction(Constants.ACTION.BROADCAST_SERVER_STEP_COUNT);
         filter.addAction(Constants.ACTION.BROADCAST_ACTIVITY);
+        filter.addAction(Constants.ACTION.BROADCAST_STEP_BATCH);
+        filter.addAction(Constants.ACTION.BROADCAST_GAIT);
         broadcastManager.registerReceiver(receiver, filter);
 
 //        initial_timestamp = System.currentTimeMillis()/1000;
@@ -543,6 +561,34 @@ public class ExerciseFragment extends Fragment {
         });
     }
 
+    /**
+     * Displays the gait statistics over the medium window from the gait extras of a
+     * step batch or gait broadcast.
+     */
+    private void displayGait(Intent intent) {
+        double[] cadence = intent.getDoubleArrayExtra(Constants.KEY.GAIT_CADENCE);
+        double[] regularity = intent.getDoubleArrayExtra(Constants.KEY.GAIT_REGULARITY);
+        if (cadence != null && regularity != null) {
+            displayGait(cadence[GaitAnalyzer.WINDOW_MEDIUM], regularity[GaitAnalyzer.WINDOW_MEDIUM]);
+        }
+    }
+
+    /**
+     * Displays the cadence and gait regularity.
+     * @param cadence the cadence, in steps per minute
+     * @param regularity the gait regularity, in [0, 1]
+     */
+    private void displayGait(final double cadence, final double regularity) {
+        if (mActivity != null) {
+            mActivity.runOnUiThread(new Runnable() {
+                @Override
+                public void run() {
+                    txtGait.setText(String.format(Locale.getDefault(), getString(R.string.gait_cadence),
+                            cadence, 100 * regularity));
+                }
+            });
+        }
+    }
 
     public long getStride(long speed, int height) {
         if(speed <= 2 && speed > 0) {
@@ -581,6 +627,32 @@ public class ExerciseFragment extends Fragment {
         mNumberOfPoints = 0;
     }
 
+    /**
+     * Adds an accelerometer reading to the plotted series, dropping the oldest reading,
+     * and the peaks before it, once the graph is full. Call {@link #updatePlot()} to redraw.
+     * @param timestamp the time of the reading
+     * @param values holds the x, y and z values of the reading
+     * @param offset index in values of the x value
+     */
+    private void addAccelerometerReading(long timestamp, float[] values, int offset){
+        mTimestamps.add(timestamp);
+        mXValues.add(values[offset]);
+        mYValues.add(values[offset + 1]);
+        mZValues.add(values[offset + 2]);
+        if (mNumberOfPoints >= GRAPH_CAPACITY) {
+            mTimestamps.poll();
+            mXValues.poll();
+            mYValues.poll();
+            mZValues.poll();
+            while (mPeakTimestamps.size() > 0 && (mPeakTimestamps.peek().longValue() < mTimestamps.peek().longValue())){
+                mPeakTimestamps.poll();
+                mPeakValues.poll();
+            }
+        }
+        else
+            mNumberOfPoints++;
+    }
+
     /**
      * Updates and redraws the accelerometer plot, along with the peaks detected.
      */
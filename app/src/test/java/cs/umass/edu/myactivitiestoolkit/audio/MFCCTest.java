@@ -0,0 +1,150 @@
+package cs.umass.edu.myactivitiestoolkit.audio;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import cs.umass.edu.myactivitiestoolkit.processing.FFT;
+import cs.umass.edu.myactivitiestoolkit.processing.FloatFFT;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the single-precision path of {@link StreamingMFCC} against the double-precision
+ * path on the same 16-bit frames: the frame windowed and transformed by a
+ * {@link FloatFFT} and passed to {@link MFCC#cepstrum(float[], float[], double[], double[], int)},
+ * against the frame windowed and transformed by an {@link FFT} and passed to
+ * {@link MFCC#cepstrum(double[], double[], double[], double[], int)}. The error is the
+ * largest difference of any coefficient, relative to the largest coefficient of the
+ * reference.
+ * <br><br>
+ * No audio is recorded in the repository, so the speech frames are synthesized as a
+ * pulse train through formant resonators.
+ */
+public class MFCCTest {
+
+    /** The largest error accepted, well above the ~3e-6 measured. */
+    private static final double MAX_RELATIVE_ERROR = 1e-4;
+
+    /** The parameters of {@link StreamingMFCC}. */
+    private static final int SAMPLE_RATE = 8000;
+    private static final int FRAME_LENGTH = 200;
+    private static final int FFT_SIZE = 256;
+    private static final int NUM_COEFFS = 12;
+    private static final int MEL_BANDS = 20;
+
+    private final WindowFunction window = WindowFunction.get(WindowFunction.Type.HAMMING, FRAME_LENGTH);
+    private final MFCC mfcc = new MFCC(FFT_SIZE, NUM_COEFFS, MEL_BANDS, SAMPLE_RATE);
+    private final FFT fft = new FFT(FFT_SIZE);
+    private final FloatFFT floatFFT = new FloatFFT(FFT_SIZE);
+
+    @Test
+    public void speechFrames() {
+        // vowels of a male and a female voice: pitch, then the first three formants
+        double[][] voices = {
+                {120, 730, 1090, 2440},
+                {120, 270, 2290, 3010},
+                {220, 850, 1220, 2810},
+                {220, 310, 2790, 3310}
+        };
+        for (double[] voice : voices) {
+            short[] signal = speech(voice[0], new double[]{voice[1], voice[2], voice[3]}, 4 * FRAME_LENGTH);
+            for (int offset = 0; offset + FRAME_LENGTH <= signal.length; offset += FRAME_LENGTH / 2) {
+                assertAccurate("speech at " + voice[0] + " Hz, offset " + offset, signal, offset);
+            }
+        }
+    }
+
+    @Test
+    public void toneFrames() {
+        short[] signal = new short[FRAME_LENGTH];
+        for (int i = 0; i < signal.length; i++) {
+            signal[i] = (short) Math.round(12000 * Math.sin(2 * Math.PI * 440 * i / SAMPLE_RATE)
+                    + 6000 * Math.sin(2 * Math.PI * 1870 * i / SAMPLE_RATE));
+        }
+        assertAccurate("tones", signal, 0);
+    }
+
+    @Test
+    public void noiseFrames() {
+        Random random = new Random(FRAME_LENGTH);
+        short[] signal = new short[FRAME_LENGTH];
+        for (int amplitude = 1; amplitude <= 1 << 15; amplitude <<= 3) {
+            for (int i = 0; i < signal.length; i++) {
+                signal[i] = (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE,
+                        random.nextInt(2 * amplitude + 1) - amplitude));
+            }
+            assertAccurate("noise of amplitude " + amplitude, signal, 0);
+        }
+    }
+
+    @Test
+    public void fullScaleFrames() {
+        short[] signal = new short[FRAME_LENGTH];
+        for (int i = 0; i < signal.length; i++) {
+            signal[i] = (i / 4 & 1) == 0 ? Short.MAX_VALUE : Short.MIN_VALUE;
+        }
+        assertAccurate("full scale", signal, 0);
+    }
+
+    private void assertAccurate(String message, short[] signal, int offset) {
+        double[] re = new double[FFT_SIZE];
+        double[] im = new double[FFT_SIZE / 2 + 1];
+        double[] ceps = new double[NUM_COEFFS];
+        window.copyWindowed(signal, offset, re, FFT_SIZE);
+        fft.realForward(re, re, im);
+        mfcc.cepstrum(re, im, new double[MEL_BANDS], ceps, 0);
+
+        float[] floatRe = new float[FFT_SIZE];
+        float[] floatIm = new float[FFT_SIZE / 2 + 1];
+        double[] floatCeps = new double[NUM_COEFFS];
+        window.copyWindowed(signal, offset, floatRe, FFT_SIZE);
+        floatFFT.realForward(floatRe, floatRe, floatIm);
+        mfcc.cepstrum(floatRe, floatIm, new double[MEL_BANDS], floatCeps, 0);
+
+        double peak = 0;
+        double error = 0;
+        for (int i = 0; i < NUM_COEFFS; i++) {
+            peak = Math.max(peak, Math.abs(ceps[i]));
+            error = Math.max(error, Math.abs(floatCeps[i] - ceps[i]));
+        }
+        double relativeError = error / peak;
+        assertTrue(message + ": relative error " + relativeError, relativeError < MAX_RELATIVE_ERROR);
+    }
+
+    /**
+     * Synthesizes a vowel: a train of glottal pulses at the given pitch, through a
+     * two-pole resonator at each formant, normalized to half of full scale.
+     */
+    private static short[] speech(double pitch, double[] formants, int length) {
+        double[] x = new double[length];
+        double period = SAMPLE_RATE / pitch;
+        for (int i = 0; i < length; i++) {
+            // a pulse decaying over a fraction of the period, as the glottis closes
+            double phase = (i % period) / period;
+            x[i] = phase < 0.4 ? Math.sin(Math.PI * phase / 0.4) : 0;
+        }
+        for (double formant : formants) {
+            double bandwidth = 80 + 0.05 * formant;
+            double r = Math.exp(-Math.PI * bandwidth / SAMPLE_RATE);
+            double a1 = -2 * r * Math.cos(2 * Math.PI * formant / SAMPLE_RATE);
+            double a2 = r * r;
+            double y1 = 0, y2 = 0;
+            for (int i = 0; i < length; i++) {
+                double y = x[i] - a1 * y1 - a2 * y2;
+                y2 = y1;
+                y1 = y;
+                x[i] = y;
+            }
+        }
+        double peak = 0;
+        for (double v : x) {
+            peak = Math.max(peak, Math.abs(v));
+        }
+        short[] signal = new short[length];
+        for (int i = 0; i < length; i++) {
+            signal[i] = (short) Math.round(x[i] / peak * Short.MAX_VALUE / 2);
+        }
+        return signal;
+    }
+}
@@ -0,0 +1,289 @@
+package cs.umass.edu.myactivitiestoolkit.audio;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Parallel versions of the {@link Matrix} operations used in batch feature extraction,
+ * e.g. offline over hours of recorded audio, where matrices have thousands of rows.
+ * <br><br>
+ * Each operation splits the rows of its result across a {@link ForkJoinPool}, halving
+ * the range until it holds at most about {@link #GRAIN} elements of work. Matrices
+ * smaller than {@link #PARALLEL_THRESHOLD} elements of work are handed to the
+ * sequential {@link Matrix} method instead, since forking would cost more than it saves.
+ * <br><br>
+ * Every element of a result is computed by one task, with the same operations in the
+ * same order as the sequential method, so results are bit-identical to it whatever the
+ * parallelism. For that reason there is no parallel {@link Matrix#normF()}, which chains
+ * {@link Math#hypot(double, double)} through all elements in order.
+ * <br><br>
+ * The class is offline tooling: it lives in the unit test sources, next to the replay
+ * harness and the benchmarks, and runs on a plain JVM. It is not packaged into the app,
+ * which supports devices older than {@link ForkJoinPool} (API 21) and does no batch work.
+ *
+ * @see Matrix
+ * @see cs.umass.edu.myactivitiestoolkit.benchmark.ParallelMatrixOpsBenchmark
+ */
+public class ParallelMatrixOps {
+
+    /** The work, in multiply-adds or elements, below which operations run sequentially. */
+    public static final long PARALLEL_THRESHOLD = 1 << 16;
+
+    /** The work, in multiply-adds or elements, below which a range of rows is not split. */
+    private static final long GRAIN = 1 << 14;
+
+    private static ForkJoinPool defaultPool;
+
+    private ParallelMatrixOps() {
+    }
+
+    /**
+     * @return a pool with one thread per available processor, shared by the methods
+     * which do not take a pool.
+     */
+    public static synchronized ForkJoinPool getDefaultPool() {
+        if (defaultPool == null) {
+            defaultPool = new ForkJoinPool();
+        }
+        return defaultPool;
+    }
+
+    /**
+     * Processes a range of rows of a result.
+     */
+    private interface RowKernel {
+        void compute(int fromRow, int toRow);
+    }
+
+    private static class RowTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final RowKernel kernel;
+
+        private final int fromRow, toRow;
+
+        private final int rowsPerTask;
+
+        RowTask(RowKernel kernel, int fromRow, int toRow, int rowsPerTask) {
+            this.kernel = kernel;
+            this.fromRow = fromRow;
+            this.toRow = toRow;
+            this.rowsPerTask = rowsPerTask;
+        }
+
+        @Override
+        protected void compute() {
+            if (toRow - fromRow <= rowsPerTask) {
+                kernel.compute(fromRow, toRow);
+                return;
+            }
+            int middle = (fromRow + toRow) >>> 1;
+            invokeAll(new RowTask(kernel, fromRow, middle, rowsPerTask),
+                    new RowTask(kernel, middle, toRow, rowsPerTask));
+        }
+    }
+
+    private static void forEachRows(ForkJoinPool pool, int rows, long workPerRow, RowKernel kernel) {
+        int rowsPerTask = (int) Math.max(1, GRAIN / Math.max(1, workPerRow));
+        pool.invoke(new RowTask(kernel, 0, rows, rowsPerTask));
+    }
+
+    /**
+     * @see #times(Matrix, Matrix, ForkJoinPool)
+     */
+    public static Matrix times(Matrix A, Matrix B) {
+        return times(A, B, getDefaultPool());
+    }
+
+    /**
+     * Computes A * B like {@link Matrix#times(Matrix)}.
+     * @throws IllegalArgumentException if the inner dimensions do not agree.
+     */
+    public static Matrix times(Matrix A, Matrix B, ForkJoinPool pool) {
+        final int m = A.getRowDimension();
+        final int n = A.getColumnDimension();
+        final int p = B.getColumnDimension();
+        if (B.getRowDimension() != n) {
+            throw new IllegalArgumentException("Matrix inner dimensions must agree.");
+        }
+        if ((long) m * n * p < PARALLEL_THRESHOLD) {
+            return A.times(B);
+        }
+        // the columns of B as rows, read by every task instead of copying a column per task
+        final double[][] Bt = transpose(B, pool).getArray();
+        final double[][] a = A.getArray();
+        final Matrix X = new Matrix(m, p);
+        final double[][] C = X.getArray();
+        forEachRows(pool, m, (long) n * p, new RowKernel() {
+            @Override
+            public void compute(int fromRow, int toRow) {
+                for (int i = fromRow; i < toRow; i++) {
+                    double[] Arowi = a[i];
+                    double[] Crowi = C[i];
+                    for (int j = 0; j < p; j++) {
+                        double[] Bcolj = Bt[j];
+                        double s = 0;
+                        for (int k = 0; k < n; k++) {
+                            s += Arowi[k] * Bcolj[k];
+                        }
+                        Crowi[j] = s;
+                    }
+                }
+            }
+        });
+        return X;
+    }
+
+    /**
+     * @see #transpose(Matrix, ForkJoinPool)
+     */
+    public static Matrix transpose(Matrix A) {
+        return transpose(A, getDefaultPool());
+    }
+
+    /**
+     * Computes the transpose of A like {@link Matrix#transpose()}.
+     */
+    public static Matrix transpose(Matrix A, ForkJoinPool pool) {
+        final int m = A.getRowDimension();
+        final int n = A.getColumnDimension();
+        if ((long) m * n < PARALLEL_THRESHOLD) {
+            return A.transpose();
+        }
+        final double[][] a = A.getArray();
+        final Matrix X = new Matrix(n, m);
+        final double[][] C = X.getArray();
+        forEachRows(pool, n, m, new RowKernel() {
+            @Override
+            public void compute(int fromRow, int toRow) {
+                for (int i = 0; i < m; i++) {
+                    double[] Arowi = a[i];
+                    for (int j = fromRow; j < toRow; j++) {
+                        C[j][i] = Arowi[j];
+                    }
+                }
+            }
+        });
+        return X;
+    }
+
+    /**
+     * @see #arrayTimes(Matrix, Matrix, ForkJoinPool)
+     */
+    public static Matrix arrayTimes(Matrix A, Matrix B) {
+        return arrayTimes(A, B, getDefaultPool());
+    }
+
+    /**
+     * Computes the element-by-element product of A and B like {@link Matrix#arrayTimes(Matrix)}.
+     * @throws IllegalArgumentException if the dimensions do not agree.
+     */
+    public static Matrix arrayTimes(Matrix A, Matrix B, ForkJoinPool pool) {
+        final int m = A.getRowDimension();
+        final int n = A.getColumnDimension();
+        if (B.getRowDimension() != m || B.getColumnDimension() != n) {
+            throw new IllegalArgumentException("Matrix dimensions must agree.");
+        }
+        if ((long) m * n < PARALLEL_THRESHOLD) {
+            return A.arrayTimes(B);
+        }
+        final double[][] a = A.getArray();
+        final double[][] b = B.getArray();
+        final Matrix X = new Matrix(m, n);
+        final double[][] C = X.getArray();
+        forEachRows(pool, m, n, new RowKernel() {
+            @Override
+            public void compute(int fromRow, int toRow) {
+                for (int i = fromRow; i < toRow; i++) {
+                    double[] Arowi = a[i];
+                    double[] Browi = b[i];
+                    double[] Crowi = C[i];
+                    for (int j = 0; j < n; j++) {
+                        Crowi[j] = Arowi[j] * Browi[j];
+                    }
+                }
+            }
+        });
+        return X;
+    }
+
+    /**
+     * @see #norm1(Matrix, ForkJoinPool)
+     */
+    public static double norm1(Matrix A) {
+        return norm1(A, getDefaultPool());
+    }
+
+    /**
+     * Computes the maximum column sum of A like {@link Matrix#norm1()}. The columns are
+     * split across tasks, each column summed down its rows in order.
+     */
+    public static double norm1(Matrix A, ForkJoinPool pool) {
+        final int m = A.getRowDimension();
+        final int n = A.getColumnDimension();
+        if ((long) m * n < PARALLEL_THRESHOLD) {
+            return A.norm1();
+        }
+        final double[][] a = A.getArray();
+        final double[] sums = new double[n];
+        // the "rows" split here are the columns of A
+        forEachRows(pool, n, m, new RowKernel() {
+            @Override
+            public void compute(int fromColumn, int toColumn) {
+                for (int i = 0; i < m; i++) {
+                    double[] Arowi = a[i];
+                    for (int j = fromColumn; j < toColumn; j++) {
+                        sums[j] += Math.abs(Arowi[j]);
+                    }
+                }
+            }
+        });
+        return max(sums);
+    }
+
+    /**
+     * @see #normInf(Matrix, ForkJoinPool)
+     */
+    public static double normInf(Matrix A) {
+        return normInf(A, getDefaultPool());
+    }
+
+    /**
+     * Computes the maximum row sum of A like {@link Matrix#normInf()}.
+     */
+    public static double normInf(Matrix A, ForkJoinPool pool) {
+        final int m = A.getRowDimension();
+        final int n = A.getColumnDimension();
+        if ((long) m * n < PARALLEL_THRESHOLD) {
+            return A.normInf();
+        }
+        final double[][] a = A.getArray();
+        final double[] sums = new double[m];
+        forEachRows(pool, m, n, new RowKernel() {
+            @Override
+            public void compute(int fromRow, int toRow) {
+                for (int i = fromRow; i < toRow; i++) {
+                    double[] Arowi = a[i];
+                    double s = 0;
+                    for (int j = 0; j < n; j++) {
+                        s += Math.abs(Arowi[j]);
+                    }
+                    sums[i] = s;
+                }
+            }
+        });
+        return max(sums);
+    }
+
+    /**
+     * @return the maximum of the sums and 0, taken in order like the sequential norms.
+     */
+    private static double max(double[] sums) {
+        double f = 0;
+        for (double s : sums) {
+            f = Math.max(f, s);
+        }
+        return f;
+    }
+}
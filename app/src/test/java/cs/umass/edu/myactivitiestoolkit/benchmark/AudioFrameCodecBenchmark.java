@@ -0,0 +1,140 @@
+package cs.umass.edu.myactivitiestoolkit.benchmark;
+
+import java.util.Locale;
+import java.util.Random;
+
+import cs.umass.edu.myactivitiestoolkit.audio.AudioFrameCodec;
+import cs.umass.edu.myactivitiestoolkit.audio.AudioFrameCodec.Codec;
+
+/**
+ * Measures the size and the encoding and decoding throughput of each
+ * {@link AudioFrameCodec} codec on one-second buffers of synthetic voiced audio, against
+ * the JSON array of samples sent by
+ * {@link cs.umass.edu.myactivitiestoolkit.audio.AudioBufferReading}. The JSON array is
+ * formatted as JSONArray formats it, since org.json is only a stub off the device, and
+ * the base-64 size of each frame, as carried by
+ * {@link cs.umass.edu.myactivitiestoolkit.audio.BinaryAudioReading}, is computed rather
+ * than encoded for the same reason.
+ * <br><br>
+ * Reported per codec: bytes per second of audio, the compression against raw PCM and
+ * against the JSON array, the time to encode and decode one second, and whether the
+ * codec is lossless or else its signal-to-noise ratio.
+ * <br><br>
+ * Usage: AudioFrameCodecBenchmark [seconds]
+ */
+public class AudioFrameCodecBenchmark {
+
+    private static final int SAMPLE_RATE = 8000;
+
+    /** The size of a second of raw 16-bit PCM, in bytes. */
+    private static final int PCM_BYTES = 2 * SAMPLE_RATE;
+
+    /**
+     * Synthesizes speech-like audio: a harmonic series on a drifting pitch, voiced for
+     * two thirds of each second, over background noise.
+     */
+    private static short[] synthesize(int seconds) {
+        Random random = new Random(seconds);
+        short[] samples = new short[seconds * SAMPLE_RATE];
+        for (int i = 0; i < samples.length; i++) {
+            double t = (double) i / SAMPLE_RATE;
+            boolean voiced = ((int) (t * 3)) % 3 != 2;
+            double pitch = 120 + 30 * Math.sin(2 * t);
+            double value = 40 * random.nextGaussian();
+            if (voiced) {
+                for (int h = 1; h <= 15; h++) {
+                    value += 3000.0 / h * (1 + 0.5 * Math.sin(7 * t * h)) * Math.sin(2 * Math.PI * pitch * h * t);
+                }
+            }
+            samples[i] = (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, Math.round(value)));
+        }
+        return samples;
+    }
+
+    /** @return the length of the samples formatted as a JSON array. */
+    private static int formatJSON(short[] samples, int offset, int length, StringBuilder json) {
+        json.setLength(0);
+        json.append('[');
+        for (int i = 0; i < length; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append(samples[offset + i]);
+        }
+        json.append(']');
+        return json.length();
+    }
+
+    private static int base64Size(int bytes) {
+        return (bytes + 2) / 3 * 4;
+    }
+
+    public static void main(String[] args) {
+        final int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+        final short[] samples = synthesize(seconds);
+        System.out.printf(Locale.US, "%d s of audio at %d Hz, best of %d runs, per second of audio%n",
+                seconds, SAMPLE_RATE, Benchmarks.RUNS);
+
+        final StringBuilder json = new StringBuilder();
+        long jsonBytes = 0;
+        for (int s = 0; s < seconds; s++) {
+            jsonBytes += formatJSON(samples, s * SAMPLE_RATE, SAMPLE_RATE, json);
+        }
+        final double jsonPerSecond = (double) jsonBytes / seconds;
+        long jsonTime = Benchmarks.bestOf(new Runnable() {
+            @Override
+            public void run() {
+                for (int s = 0; s < seconds; s++) {
+                    formatJSON(samples, s * SAMPLE_RATE, SAMPLE_RATE, json);
+                }
+            }
+        });
+        System.out.printf(Locale.US, "%-12s %6.0f B   %5.2fx PCM %27s format %.3f ms%n",
+                "JSON array", jsonPerSecond, jsonPerSecond / PCM_BYTES, "", jsonTime / 1e6 / seconds);
+
+        for (final Codec codec : Codec.values()) {
+            final byte[][] frames = new byte[seconds][];
+            long frameBytes = 0;
+            long base64Bytes = 0;
+            double signal = 0;
+            double noise = 0;
+            for (int s = 0; s < seconds; s++) {
+                frames[s] = AudioFrameCodec.encode(samples, s * SAMPLE_RATE, SAMPLE_RATE, SAMPLE_RATE, codec);
+                frameBytes += frames[s].length;
+                base64Bytes += base64Size(frames[s].length);
+                short[] decoded = AudioFrameCodec.decode(frames[s]).getSamples();
+                for (int i = 0; i < SAMPLE_RATE; i++) {
+                    double sample = samples[s * SAMPLE_RATE + i];
+                    signal += sample * sample;
+                    noise += (decoded[i] - sample) * (decoded[i] - sample);
+                }
+            }
+
+            final byte[] out = new byte[AudioFrameCodec.getMaxFrameSize(SAMPLE_RATE, codec)];
+            long encodeTime = Benchmarks.bestOf(new Runnable() {
+                @Override
+                public void run() {
+                    for (int s = 0; s < seconds; s++) {
+                        AudioFrameCodec.encode(samples, s * SAMPLE_RATE, SAMPLE_RATE, SAMPLE_RATE, codec, out, 0);
+                    }
+                }
+            });
+            long decodeTime = Benchmarks.bestOf(new Runnable() {
+                @Override
+                public void run() {
+                    for (int s = 0; s < seconds; s++) {
+                        AudioFrameCodec.decode(frames[s]);
+                    }
+                }
+            });
+
+            double perSecond = (double) frameBytes / seconds;
+            double base64PerSecond = (double) base64Bytes / seconds;
+            System.out.printf(Locale.US,
+                    "%-12s %6.0f B   %5.2fx PCM  base64 %6.0f B %5.1fx < JSON  encode %.3f ms  decode %.3f ms  %s%n",
+                    codec, perSecond, perSecond / PCM_BYTES, base64PerSecond, jsonPerSecond / base64PerSecond,
+                    encodeTime / 1e6 / seconds, decodeTime / 1e6 / seconds,
+                    noise == 0 ? "lossless" : String.format(Locale.US, "SNR %.1f dB", 10 * Math.log10(signal / noise)));
+        }
+    }
+}
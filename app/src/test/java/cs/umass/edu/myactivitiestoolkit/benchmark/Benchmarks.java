@@ -0,0 +1,104 @@
+package cs.umass.edu.myactivitiestoolkit.benchmark;
+
+import java.lang.reflect.Method;
+
+/**
+ * Timing and allocation helpers shared by the JVM benchmarks. Like the replay harness,
+ * the benchmarks are part of the unit test sources and run on a plain JVM; once the
+ * test classes are built, e.g. by {@code ./gradlew testDebugUnitTest}, run one with
+ *
+ * <pre>
+ * java -cp app/build/intermediates/classes/test/debug:app/build/intermediates/classes/debug:$ANDROID_HOME/platforms/android-24/android.jar \
+ *      cs.umass.edu.myactivitiestoolkit.benchmark.StepDetectorBenchmark
+ * </pre>
+ *
+ * Each case is timed several times and the fastest run is reported, which is the most
+ * repeatable figure on a machine doing other work. The JVM is not ART, so the figures
+ * compare implementations against each other rather than predict on-device times;
+ * running with {@code -XX:-DoEscapeAnalysis} approximates ART, which does not remove
+ * short-lived allocations.
+ */
+public final class Benchmarks {
+
+    /** The number of timed runs of each case, after one untimed warm-up run. */
+    public static final int RUNS = 7;
+
+    /**
+     * The thread allocation counter of HotSpot, looked up by reflection since the unit
+     * tests compile against the Android library, which has no java.lang.management.
+     */
+    private static final Object THREADS;
+    private static final Method GET_ALLOCATED_BYTES;
+
+    /** The bytes allocated by reading the counter, subtracted from each measurement. */
+    private static final long OVERHEAD;
+
+    static {
+        Object threads = null;
+        Method getAllocatedBytes = null;
+        try {
+            threads = Class.forName("java.lang.management.ManagementFactory").getMethod("getThreadMXBean").invoke(null);
+            getAllocatedBytes = Class.forName("com.sun.management.ThreadMXBean").getMethod("getThreadAllocatedBytes", long.class);
+            if (!getAllocatedBytes.getDeclaringClass().isInstance(threads)) {
+                getAllocatedBytes = null;
+            }
+        } catch (Exception e) {
+            // not a HotSpot JVM; allocations are not reported
+        }
+        THREADS = threads;
+        GET_ALLOCATED_BYTES = getAllocatedBytes;
+        // past the point where the JVM generates an accessor for the reflective call,
+        // which would otherwise be counted against the first case measured after it
+        for (int i = 0; i < 100; i++) {
+            allocatedBytes();
+        }
+        long before = allocatedBytes();
+        OVERHEAD = allocatedBytes() - before;
+    }
+
+    private Benchmarks() {
+    }
+
+    /**
+     * Runs a case once to warm it up, then {@link #RUNS} more times.
+     * @param task the case to run.
+     * @return the time of the fastest run, in nanoseconds.
+     */
+    public static long bestOf(Runnable task) {
+        task.run();
+        long best = Long.MAX_VALUE;
+        for (int run = 0; run < RUNS; run++) {
+            long start = System.nanoTime();
+            task.run();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best;
+    }
+
+    /**
+     * @return the number of bytes allocated by the current thread so far, or -1 if the
+     * JVM does not report it.
+     */
+    public static long allocatedBytes() {
+        if (GET_ALLOCATED_BYTES == null) {
+            return -1;
+        }
+        try {
+            return (Long) GET_ALLOCATED_BYTES.invoke(THREADS, Thread.currentThread().getId());
+        } catch (Exception e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Runs a case once and measures what it allocates.
+     * @param task the case to run.
+     * @return the number of bytes the case allocated, or -1 if the JVM does not report it.
+     */
+    public static long allocationOf(Runnable task) {
+        long before = allocatedBytes();
+        task.run();
+        long after = allocatedBytes();
+        return before < 0 || after < 0 ? -1 : Math.max(0, after - before - OVERHEAD);
+    }
+}
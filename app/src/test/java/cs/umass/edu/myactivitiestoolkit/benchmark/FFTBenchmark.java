@@ -0,0 +1,261 @@
+package cs.umass.edu.myactivitiestoolkit.benchmark;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+
+import cs.umass.edu.myactivitiestoolkit.processing.FFT;
+
+/**
+ * Compares the radix-4 kernel of {@link FFT}, with its cached bit-reversal swaps, with
+ * the radix-2 kernel it replaced, which recomputed the bit reversal on every call, for
+ * the complex and the real forward transforms at sizes 64 to 16384. The last case
+ * compares an exactly 8000-point real transform, by Bluestein's algorithm, with the
+ * 8000 samples padded to 8192.
+ * <br><br>
+ * Each call transforms a fresh copy of the same random frame, with a zero imaginary
+ * part for the complex transform; the copying is included in both times. The outputs of the two kernels are checked against each other first.
+ * <br><br>
+ * Usage: FFTBenchmark
+ */
+public class FFTBenchmark {
+
+    private static final int[] SIZES = {64, 256, 1024, 4096, 8192, 16384};
+
+    /** About this many points are transformed per timed run, whatever the size. */
+    private static final int POINTS_PER_RUN = 1 << 21;
+
+    /**
+     * The previous kernel: radix-2 stages, with the bit-reversal permutation computed
+     * on every call.
+     */
+    private static class RadixTwoFFT {
+
+        private final int n, m;
+
+        private final double[] cos;
+        private final double[] sin;
+
+        RadixTwoFFT(int n) {
+            this.n = n;
+            this.m = Integer.numberOfTrailingZeros(n);
+            cos = new double[n / 2];
+            sin = new double[n / 2];
+            for (int i = 0; i < n / 2; i++) {
+                cos[i] = Math.cos(-2 * Math.PI * i / n);
+                sin[i] = Math.sin(-2 * Math.PI * i / n);
+            }
+        }
+
+        void fft(double[] re, double[] im) {
+            transform(re, im, n, m);
+        }
+
+        private void transform(double[] re, double[] im, int size, int levels) {
+            int j = 0;
+            int n2 = size / 2;
+            for (int i = 1; i < size - 1; i++) {
+                int n1 = n2;
+                while (j >= n1) {
+                    j = j - n1;
+                    n1 = n1 / 2;
+                }
+                j = j + n1;
+
+                if (i < j) {
+                    double t = re[i];
+                    re[i] = re[j];
+                    re[j] = t;
+                    t = im[i];
+                    im[i] = im[j];
+                    im[j] = t;
+                }
+            }
+
+            n2 = 1;
+            for (int i = 0; i < levels; i++) {
+                int n1 = n2;
+                n2 = n2 + n2;
+                int a = 0;
+                for (j = 0; j < n1; j++) {
+                    double c = cos[a];
+                    double s = sin[a];
+                    a += 1 << (m - i - 1);
+                    for (int k = j; k < size; k = k + n2) {
+                        double t1 = c * re[k + n1] - s * im[k + n1];
+                        double t2 = s * re[k + n1] + c * im[k + n1];
+                        re[k + n1] = re[k] - t1;
+                        im[k + n1] = im[k] - t2;
+                        re[k] = re[k] + t1;
+                        im[k] = im[k] + t2;
+                    }
+                }
+            }
+        }
+
+        void realForward(double[] x, double[] re, double[] im) {
+            int h = n / 2;
+            for (int k = 0; k < h; k++) {
+                double even = x[2 * k];
+                im[k] = x[2 * k + 1];
+                re[k] = even;
+            }
+
+            transform(re, im, h, m - 1);
+
+            double r0 = re[0];
+            double i0 = im[0];
+            re[0] = r0 + i0;
+            im[0] = 0;
+            re[h] = r0 - i0;
+            im[h] = 0;
+
+            for (int k = 1, j = h - 1; k <= j; k++, j--) {
+                double zkr = re[k], zki = im[k];
+                double zjr = re[j], zji = im[j];
+
+                double er = 0.5 * (zkr + zjr);
+                double ei = 0.5 * (zki - zji);
+                double or = 0.5 * (zki + zji);
+                double oi = -0.5 * (zkr - zjr);
+
+                double tr = cos[k] * or - sin[k] * oi;
+                double ti = cos[k] * oi + sin[k] * or;
+
+                re[k] = er + tr;
+                im[k] = ei + ti;
+                re[j] = er - tr;
+                im[j] = ti - ei;
+            }
+        }
+    }
+
+    /** A transform of a fresh copy of a frame, timed per call. */
+    private abstract static class Case implements Runnable {
+
+        final double[] frame;
+        final double[] re;
+        final double[] im;
+        final int calls;
+
+        Case(double[] frame, int size) {
+            this.frame = frame;
+            re = new double[size];
+            im = new double[size];
+            calls = Math.max(1, POINTS_PER_RUN / size);
+        }
+
+        @Override
+        public void run() {
+            for (int i = 0; i < calls; i++) {
+                System.arraycopy(frame, 0, re, 0, frame.length);
+                transform();
+            }
+        }
+
+        abstract void transform();
+
+        /** @return the time of one call, in microseconds. */
+        double time() {
+            return Benchmarks.bestOf(this) / 1000.0 / calls;
+        }
+    }
+
+    private static double[] randomFrame(int size, long seed) {
+        Random random = new Random(seed);
+        double[] frame = new double[size];
+        for (int i = 0; i < size; i++) {
+            frame[i] = random.nextInt(1 << 16) + Short.MIN_VALUE;
+        }
+        return frame;
+    }
+
+    /**
+     * @return the largest difference between the outputs, relative to the largest output.
+     */
+    private static double relativeError(double[] re, double[] im, double[] otherRe, double[] otherIm, int bins) {
+        double peak = 0;
+        double error = 0;
+        for (int k = 0; k < bins; k++) {
+            peak = Math.max(peak, Math.hypot(re[k], im[k]));
+            error = Math.max(error, Math.hypot(re[k] - otherRe[k], im[k] - otherIm[k]));
+        }
+        return error / peak;
+    }
+
+    public static void main(String[] args) {
+        System.out.printf(Locale.US, "best of %d runs, microseconds per transform%n", Benchmarks.RUNS);
+        System.out.printf(Locale.US, "%6s %12s %12s %7s %12s %12s %7s%n",
+                "size", "complex old", "complex new", "", "real old", "real new", "");
+        for (int size : SIZES) {
+            final double[] frame = randomFrame(size, size);
+            final RadixTwoFFT oldFFT = new RadixTwoFFT(size);
+            final FFT newFFT = new FFT(size);
+
+            Case oldComplex = new Case(frame, size) {
+                @Override
+                void transform() {
+                    Arrays.fill(im, 0);
+                    oldFFT.fft(re, im);
+                }
+            };
+            Case newComplex = new Case(frame, size) {
+                @Override
+                void transform() {
+                    Arrays.fill(im, 0);
+                    newFFT.fft(re, im);
+                }
+            };
+            Case oldReal = new Case(frame, size) {
+                @Override
+                void transform() {
+                    oldFFT.realForward(re, re, im);
+                }
+            };
+            Case newReal = new Case(frame, size) {
+                @Override
+                void transform() {
+                    newFFT.realForward(re, re, im);
+                }
+            };
+
+            oldComplex.run();
+            newComplex.run();
+            double complexError = relativeError(oldComplex.re, oldComplex.im, newComplex.re, newComplex.im, size);
+            oldReal.run();
+            newReal.run();
+            double realError = relativeError(oldReal.re, oldReal.im, newReal.re, newReal.im, size / 2 + 1);
+            if (complexError > 1e-12 || realError > 1e-12) {
+                throw new AssertionError("kernels disagree at " + size + " points: " + complexError + ", " + realError);
+            }
+
+            double oldComplexTime = oldComplex.time();
+            double newComplexTime = newComplex.time();
+            double oldRealTime = oldReal.time();
+            double newRealTime = newReal.time();
+            System.out.printf(Locale.US, "%6d %12.2f %12.2f %6.2fx %12.2f %12.2f %6.2fx%n", size,
+                    oldComplexTime, newComplexTime, oldComplexTime / newComplexTime,
+                    oldRealTime, newRealTime, oldRealTime / newRealTime);
+        }
+
+        // one second of 8 kHz audio, transformed exactly or padded to the next power of two
+        final double[] second = randomFrame(8000, 8000);
+        final FFT exact = new FFT(8000);
+        final FFT padded = new FFT(8192);
+        Case exactReal = new Case(second, 8000) {
+            @Override
+            void transform() {
+                exact.realForward(re, re, im);
+            }
+        };
+        Case paddedReal = new Case(second, 8192) {
+            @Override
+            void transform() {
+                Arrays.fill(re, frame.length, re.length, 0);
+                padded.realForward(re, re, im);
+            }
+        };
+        System.out.printf(Locale.US, "real 8000 points (Bluestein) %.2f, padded to 8192 %.2f%n",
+                exactReal.time(), paddedReal.time());
+    }
+}
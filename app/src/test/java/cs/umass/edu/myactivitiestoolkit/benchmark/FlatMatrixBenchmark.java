@@ -0,0 +1,101 @@
+package cs.umass.edu.myactivitiestoolkit.benchmark;
+
+import java.util.Locale;
+
+import cs.umass.edu.myactivitiestoolkit.audio.FlatMatrix;
+import cs.umass.edu.myactivitiestoolkit.audio.Matrix;
+
+/**
+ * Compares {@link FlatMatrix#multiplyInto(FlatMatrix, FlatMatrix)} with
+ * {@link Matrix#times(Matrix)} at the sizes of the MFCC: the 20x4097 mel filterbank
+ * applied to one and to eight spectra, and the 12x20 DCT applied to one frame and to a
+ * second of frames, with a square product for reference. The products are checked
+ * against each other first; they may differ in rounding, since the flat kernels sum in
+ * a different order.
+ * <br><br>
+ * Reported per size: the time of one product and the bytes it allocates.
+ * <br><br>
+ * Usage: FlatMatrixBenchmark
+ */
+public class FlatMatrixBenchmark {
+
+    /** The rows and columns of A, and the columns of B, of each product. */
+    private static final int[][] SIZES = {
+            {20, 4097, 1},
+            {20, 4097, 8},
+            {12, 20, 1},
+            {12, 20, 100},
+            {64, 64, 64}
+    };
+
+    /** About this many multiply-adds are computed per timed run, whatever the size. */
+    private static final long OPERATIONS_PER_RUN = 20 * 1000 * 1000;
+
+    /** Keeps the results alive, so the products are not optimized away. */
+    private static double sink;
+
+    /** A product repeated enough times to be timed. */
+    private abstract static class Case implements Runnable {
+
+        final int calls;
+
+        Case(int calls) {
+            this.calls = calls;
+        }
+
+        @Override
+        public void run() {
+            for (int i = 0; i < calls; i++) {
+                multiply();
+            }
+        }
+
+        abstract void multiply();
+    }
+
+    public static void main(String[] args) {
+        System.out.printf(Locale.US, "best of %d runs, per product%n", Benchmarks.RUNS);
+        for (int[] size : SIZES) {
+            final Matrix A = Matrix.random(size[0], size[1]);
+            final Matrix B = Matrix.random(size[1], size[2]);
+            final FlatMatrix flatA = FlatMatrix.fromMatrix(A);
+            final FlatMatrix flatB = FlatMatrix.fromMatrix(B);
+            final FlatMatrix flatC = new FlatMatrix(size[0], size[2]);
+
+            Matrix C = A.times(B);
+            flatA.multiplyInto(flatB, flatC);
+            double error = 0;
+            for (int i = 0; i < size[0]; i++) {
+                for (int j = 0; j < size[2]; j++) {
+                    error = Math.max(error, Math.abs(C.get(i, j) - flatC.get(i, j)) / Math.abs(C.get(i, j)));
+                }
+            }
+            if (error > 1e-12) {
+                throw new AssertionError("products differ by " + error);
+            }
+
+            int calls = (int) Math.max(1, OPERATIONS_PER_RUN / ((long) size[0] * size[1] * size[2]));
+            Case times = new Case(calls) {
+                @Override
+                void multiply() {
+                    sink += A.times(B).get(0, 0);
+                }
+            };
+            Case multiplyInto = new Case(calls) {
+                @Override
+                void multiply() {
+                    flatA.multiplyInto(flatB, flatC);
+                    sink += flatC.get(0, 0);
+                }
+            };
+            double timesTime = Benchmarks.bestOf(times) / 1000.0 / calls;
+            double multiplyIntoTime = Benchmarks.bestOf(multiplyInto) / 1000.0 / calls;
+            System.out.printf(Locale.US,
+                    "%4dx%-4d * %4dx%-3d  Matrix.times %8.2f us %7d B  FlatMatrix %8.2f us %3d B  %4.1fx  error %.0e%n",
+                    size[0], size[1], size[1], size[2],
+                    timesTime, Benchmarks.allocationOf(times) / calls,
+                    multiplyIntoTime, Benchmarks.allocationOf(multiplyInto) / calls,
+                    timesTime / multiplyIntoTime, error);
+        }
+    }
+}
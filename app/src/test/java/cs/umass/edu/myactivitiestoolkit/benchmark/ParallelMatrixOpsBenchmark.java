@@ -0,0 +1,127 @@
+package cs.umass.edu.myactivitiestoolkit.benchmark;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+
+import cs.umass.edu.myactivitiestoolkit.audio.Matrix;
+import cs.umass.edu.myactivitiestoolkit.audio.ParallelMatrixOps;
+
+/**
+ * Measures how the operations of {@link ParallelMatrixOps} scale with the number of
+ * threads, on matrices the size of batch feature extraction, against the sequential
+ * {@link Matrix} methods. Each result is checked to be bit-identical to the sequential
+ * one at every parallelism. Scaling is only meaningful up to the number of processors
+ * available, which is printed first.
+ * <br><br>
+ * Reported per operation: the sequential time, and the time and speedup with pools of
+ * 1, 2, 4, 8 and 16 threads.
+ * <br><br>
+ * Usage: ParallelMatrixOpsBenchmark [rows]
+ */
+public class ParallelMatrixOpsBenchmark {
+
+    private static final int[] PARALLELISM = {1, 2, 4, 8, 16};
+
+    /** An operation run sequentially or on a pool. */
+    private abstract static class Operation {
+
+        final String name;
+
+        Operation(String name) {
+            this.name = name;
+        }
+
+        /** @param pool the pool to run on, or null to run sequentially. */
+        abstract Object run(ForkJoinPool pool);
+    }
+
+    private static boolean identical(Object a, Object b) {
+        if (a instanceof Matrix) {
+            return Arrays.deepEquals(((Matrix) a).getArray(), ((Matrix) b).getArray());
+        }
+        return Double.doubleToLongBits((Double) a) == Double.doubleToLongBits((Double) b);
+    }
+
+    private static double time(final Operation operation, final ForkJoinPool pool) {
+        return Benchmarks.bestOf(new Runnable() {
+            @Override
+            public void run() {
+                operation.run(pool);
+            }
+        }) / 1e6;
+    }
+
+    public static void main(String[] args) {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        final Matrix A = Matrix.random(rows, 400);
+        final Matrix B = Matrix.random(400, 300);
+        final Matrix C = Matrix.random(rows, 400);
+        System.out.printf(Locale.US, "%d processors, best of %d runs, milliseconds; "
+                        + "A, C %dx400, B 400x300%n",
+                Runtime.getRuntime().availableProcessors(), Benchmarks.RUNS, rows);
+
+        Operation[] operations = {
+                new Operation("A * B") {
+                    @Override
+                    Object run(ForkJoinPool pool) {
+                        return pool == null ? A.times(B) : ParallelMatrixOps.times(A, B, pool);
+                    }
+                },
+                new Operation("A'") {
+                    @Override
+                    Object run(ForkJoinPool pool) {
+                        return pool == null ? A.transpose() : ParallelMatrixOps.transpose(A, pool);
+                    }
+                },
+                new Operation("A .* C") {
+                    @Override
+                    Object run(ForkJoinPool pool) {
+                        return pool == null ? A.arrayTimes(C) : ParallelMatrixOps.arrayTimes(A, C, pool);
+                    }
+                },
+                new Operation("norm1") {
+                    @Override
+                    Object run(ForkJoinPool pool) {
+                        return pool == null ? A.norm1() : ParallelMatrixOps.norm1(A, pool);
+                    }
+                },
+                new Operation("normInf") {
+                    @Override
+                    Object run(ForkJoinPool pool) {
+                        return pool == null ? A.normInf() : ParallelMatrixOps.normInf(A, pool);
+                    }
+                }
+        };
+
+        StringBuilder header = new StringBuilder(String.format(Locale.US, "%-8s %10s", "", "sequential"));
+        for (int threads : PARALLELISM) {
+            header.append(String.format(Locale.US, " %16s", threads + (threads == 1 ? " thread" : " threads")));
+        }
+        System.out.println(header);
+
+        ForkJoinPool[] pools = new ForkJoinPool[PARALLELISM.length];
+        for (int i = 0; i < pools.length; i++) {
+            pools[i] = new ForkJoinPool(PARALLELISM[i]);
+        }
+        try {
+            for (Operation operation : operations) {
+                Object expected = operation.run(null);
+                double sequential = time(operation, null);
+                StringBuilder line = new StringBuilder(String.format(Locale.US, "%-8s %10.2f", operation.name, sequential));
+                for (int i = 0; i < pools.length; i++) {
+                    if (!identical(expected, operation.run(pools[i]))) {
+                        throw new AssertionError(operation.name + " differs with " + PARALLELISM[i] + " threads");
+                    }
+                    double parallel = time(operation, pools[i]);
+                    line.append(String.format(Locale.US, " %9.2f %5.2fx", parallel, sequential / parallel));
+                }
+                System.out.println(line);
+            }
+        } finally {
+            for (ForkJoinPool pool : pools) {
+                pool.shutdown();
+            }
+        }
+    }
+}
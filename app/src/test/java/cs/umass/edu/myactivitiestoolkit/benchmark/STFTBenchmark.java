@@ -0,0 +1,126 @@
+package cs.umass.edu.myactivitiestoolkit.benchmark;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+
+import cs.umass.edu.myactivitiestoolkit.audio.STFT;
+import cs.umass.edu.myactivitiestoolkit.audio.WindowFunction;
+import cs.umass.edu.myactivitiestoolkit.processing.FFT;
+
+/**
+ * Compares the incremental {@link STFT} of the audio service with recomputing the
+ * spectrogram of each one-second buffer from scratch, as the service did through
+ * Spectrogram.computeSpectrogram of AudioFeatureExtraction.jar. The jar is no longer
+ * available, so the baseline reproduces what its API forced: the buffer copied to a
+ * double[], new arrays for every frame and column, and a complex FFT of each frame,
+ * with the windows restarting at every buffer.
+ * <br><br>
+ * Reported: the time and allocation per buffer, the number of columns over several
+ * buffers, which only the incremental STFT gets right across buffer boundaries, and the
+ * largest error of its columns against a double-precision transform of each frame.
+ * <br><br>
+ * Usage: STFTBenchmark [buffers]
+ */
+public class STFTBenchmark {
+
+    private static final int SAMPLE_RATE = 8000;
+
+    /** The window and hop of the audio service's spectrogram. */
+    private static final int WINDOW_SIZE = 100;
+    private static final int HOP_SIZE = 50;
+
+    private static final int FFT_SIZE = 128;
+
+    /** How many times each buffer is processed per timed run. */
+    private static final int CALLS = 100;
+
+    /**
+     * Computes the spectrogram of one buffer from scratch, with rectangular windows as
+     * the service requested from the jar.
+     */
+    private static double[][] computeFromScratch(short[] buffer) {
+        double[] samples = new double[buffer.length];
+        for (int i = 0; i < buffer.length; i++) {
+            samples[i] = buffer[i];
+        }
+        FFT fft = new FFT(FFT_SIZE);
+        int numColumns = (samples.length - WINDOW_SIZE) / HOP_SIZE + 1;
+        double[][] columns = new double[numColumns][];
+        for (int c = 0; c < numColumns; c++) {
+            double[] re = new double[FFT_SIZE];
+            double[] im = new double[FFT_SIZE];
+            System.arraycopy(samples, c * HOP_SIZE, re, 0, WINDOW_SIZE);
+            fft.fft(re, im);
+            double[] column = new double[FFT_SIZE];
+            for (int k = 0; k < FFT_SIZE; k++) {
+                column[k] = Math.hypot(re[k], im[k]);
+            }
+            columns[c] = column;
+        }
+        return columns;
+    }
+
+    public static void main(String[] args) {
+        int numBuffers = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        Random random = new Random(SAMPLE_RATE);
+        final short[] signal = new short[numBuffers * SAMPLE_RATE];
+        for (int i = 0; i < signal.length; i++) {
+            signal[i] = (short) Math.round(2000 * random.nextGaussian());
+        }
+
+        // columns and accuracy over consecutive buffers
+        STFT stft = new STFT(WINDOW_SIZE, HOP_SIZE);
+        WindowFunction window = WindowFunction.get(WindowFunction.Type.HAMMING, WINDOW_SIZE);
+        FFT fft = new FFT(FFT_SIZE);
+        double[] re = new double[FFT_SIZE];
+        double[] im = new double[FFT_SIZE];
+        int incrementalColumns = 0;
+        int restartedColumns = 0;
+        double peak = 0;
+        double error = 0;
+        for (int b = 0; b < numBuffers; b++) {
+            short[] buffer = Arrays.copyOfRange(signal, b * SAMPLE_RATE, (b + 1) * SAMPLE_RATE);
+            restartedColumns += computeFromScratch(buffer).length;
+            int numColumns = stft.process(buffer, buffer.length);
+            for (int c = 0; c < numColumns; c++, incrementalColumns++) {
+                window.copyWindowed(signal, incrementalColumns * HOP_SIZE, re, FFT_SIZE);
+                Arrays.fill(im, 0);
+                fft.fft(re, im);
+                for (int k = 0; k < stft.getNumBins(); k++) {
+                    double magnitude = Math.hypot(re[k], im[k]);
+                    peak = Math.max(peak, magnitude);
+                    error = Math.max(error, Math.abs(stft.getColumns()[c][k] - magnitude));
+                }
+            }
+        }
+        System.out.printf(Locale.US, "%d buffers of %d samples: %d columns incremental, %d restarting per buffer, "
+                        + "%d for one continuous signal; max error %.1e of peak%n",
+                numBuffers, SAMPLE_RATE, incrementalColumns, restartedColumns,
+                (signal.length - WINDOW_SIZE) / HOP_SIZE + 1, error / peak);
+
+        // time and allocation per buffer
+        final short[] buffer = Arrays.copyOf(signal, SAMPLE_RATE);
+        final STFT timed = new STFT(WINDOW_SIZE, HOP_SIZE);
+        Runnable fromScratch = new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < CALLS; i++) {
+                    computeFromScratch(buffer);
+                }
+            }
+        };
+        Runnable incremental = new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < CALLS; i++) {
+                    timed.process(buffer, buffer.length);
+                }
+            }
+        };
+        System.out.printf(Locale.US, "from scratch %.3f ms %8.0f B per buffer%n",
+                Benchmarks.bestOf(fromScratch) / 1e6 / CALLS, (double) Benchmarks.allocationOf(fromScratch) / CALLS);
+        System.out.printf(Locale.US, "incremental  %.3f ms %8.0f B per buffer%n",
+                Benchmarks.bestOf(incremental) / 1e6 / CALLS, (double) Benchmarks.allocationOf(incremental) / CALLS);
+    }
+}
@@ -0,0 +1,230 @@
+package cs.umass.edu.myactivitiestoolkit.benchmark;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import cs.umass.edu.myactivitiestoolkit.replay.LatencyRecorder;
+import cs.umass.edu.myactivitiestoolkit.services.FilterStage;
+import cs.umass.edu.myactivitiestoolkit.steps.OnStepListener;
+import cs.umass.edu.myactivitiestoolkit.steps.StepDetector;
+
+/**
+ * Compares the {@link cs.umass.edu.myactivitiestoolkit.steps.AccelerometerRingBuffer}
+ * behind the {@link StepDetector} with the list it replaced, which allocated an object,
+ * a float[] and a double[] per sample and ran Collections.min and Collections.max over
+ * each 200-sample window. Both engines see the same filtered walking signal in
+ * {@link StepDetector.DetectionMode#BLOCK} mode, so they must find the same steps.
+ * <br><br>
+ * Reported per engine: the time per sample, the bytes allocated per sample, and the
+ * latency of single samples, where the samples which close a window carry the min/max
+ * scan of the list.
+ * <br><br>
+ * Usage: StepDetectorBenchmark [samples]
+ */
+public class StepDetectorBenchmark {
+
+    private static final int SAMPLE_RATE = 50;
+
+    /** Samples per detection window, as in the {@link StepDetector}. */
+    private static final int WINDOW = 200;
+
+    private static final double DELTA_THRESHOLD = 5;
+
+    /**
+     * The previous engine: a list of buffered samples, each holding its own copy of the
+     * filtered vector, scanned for its min and max once the window is full.
+     */
+    private static class ListStepDetector {
+
+        private static class Sample implements Comparable<Sample> {
+            final float[] vector;
+            final long timestamp;
+            final float value;
+
+            Sample(float[] vector, long timestamp) {
+                this.vector = vector;
+                this.timestamp = timestamp;
+                double sum = 0;
+                for (float v : vector) {
+                    sum += v * v;
+                }
+                value = (float) Math.sqrt(sum);
+            }
+
+            @Override
+            public int compareTo(Sample other) {
+                return Float.compare(value, other.value);
+            }
+        }
+
+        private final List<Sample> buffer = new ArrayList<>();
+
+        int stepCount;
+
+        void onFilteredAccelerometerReading(long timestamp, float[] filteredValues) {
+            // the filter returned a new double[], which was converted to a new float[]
+            double[] filtered = new double[filteredValues.length];
+            for (int i = 0; i < filtered.length; i++) {
+                filtered[i] = filteredValues[i];
+            }
+            float[] values = new float[filtered.length];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = (float) filtered[i];
+            }
+            buffer.add(new Sample(values, timestamp));
+
+            if (buffer.size() > WINDOW) {
+                Sample min = Collections.min(buffer);
+                Sample max = Collections.max(buffer);
+                if (max.value - min.value > DELTA_THRESHOLD) {
+                    double threshold = (max.value + min.value) / 2;
+                    for (int i = 1; i < buffer.size(); i++) {
+                        if (buffer.get(i).value > buffer.get(i - 1).value
+                                && buffer.get(i - 1).value <= threshold
+                                && buffer.get(i).value >= threshold) {
+                            stepCount++;
+                        }
+                    }
+                }
+                buffer.clear();
+            }
+        }
+    }
+
+    private final long[] timestamps;
+
+    private final float[][] samples;
+
+    private final LatencyRecorder latencies;
+
+    private ListStepDetector listDetector;
+
+    private StepDetector ringDetector;
+
+    private int ringStepCount;
+
+    /**
+     * @param size the number of samples to generate.
+     */
+    public StepDetectorBenchmark(int size) {
+        timestamps = new long[size];
+        samples = new float[size][];
+        latencies = new LatencyRecorder(size);
+
+        // walking at 1.8 steps per second, with sensor noise, filtered as on the device
+        Random random = new Random(size);
+        FilterStage stage = new FilterStage(StepDetector.FILTER_SPEC);
+        stage.setSamplingPeriod(1000 * 1000 / SAMPLE_RATE);
+        float[] raw = new float[3];
+        for (int i = 0; i < size; i++) {
+            timestamps[i] = i * 1000L / SAMPLE_RATE;
+            double phase = 2 * Math.PI * 1.8 * i / SAMPLE_RATE;
+            raw[0] = (float) (1.5 * Math.sin(phase / 2) + 0.3 * random.nextGaussian());
+            raw[1] = (float) (9.8 + 5 * Math.sin(phase) + 0.3 * random.nextGaussian());
+            raw[2] = (float) (2 * Math.cos(phase) + 0.3 * random.nextGaussian());
+            samples[i] = stage.filter(timestamps[i], raw).clone();
+        }
+    }
+
+    private void resetList() {
+        listDetector = new ListStepDetector();
+    }
+
+    private void resetRing() {
+        ringDetector = new StepDetector(StepDetector.DetectionMode.BLOCK);
+        ringStepCount = 0;
+        ringDetector.registerOnStepListener(new OnStepListener() {
+            @Override
+            public void onStepCountUpdated(int stepCount) {
+                ringStepCount = stepCount;
+            }
+
+            @Override
+            public void onStepDetected(long timestamp, float[] values) {
+                // only the count is compared
+            }
+        });
+    }
+
+    private void runList() {
+        resetList();
+        for (int i = 0; i < samples.length; i++) {
+            listDetector.onFilteredAccelerometerReading(timestamps[i], samples[i]);
+        }
+    }
+
+    private void runRing() {
+        resetRing();
+        for (int i = 0; i < samples.length; i++) {
+            ringDetector.onFilteredAccelerometerReading(timestamps[i], samples[i]);
+        }
+    }
+
+    /**
+     * Replays the samples one at a time, recording the latency of each.
+     * @return the mean latency of the samples which close a window, in nanoseconds.
+     */
+    private double measureLatencies(boolean list) {
+        latencies.reset();
+        long windowCloseTotal = 0;
+        int windowCloses = 0;
+        for (int i = 0; i < samples.length; i++) {
+            long start = System.nanoTime();
+            if (list) {
+                listDetector.onFilteredAccelerometerReading(timestamps[i], samples[i]);
+            } else {
+                ringDetector.onFilteredAccelerometerReading(timestamps[i], samples[i]);
+            }
+            long latency = System.nanoTime() - start;
+            latencies.record(latency);
+            if (i % (WINDOW + 1) == WINDOW) {
+                windowCloseTotal += latency;
+                windowCloses++;
+            }
+        }
+        return (double) windowCloseTotal / Math.max(1, windowCloses);
+    }
+
+    private void report(String name, final boolean list, int steps) {
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                if (list) {
+                    runList();
+                } else {
+                    runRing();
+                }
+            }
+        };
+        long best = Benchmarks.bestOf(task);
+        long allocated = Benchmarks.allocationOf(task);
+        if (list) {
+            resetList();
+        } else {
+            resetRing();
+        }
+        double windowClose = measureLatencies(list);
+        System.out.printf(Locale.US,
+                "%-5s %6.1f ns/sample %7.1f B/sample  latency p50=%dns p99=%dns window close=%.0fns  steps=%d%n",
+                name, (double) best / samples.length, (double) allocated / samples.length,
+                latencies.getPercentile(50), latencies.getPercentile(99), windowClose, steps);
+    }
+
+    public static void main(String[] args) {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 1000 * 1000;
+        StepDetectorBenchmark benchmark = new StepDetectorBenchmark(size);
+        System.out.printf(Locale.US, "%d samples at %d Hz, best of %d runs%n", size, SAMPLE_RATE, Benchmarks.RUNS);
+
+        benchmark.runList();
+        benchmark.runRing();
+        if (benchmark.listDetector.stepCount != benchmark.ringStepCount) {
+            throw new AssertionError("step counts differ: list " + benchmark.listDetector.stepCount
+                    + ", ring " + benchmark.ringStepCount);
+        }
+        benchmark.report("list", true, benchmark.listDetector.stepCount);
+        benchmark.report("ring", false, benchmark.ringStepCount);
+    }
+}
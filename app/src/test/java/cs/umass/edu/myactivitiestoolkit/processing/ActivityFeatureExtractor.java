@@ -0,0 +1,144 @@
+package cs.umass.edu.myactivitiestoolkit.processing;
+
+import java.util.Arrays;
+
+/**
+ * Extracts activity recognition features over windows of tri-axial accelerometer data.
+ * This mirrors {@code extract_features} in the server-side {@code features.py}, in the
+ * same order, which is the order the server's classifier was trained on: the mean,
+ * median, standard deviation, variance, minimum and maximum of the x, y and z axes, each
+ * statistic for all three axes before the next statistic, then the same six statistics
+ * of the magnitude, and last the entropy of a 5-bin histogram over all values.
+ * <br><br>
+ * No app code extracts activity features; the class serves the replay harness, so it
+ * lives in the unit test sources with it.
+ * <br><br>
+ * Scratch space is allocated once per extractor, so an instance should not be shared
+ * across threads.
+ */
+public class ActivityFeatureExtractor {
+
+    /** The number of axes in each accelerometer sample. */
+    private static final int NUM_AXES = 3;
+
+    /** The number of statistics computed per axis and for the magnitude. */
+    private static final int NUM_STATISTICS = 6;
+
+    /** The number of histogram bins used for the entropy feature. */
+    private static final int NUM_BINS = 5;
+
+    /** The number of features produced for each window. */
+    public static final int NUM_FEATURES = (NUM_AXES + 1) * NUM_STATISTICS + 1;
+
+    /** Index of the mean magnitude within the feature vector. */
+    public static final int MAGNITUDE_MEAN_INDEX = NUM_AXES * NUM_STATISTICS;
+
+    /** The maximum number of samples per window. */
+    private final int maxWindowSize;
+
+    /** Holds one signal of the current window while computing its statistics. */
+    private final double[] scratch;
+
+    /** Holds the magnitude of each sample in the current window. */
+    private final double[] magnitudes;
+
+    private final int[] histogram = new int[NUM_BINS];
+
+    /**
+     * @param maxWindowSize the maximum number of samples per window.
+     */
+    public ActivityFeatureExtractor(int maxWindowSize) {
+        this.maxWindowSize = maxWindowSize;
+        scratch = new double[maxWindowSize];
+        magnitudes = new double[maxWindowSize];
+    }
+
+    /**
+     * Computes the features over a window of accelerometer samples.
+     * @param samples interleaved x, y, z values.
+     * @param offset index of the first x value of the window in samples.
+     * @param windowSize the number of samples in the window.
+     * @param features array of length at least {@link #NUM_FEATURES} which receives the features.
+     */
+    public void extractFeatures(float[] samples, int offset, int windowSize, double[] features) {
+        if (windowSize <= 0 || windowSize > maxWindowSize) {
+            throw new IllegalArgumentException("Window size must be in [1, " + maxWindowSize + "].");
+        }
+        for (int axis = 0; axis < NUM_AXES; axis++) {
+            for (int i = 0; i < windowSize; i++) {
+                scratch[i] = samples[offset + i * NUM_AXES + axis];
+            }
+            // grouped by statistic, like numpy's statistics over axis 0
+            computeStatistics(scratch, windowSize, features, axis, NUM_AXES);
+        }
+
+        for (int i = 0; i < windowSize; i++) {
+            double sum = 0;
+            for (int axis = 0; axis < NUM_AXES; axis++) {
+                double value = samples[offset + i * NUM_AXES + axis];
+                sum += value * value;
+            }
+            magnitudes[i] = Math.sqrt(sum);
+        }
+        computeStatistics(magnitudes, windowSize, features, MAGNITUDE_MEAN_INDEX, 1);
+
+        features[MAGNITUDE_MEAN_INDEX + NUM_STATISTICS] = computeEntropy(samples, offset, windowSize);
+    }
+
+    /**
+     * Writes the mean, median, standard deviation, variance, min and max of the first
+     * n values into features, at index, index + stride, and so on. The values are sorted
+     * in place.
+     */
+    private void computeStatistics(double[] values, int n, double[] features, int index, int stride) {
+        double sum = 0;
+        for (int i = 0; i < n; i++) {
+            sum += values[i];
+        }
+        double mean = sum / n;
+        double variance = 0;
+        for (int i = 0; i < n; i++) {
+            double diff = values[i] - mean;
+            variance += diff * diff;
+        }
+        variance /= n;
+
+        Arrays.sort(values, 0, n);
+        double median = (n % 2 == 1) ? values[n / 2] : (values[n / 2 - 1] + values[n / 2]) / 2;
+
+        features[index] = mean;
+        features[index + stride] = median;
+        features[index + 2 * stride] = Math.sqrt(variance);
+        features[index + 3 * stride] = variance;
+        features[index + 4 * stride] = values[0];
+        features[index + 5 * stride] = values[n - 1];
+    }
+
+    /**
+     * Computes the entropy feature, {@code -sum(v * log(v))} over the non-empty bins of
+     * a 5-bin histogram spanning all values in the window, as in {@code features.py}.
+     */
+    private double computeEntropy(float[] samples, int offset, int windowSize) {
+        int count = windowSize * NUM_AXES;
+        float min = Float.MAX_VALUE;
+        float max = -Float.MAX_VALUE;
+        for (int i = 0; i < count; i++) {
+            float value = samples[offset + i];
+            if (value < min) min = value;
+            if (value > max) max = value;
+        }
+        Arrays.fill(histogram, 0);
+        double width = (max - min) / NUM_BINS;
+        for (int i = 0; i < count; i++) {
+            int bin = width > 0 ? (int) ((samples[offset + i] - min) / width) : 0;
+            histogram[Math.min(bin, NUM_BINS - 1)]++;
+        }
+        double entropy = 0;
+        for (int v : histogram) {
+            if (v > 0) {
+                entropy += -v * Math.log(v);
+            }
+        }
+        return entropy;
+    }
+}
@@ -0,0 +1,64 @@
+package cs.umass.edu.myactivitiestoolkit.processing;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks the {@link ActivityFeatureExtractor} against {@code extract_features} of the
+ * server-side {@code features.py}, whose feature order the classifier was trained on.
+ */
+public class ActivityFeatureExtractorTest {
+
+    /** A window of x, y, z samples, exact in single precision. */
+    private static final float[] WINDOW = {
+            -0.5f, 9.75f, 1.25f,
+            0.25f, 10.5f, 2.0f,
+            1.0f, 8.25f, 0.5f,
+            -1.25f, 9.0f, 1.75f,
+            0.75f, 11.25f, -0.25f,
+            0.0f, 7.5f, 1.0f,
+            -0.75f, 10.0f, 2.5f
+    };
+
+    /** The output of features.extract_features for {@link #WINDOW}. */
+    private static final double[] EXPECTED = {
+            // mean, median, std, var, min and max, each of x, y and z
+            -0.07142857142857142, 9.464285714285714, 1.25,
+            0.0, 9.75, 1.25,
+            0.7525466966323385, 1.2058530725810095, 0.8660254037844386,
+            0.5663265306122449, 1.4540816326530612, 0.75,
+            -1.25, 7.5, -0.25,
+            1.0, 11.25, 2.5,
+            // mean, median, std, var, min and max of the magnitude
+            9.613161820738354, 9.842509842514763, 1.2238603245520907,
+            1.497834094012749, 7.566372975210778, 11.277743568639961,
+            // entropy
+            -38.00451229771042
+    };
+
+    @Test
+    public void matchesFeaturesPy() {
+        ActivityFeatureExtractor extractor = new ActivityFeatureExtractor(WINDOW.length / 3);
+        double[] features = new double[ActivityFeatureExtractor.NUM_FEATURES];
+        extractor.extractFeatures(WINDOW, 0, WINDOW.length / 3, features);
+
+        assertEquals(EXPECTED.length, features.length);
+        for (int i = 0; i < EXPECTED.length; i++) {
+            assertEquals("feature " + i, EXPECTED[i], features[i], 1e-9);
+        }
+        assertEquals(EXPECTED[18], features[ActivityFeatureExtractor.MAGNITUDE_MEAN_INDEX], 0);
+    }
+
+    @Test
+    public void readsTheWindowAtAnOffset() {
+        float[] samples = new float[3 + WINDOW.length];
+        System.arraycopy(WINDOW, 0, samples, 3, WINDOW.length);
+        ActivityFeatureExtractor extractor = new ActivityFeatureExtractor(WINDOW.length / 3);
+        double[] features = new double[ActivityFeatureExtractor.NUM_FEATURES];
+        extractor.extractFeatures(samples, 3, WINDOW.length / 3, features);
+        for (int i = 0; i < EXPECTED.length; i++) {
+            assertEquals("feature " + i, EXPECTED[i], features[i], 1e-9);
+        }
+    }
+}
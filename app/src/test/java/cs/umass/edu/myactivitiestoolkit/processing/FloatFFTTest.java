@@ -0,0 +1,127 @@
+package cs.umass.edu.myactivitiestoolkit.processing;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the single-precision transforms of {@link FloatFFT} against the double-precision
+ * transforms of {@link FFT} on the same frames. The error is the largest difference of
+ * any bin, relative to the largest magnitude of the reference spectrum, so it is the
+ * error as a fraction of the full scale of the frame.
+ */
+public class FloatFFTTest {
+
+    /** The largest error accepted, well above the ~2e-7 measured up to 8192 points. */
+    private static final double MAX_RELATIVE_ERROR = 1e-5;
+
+    private static final int[] SIZES = {2, 4, 16, 256, 1024, 8192};
+
+    @Test
+    public void complexTransformOfTones() {
+        for (int n : SIZES) {
+            assertComplexAccuracy("tones", tones(n));
+        }
+    }
+
+    @Test
+    public void complexTransformOfNoise() {
+        for (int n : SIZES) {
+            assertComplexAccuracy("noise", noise(n, n));
+        }
+    }
+
+    @Test
+    public void realTransformOfTones() {
+        for (int n : SIZES) {
+            assertRealAccuracy("tones", tones(n));
+        }
+    }
+
+    @Test
+    public void realTransformOfNoise() {
+        for (int n : SIZES) {
+            assertRealAccuracy("noise", noise(n, n));
+        }
+    }
+
+    @Test
+    public void realTransformOfFullScaleSamples() {
+        for (int n : SIZES) {
+            double[] x = new double[n];
+            for (int i = 0; i < n; i++) {
+                x[i] = (i & 1) == 0 ? Short.MAX_VALUE : Short.MIN_VALUE;
+            }
+            assertRealAccuracy("full scale", x);
+        }
+    }
+
+    private static void assertComplexAccuracy(String signal, double[] x) {
+        int n = x.length;
+        double[] re = x.clone();
+        double[] im = new double[n];
+        new FFT(n).fft(re, im);
+
+        float[] floatRe = toFloat(x);
+        float[] floatIm = new float[n];
+        new FloatFFT(n).fft(floatRe, floatIm);
+
+        assertAccurate("complex " + signal + ", " + n + " points", re, im, floatRe, floatIm, n);
+    }
+
+    private static void assertRealAccuracy(String signal, double[] x) {
+        int n = x.length;
+        double[] re = new double[n];
+        double[] im = new double[n / 2 + 1];
+        new FFT(n).realForward(x, re, im);
+
+        float[] floatRe = toFloat(x);
+        float[] floatIm = new float[n / 2 + 1];
+        new FloatFFT(n).realForward(floatRe, floatRe, floatIm);
+
+        assertAccurate("real " + signal + ", " + n + " points", re, im, floatRe, floatIm, n / 2 + 1);
+    }
+
+    private static void assertAccurate(String message, double[] re, double[] im,
+                                       float[] floatRe, float[] floatIm, int bins) {
+        double peak = 0;
+        double error = 0;
+        for (int k = 0; k < bins; k++) {
+            peak = Math.max(peak, Math.hypot(re[k], im[k]));
+            error = Math.max(error, Math.hypot(floatRe[k] - re[k], floatIm[k] - im[k]));
+        }
+        double relativeError = peak > 0 ? error / peak : error;
+        assertTrue(message + ": relative error " + relativeError, relativeError < MAX_RELATIVE_ERROR);
+    }
+
+    /** A frame of 16-bit tones between the bins, with an offset. */
+    private static double[] tones(int n) {
+        double[] x = new double[n];
+        for (int i = 0; i < n; i++) {
+            x[i] = 1000 + 16000 * Math.sin(2 * Math.PI * 0.1237 * i)
+                    + 8000 * Math.cos(2 * Math.PI * 0.3711 * i + 0.5)
+                    + 100 * Math.sin(2 * Math.PI * 0.0419 * i);
+        }
+        return x;
+    }
+
+    /** A frame of uniform 16-bit noise, the same for every run. */
+    private static double[] noise(int n, long seed) {
+        Random random = new Random(seed);
+        double[] x = new double[n];
+        for (int i = 0; i < n; i++) {
+            x[i] = random.nextInt(1 << 16) + Short.MIN_VALUE;
+        }
+        return x;
+    }
+
+    private static float[] toFloat(double[] x) {
+        float[] f = new float[x.length];
+        for (int i = 0; i < x.length; i++) {
+            f[i] = (float) x[i];
+        }
+        return f;
+    }
+}
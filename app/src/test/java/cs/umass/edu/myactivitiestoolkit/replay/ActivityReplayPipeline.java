@@ -0,0 +1,62 @@
+package cs.umass.edu.myactivitiestoolkit.replay;
+
+import java.util.Locale;
+
+import cs.umass.edu.myactivitiestoolkit.processing.ActivityFeatureExtractor;
+
+/**
+ * Replays tri-axial accelerometer samples through the {@link ActivityFeatureExtractor},
+ * over non-overlapping windows as in the server-side activity recognition script.
+ */
+public class ActivityReplayPipeline implements ReplayPipeline {
+
+    private static final int NUM_AXES = 3;
+
+    private final int windowSize;
+
+    private final ActivityFeatureExtractor extractor;
+
+    private final float[] window;
+
+    private final double[] features = new double[ActivityFeatureExtractor.NUM_FEATURES];
+
+    private int windowFill;
+
+    private int windowCount;
+
+    /** Mean magnitude of each window, summed, to report a data-dependent result. */
+    private double magnitudeSum;
+
+    /**
+     * @param windowSize the number of samples per window.
+     */
+    public ActivityReplayPipeline(int windowSize) {
+        this.windowSize = windowSize;
+        extractor = new ActivityFeatureExtractor(windowSize);
+        window = new float[windowSize * NUM_AXES];
+    }
+
+    @Override
+    public void reset() {
+        windowFill = 0;
+        windowCount = 0;
+        magnitudeSum = 0;
+    }
+
+    @Override
+    public void onSample(long timestamp, float[] values) {
+        System.arraycopy(values, 0, window, windowFill * NUM_AXES, NUM_AXES);
+        if (++windowFill == windowSize) {
+            extractor.extractFeatures(window, 0, windowSize, features);
+            magnitudeSum += features[ActivityFeatureExtractor.MAGNITUDE_MEAN_INDEX];
+            windowCount++;
+            windowFill = 0;
+        }
+    }
+
+    @Override
+    public String getSummary() {
+        return String.format(Locale.US, "windows=%d features/window=%d mean|a|=%.3f", windowCount,
+                ActivityFeatureExtractor.NUM_FEATURES, windowCount == 0 ? 0 : magnitudeSum / windowCount);
+    }
+}
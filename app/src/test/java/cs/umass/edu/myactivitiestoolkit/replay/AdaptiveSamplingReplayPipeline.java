@@ -0,0 +1,213 @@
+package cs.umass.edu.myactivitiestoolkit.replay;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+import cs.umass.edu.myactivitiestoolkit.processing.AdaptiveSamplingController;
+import cs.umass.edu.myactivitiestoolkit.processing.AdaptiveSamplingController.Mode;
+import cs.umass.edu.myactivitiestoolkit.services.FilterStage;
+import cs.umass.edu.myactivitiestoolkit.steps.OnStepListener;
+import cs.umass.edu.myactivitiestoolkit.steps.StepDetector;
+
+/**
+ * Replays a full-rate accelerometer trace under the {@link AdaptiveSamplingController}
+ * and reports the duty cycle: the fraction of the trace's samples the accelerometer
+ * would have delivered, the time spent in each sampling mode and the number of mode
+ * changes. A second detector sees every sample, so the step counts show what the
+ * savings cost.
+ * <br><br>
+ * The kept samples take the same path as in the accelerometer service: the trace is
+ * decimated to the rate of the current mode, filtered by the {@link FilterStage} of the
+ * shared accelerometer stream, which is retuned on every rate change and released while
+ * suspended, and collected into batches spanning {@link #REPORT_LATENCY}. Each batch
+ * goes through the step detector in one pass, and then sample by sample through the
+ * controller.
+ * <br><br>
+ * While suspended, the significant motion sensor is emulated: it fires
+ * {@link #TRIGGER_LATENCY} milliseconds after the magnitude first deviates from its
+ * value at suspension by more than {@link #TRIGGER_THRESHOLD}, and the samples in
+ * between are lost, as they would be on the device.
+ */
+public class AdaptiveSamplingReplayPipeline implements ReplayPipeline, AdaptiveSamplingController.OnModeChangedListener {
+
+    private static final long MILLIS_PER_SECOND = 1000;
+
+    /** Deviation of the magnitude, in m/s^2, which the emulated trigger responds to. */
+    private static final double TRIGGER_THRESHOLD = 1.5;
+
+    /** Delay of the emulated significant motion trigger, in milliseconds. */
+    private static final long TRIGGER_LATENCY = 5 * MILLIS_PER_SECOND;
+
+    /** The span of a batch, in milliseconds, as the accelerometer service's report latency. */
+    private static final long REPORT_LATENCY = MILLIS_PER_SECOND;
+
+    private final AdaptiveSamplingController controller = new AdaptiveSamplingController();
+
+    private StepDetector adaptiveStepDetector;
+
+    private StepDetector fullRateStepDetector;
+
+    /** The filter of the accelerometer subscription, or null while suspended. */
+    private FilterStage stage;
+
+    private long[] batchTimestamps = new long[64];
+
+    private float[] batchValues = new float[3 * 64];
+
+    private int batchSize;
+
+    private final int[] stepCounts = new int[2];
+
+    private final long[] modeDurations = new long[Mode.values().length];
+
+    private int modeChanges;
+
+    private long lastTimestamp;
+
+    private long nextSampleDue;
+
+    private int samples;
+
+    private int keptSamples;
+
+    /** The magnitude when sampling was suspended. */
+    private double suspendedMagnitude;
+
+    /** The time motion was first seen while suspended, or -1. */
+    private long motionOnset;
+
+    private double lastMagnitude;
+
+    public AdaptiveSamplingReplayPipeline() {
+        controller.setSuspendEnabled(true);
+        controller.setOnModeChangedListener(this);
+    }
+
+    @Override
+    public void reset() {
+        controller.reset();
+        adaptiveStepDetector = newStepDetector(0);
+        fullRateStepDetector = newStepDetector(1);
+        stage = null;
+        subscribe(Mode.ACTIVE);
+        batchSize = 0;
+        stepCounts[0] = stepCounts[1] = 0;
+        for (int i = 0; i < modeDurations.length; i++) {
+            modeDurations[i] = 0;
+        }
+        modeChanges = 0;
+        lastTimestamp = Long.MIN_VALUE;
+        nextSampleDue = Long.MIN_VALUE;
+        samples = keptSamples = 0;
+        motionOnset = -1;
+    }
+
+    private StepDetector newStepDetector(final int index) {
+        StepDetector stepDetector = new StepDetector(StepDetector.DetectionMode.STREAMING);
+        stepDetector.registerOnStepListener(new OnStepListener() {
+            @Override
+            public void onStepCountUpdated(int stepCount) {
+                stepCounts[index] = stepCount;
+            }
+
+            @Override
+            public void onStepDetected(long timestamp, float[] values) {
+                // only the count is reported
+            }
+        });
+        return stepDetector;
+    }
+
+    /**
+     * Subscribes at the rate of the given mode: a new stage if sampling was suspended,
+     * otherwise the current stage, retuned, as the sensor hub does.
+     */
+    private void subscribe(Mode mode) {
+        if (stage == null) {
+            stage = new FilterStage(StepDetector.FILTER_SPEC);
+        }
+        stage.setSamplingPeriod(AdaptiveSamplingController.getSamplingPeriodUs(mode));
+    }
+
+    @Override
+    public void onSample(long timestamp, float[] values) {
+        if (lastTimestamp != Long.MIN_VALUE) {
+            modeDurations[controller.getMode().ordinal()] += timestamp - lastTimestamp;
+        }
+        lastTimestamp = timestamp;
+        samples++;
+        fullRateStepDetector.onAccelerometerReading(timestamp, values);
+
+        double magnitude = Math.sqrt(values[0] * values[0] + values[1] * values[1] + values[2] * values[2]);
+        if (controller.getMode() == Mode.SUSPENDED) {
+            if (motionOnset < 0 && Math.abs(magnitude - suspendedMagnitude) > TRIGGER_THRESHOLD) {
+                motionOnset = timestamp;
+            }
+            if (motionOnset >= 0 && timestamp - motionOnset >= TRIGGER_LATENCY) {
+                motionOnset = -1;
+                controller.onSignificantMotion(timestamp);
+            }
+            return;
+        }
+        if (timestamp < nextSampleDue) {
+            return;
+        }
+        // samples arrive at most at the rate of the current mode
+        double periodMillis = MILLIS_PER_SECOND / AdaptiveSamplingController.getSampleRate(controller.getMode());
+        nextSampleDue = timestamp + (long) periodMillis;
+        keptSamples++;
+        lastMagnitude = magnitude;
+
+        float[] filtered = stage.filter(timestamp, values);
+        if (batchSize == batchTimestamps.length) {
+            batchTimestamps = Arrays.copyOf(batchTimestamps, 2 * batchSize);
+            batchValues = Arrays.copyOf(batchValues, 6 * batchSize);
+        }
+        batchTimestamps[batchSize] = timestamp;
+        System.arraycopy(filtered, 0, batchValues, 3 * batchSize, 3);
+        batchSize++;
+        if (timestamp - batchTimestamps[0] >= REPORT_LATENCY) {
+            onBatch();
+        }
+    }
+
+    /** Processes a full batch as the accelerometer service does. */
+    private void onBatch() {
+        int size = batchSize;
+        batchSize = 0;
+        adaptiveStepDetector.onFilteredAccelerometerBatch(batchTimestamps, batchValues, size);
+        for (int i = 0; i < size; i++) {
+            controller.onSample(batchTimestamps[i], batchValues[3 * i], batchValues[3 * i + 1], batchValues[3 * i + 2]);
+        }
+    }
+
+    @Override
+    public void onModeChanged(Mode mode, long timestamp) {
+        modeChanges++;
+        adaptiveStepDetector.settle(timestamp);
+        if (mode == Mode.SUSPENDED) {
+            suspendedMagnitude = lastMagnitude;
+            stage = null;
+        } else {
+            subscribe(mode);
+            nextSampleDue = Long.MIN_VALUE;
+        }
+    }
+
+    @Override
+    public String getSummary() {
+        long total = 0;
+        for (long duration : modeDurations) {
+            total += duration;
+        }
+        StringBuilder summary = new StringBuilder(String.format(Locale.US,
+                "kept %d of %d samples (%.1f%%)", keptSamples, samples, 100.0 * keptSamples / Math.max(1, samples)));
+        for (Mode mode : Mode.values()) {
+            summary.append(String.format(Locale.US, " %s=%.1f%%", mode.name().toLowerCase(Locale.US),
+                    100.0 * modeDurations[mode.ordinal()] / Math.max(1, total)));
+        }
+        summary.append(String.format(Locale.US, " mode changes=%d steps=%d (full rate %d)",
+                modeChanges, stepCounts[0], stepCounts[1]));
+        return summary.toString();
+    }
+}
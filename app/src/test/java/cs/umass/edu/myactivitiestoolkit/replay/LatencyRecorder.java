@@ -0,0 +1,57 @@
+package cs.umass.edu.myactivitiestoolkit.replay;
+
+import java.util.Arrays;
+
+/**
+ * Records per-sample processing latencies and reports their percentiles. Storage is
+ * allocated up front so that recording does not disturb the timed loop.
+ */
+public class LatencyRecorder {
+
+    private final long[] latencies;
+
+    private int size;
+
+    private boolean sorted;
+
+    /**
+     * @param capacity the maximum number of latencies recorded.
+     */
+    public LatencyRecorder(int capacity) {
+        latencies = new long[capacity];
+    }
+
+    /**
+     * Records a latency. Latencies beyond the capacity are ignored.
+     * @param nanos the latency, in nanoseconds.
+     */
+    public void record(long nanos) {
+        if (size < latencies.length) {
+            latencies[size++] = nanos;
+            sorted = false;
+        }
+    }
+
+    /**
+     * Clears all recorded latencies.
+     */
+    public void reset() {
+        size = 0;
+    }
+
+    /**
+     * @param percentile the percentile, in [0, 100].
+     * @return the latency at the given percentile, in nanoseconds, or 0 if none were recorded.
+     */
+    public long getPercentile(double percentile) {
+        if (size == 0) {
+            return 0;
+        }
+        if (!sorted) {
+            Arrays.sort(latencies, 0, size);
+            sorted = true;
+        }
+        int index = (int) Math.ceil(percentile / 100.0 * size) - 1;
+        return latencies[Math.max(0, Math.min(index, size - 1))];
+    }
+}
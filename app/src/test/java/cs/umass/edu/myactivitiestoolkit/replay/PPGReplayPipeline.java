@@ -0,0 +1,51 @@
+package cs.umass.edu.myactivitiestoolkit.replay;
+
+import java.util.Locale;
+
+import cs.umass.edu.myactivitiestoolkit.ppg.HeartBeatDetector;
+import cs.umass.edu.myactivitiestoolkit.ppg.PPGEvent;
+import cs.umass.edu.myactivitiestoolkit.processing.ButterworthFilter;
+
+/**
+ * Replays mean red values through the same heart rate band-pass filter and
+ * {@link HeartBeatDetector} as the {@link cs.umass.edu.myactivitiestoolkit.services.PPGService}.
+ */
+public class PPGReplayPipeline implements ReplayPipeline {
+
+    /** Filter parameters, as in the PPG service. */
+    private static final double NOMINAL_SAMPLE_RATE = 30;
+    private static final double HEART_RATE_LOW_CUTOFF = 0.7;
+    private static final double CUTOFF_FREQUENCY = 4.0;
+    private static final int FILTER_ORDER = 2;
+
+    private ButterworthFilter filter;
+
+    private HeartBeatDetector heartBeatDetector;
+
+    private final float[] filtered = new float[1];
+
+    private int beats;
+
+    @Override
+    public void reset() {
+        filter = ButterworthFilter.bandPass(FILTER_ORDER, HEART_RATE_LOW_CUTOFF, CUTOFF_FREQUENCY,
+                NOMINAL_SAMPLE_RATE, 1);
+        heartBeatDetector = new HeartBeatDetector();
+        beats = 0;
+    }
+
+    @Override
+    public void onSample(long timestamp, float[] values) {
+        filter.filter(timestamp, values, filtered);
+        if (heartBeatDetector.onSample(new PPGEvent(filtered[0], timestamp))) {
+            beats++;
+        }
+    }
+
+    @Override
+    public String getSummary() {
+        return String.format(Locale.US, "beats=%d bpm=%d hrv=%.1fms rate=%.1fHz", beats,
+                heartBeatDetector.getBeatsPerMinute(), heartBeatDetector.getHeartRateVariability(),
+                filter.getDesignRate());
+    }
+}
@@ -0,0 +1,25 @@
+package cs.umass.edu.myactivitiestoolkit.replay;
+
+/**
+ * A processing pipeline driven by the {@link TraceReplayer}. Implementations wrap the
+ * same classes the sensor services use, so replayed results match the device.
+ */
+public interface ReplayPipeline {
+
+    /**
+     * Discards all state, so the trace can be replayed from the beginning.
+     */
+    void reset();
+
+    /**
+     * Processes a single sample. This is the timed call.
+     * @param timestamp the time of the sample, in milliseconds.
+     * @param values the sample values. The array is reused across calls.
+     */
+    void onSample(long timestamp, float[] values);
+
+    /**
+     * @return a one-line summary of the pipeline output for the last replay.
+     */
+    String getSummary();
+}
@@ -0,0 +1,132 @@
+package cs.umass.edu.myactivitiestoolkit.replay;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A recorded sensor trace held in memory, so it can be replayed without I/O in the
+ * timed loop. Each row of the CSV file holds a timestamp followed by one value per
+ * channel; any further columns (e.g. activity labels) are ignored. Blank lines,
+ * lines starting with '#' and a non-numeric header row are skipped.
+ */
+public class SensorTrace {
+
+    /** The timestamp of each sample, in milliseconds. */
+    private long[] timestamps;
+
+    /** The values of each sample, interleaved by channel. */
+    private float[] values;
+
+    /** The number of values per sample. */
+    private final int channels;
+
+    /** The number of samples in the trace. */
+    private int size;
+
+    private SensorTrace(int channels) {
+        this.channels = channels;
+        timestamps = new long[1024];
+        values = new float[1024 * channels];
+    }
+
+    /**
+     * Loads a trace from a CSV file.
+     * @param file the CSV file.
+     * @param channels the number of value columns following the timestamp.
+     * @param timeScale factor converting the timestamp column to milliseconds.
+     * @param sampleRate if positive, timestamps are synthesized at this rate (in Hz)
+     *                   and the timestamp column is ignored.
+     * @return the loaded trace.
+     * @throws IOException if the file cannot be read or a row has too few columns.
+     */
+    public static SensorTrace load(File file, int channels, double timeScale, double sampleRate) throws IOException {
+        SensorTrace trace = new SensorTrace(channels);
+        BufferedReader reader = new BufferedReader(new FileReader(file));
+        try {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] columns = line.split(",");
+                if (columns.length < channels + 1) {
+                    throw new IOException(file + ":" + lineNumber + ": expected at least "
+                            + (channels + 1) + " columns.");
+                }
+                double time;
+                try {
+                    time = Double.parseDouble(columns[0].trim());
+                } catch (NumberFormatException e) {
+                    if (trace.size == 0) {
+                        continue; // header row
+                    }
+                    throw new IOException(file + ":" + lineNumber + ": invalid timestamp.", e);
+                }
+                long timestamp = sampleRate > 0
+                        ? Math.round(trace.size * 1000.0 / sampleRate)
+                        : Math.round(time * timeScale);
+                trace.ensureCapacity(trace.size + 1);
+                trace.timestamps[trace.size] = timestamp;
+                for (int c = 0; c < channels; c++) {
+                    trace.values[trace.size * channels + c] = Float.parseFloat(columns[c + 1].trim());
+                }
+                trace.size++;
+            }
+        } finally {
+            reader.close();
+        }
+        return trace;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > timestamps.length) {
+            int newCapacity = Math.max(capacity, timestamps.length * 2);
+            timestamps = Arrays.copyOf(timestamps, newCapacity);
+            values = Arrays.copyOf(values, newCapacity * channels);
+        }
+    }
+
+    /**
+     * @return the number of samples in the trace.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the number of values per sample.
+     */
+    public int getChannels() {
+        return channels;
+    }
+
+    /**
+     * @param index index of the sample.
+     * @return the timestamp of the sample, in milliseconds.
+     */
+    public long getTimestamp(int index) {
+        return timestamps[index];
+    }
+
+    /**
+     * Copies the values of a sample into the given array.
+     * @param index index of the sample.
+     * @param out array of length at least {@link #getChannels()}.
+     */
+    public void copyValues(int index, float[] out) {
+        System.arraycopy(values, index * channels, out, 0, channels);
+    }
+
+    /**
+     * @return the duration of the trace, in milliseconds.
+     */
+    public long getDuration() {
+        return size == 0 ? 0 : timestamps[size - 1] - timestamps[0];
+    }
+}
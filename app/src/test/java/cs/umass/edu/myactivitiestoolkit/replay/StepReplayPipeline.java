@@ -0,0 +1,62 @@
+package cs.umass.edu.myactivitiestoolkit.replay;
+
+import java.util.Locale;
+
+import cs.umass.edu.myactivitiestoolkit.steps.OnStepListener;
+import cs.umass.edu.myactivitiestoolkit.steps.StepDetector;
+
+/**
+ * Replays tri-axial accelerometer samples through the {@link StepDetector}, including
+ * its Butterworth filter, and compares the step count against a ground truth.
+ */
+public class StepReplayPipeline implements ReplayPipeline, OnStepListener {
+
+    private final StepDetector.DetectionMode mode;
+
+    /** The true number of steps in the trace, or a negative value if unknown. */
+    private final int groundTruth;
+
+    private StepDetector stepDetector;
+
+    private int stepCount;
+
+    /**
+     * @param mode the detection mode of the step detector.
+     * @param groundTruth the true number of steps in the trace, or a negative value if unknown.
+     */
+    public StepReplayPipeline(StepDetector.DetectionMode mode, int groundTruth) {
+        this.mode = mode;
+        this.groundTruth = groundTruth;
+    }
+
+    @Override
+    public void reset() {
+        stepDetector = new StepDetector(mode);
+        stepDetector.registerOnStepListener(this);
+        stepCount = 0;
+    }
+
+    @Override
+    public void onSample(long timestamp, float[] values) {
+        stepDetector.onAccelerometerReading(timestamp, values);
+    }
+
+    @Override
+    public String getSummary() {
+        if (groundTruth < 0) {
+            return String.format(Locale.US, "steps=%d (%s)", stepCount, mode);
+        }
+        double error = groundTruth == 0 ? 0 : 100.0 * (stepCount - groundTruth) / groundTruth;
+        return String.format(Locale.US, "steps=%d truth=%d error=%+.1f%% (%s)", stepCount, groundTruth, error, mode);
+    }
+
+    @Override
+    public void onStepCountUpdated(int stepCount) {
+        this.stepCount = stepCount;
+    }
+
+    @Override
+    public void onStepDetected(long timestamp, float[] values) {
+        // only the count is reported
+    }
+}
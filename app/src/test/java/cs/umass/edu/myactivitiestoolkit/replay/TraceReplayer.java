@@ -0,0 +1,131 @@
+package cs.umass.edu.myactivitiestoolkit.replay;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+
+import cs.umass.edu.myactivitiestoolkit.steps.StepDetector;
+
+/**
+ * Headless replay engine which feeds a recorded sensor trace through one of the
+ * on-device processing pipelines as fast as possible and reports the throughput,
+ * the per-sample latency percentiles and the pipeline output. It runs on a plain
+ * JVM; only the Android stub library is needed on the class path. The harness is part
+ * of the unit test sources, so it is not packaged into the app; once they are built,
+ * e.g. by {@code ./gradlew testDebugUnitTest}, run it with
+ *
+ * <pre>
+ * java -cp app/build/intermediates/classes/test/debug:app/build/intermediates/classes/debug:$ANDROID_HOME/platforms/android-24/android.jar \
+ *      cs.umass.edu.myactivitiestoolkit.replay.TraceReplayer steps trace.csv --rate 25 --truth 120
+ * </pre>
+ *
+ * The trace is replayed several times and each run is reported, so that the later
+ * runs reflect JIT-compiled code.
+ *
+ * @see SensorTrace
+ * @see ReplayPipeline
+ */
+public class TraceReplayer {
+
+    private static final String USAGE =
+            "Usage: TraceReplayer <steps|ppg|activity|sampling> <trace.csv> [options]\n"
+            + "  --channels N    value columns after the timestamp (default 3, 1 for ppg)\n"
+            + "  --time-scale F  factor converting timestamps to milliseconds (default 1)\n"
+            + "  --rate HZ       synthesize timestamps at this rate instead\n"
+            + "  --truth N       ground-truth step count\n"
+            + "  --mode M        step detection mode, BLOCK or STREAMING (default STREAMING)\n"
+            + "  --window N      activity window size in samples (default 25)\n"
+            + "  --runs N        number of replays (default 5)";
+
+    private final SensorTrace trace;
+
+    private final ReplayPipeline pipeline;
+
+    private final LatencyRecorder latencies;
+
+    /**
+     * @param trace the trace to replay.
+     * @param pipeline the pipeline through which the trace is replayed.
+     */
+    public TraceReplayer(SensorTrace trace, ReplayPipeline pipeline) {
+        this.trace = trace;
+        this.pipeline = pipeline;
+        latencies = new LatencyRecorder(trace.size());
+    }
+
+    /**
+     * Replays the whole trace once and returns a report of the run.
+     * @return a one-line report of the throughput, latencies and pipeline output.
+     */
+    public String replay() {
+        float[] values = new float[trace.getChannels()];
+        pipeline.reset();
+        latencies.reset();
+
+        long start = System.nanoTime();
+        for (int i = 0; i < trace.size(); i++) {
+            trace.copyValues(i, values);
+            long sampleStart = System.nanoTime();
+            pipeline.onSample(trace.getTimestamp(i), values);
+            latencies.record(System.nanoTime() - sampleStart);
+        }
+        long elapsed = System.nanoTime() - start;
+
+        double samplesPerSecond = trace.size() / (elapsed / 1e9);
+        double realTimeFactor = trace.getDuration() / (elapsed / 1e6);
+        return String.format(Locale.US,
+                "%,.0f samples/s (%,.0fx real time) latency p50=%dns p90=%dns p99=%dns max=%dns | %s",
+                samplesPerSecond, realTimeFactor, latencies.getPercentile(50), latencies.getPercentile(90),
+                latencies.getPercentile(99), latencies.getPercentile(100), pipeline.getSummary());
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println(USAGE);
+            System.exit(1);
+        }
+        String pipelineName = args[0];
+        File file = new File(args[1]);
+        int channels = pipelineName.equals("ppg") ? 1 : 3;
+        double timeScale = 1;
+        double rate = 0;
+        int truth = -1;
+        StepDetector.DetectionMode mode = StepDetector.DetectionMode.STREAMING;
+        int windowSize = 25;
+        int runs = 5;
+        for (int i = 2; i < args.length; i++) {
+            String option = args[i];
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("Missing value for " + option + "\n" + USAGE);
+            }
+            String value = args[++i];
+            switch (option) {
+                case "--channels": channels = Integer.parseInt(value); break;
+                case "--time-scale": timeScale = Double.parseDouble(value); break;
+                case "--rate": rate = Double.parseDouble(value); break;
+                case "--truth": truth = Integer.parseInt(value); break;
+                case "--mode": mode = StepDetector.DetectionMode.valueOf(value.toUpperCase(Locale.US)); break;
+                case "--window": windowSize = Integer.parseInt(value); break;
+                case "--runs": runs = Integer.parseInt(value); break;
+                default: throw new IllegalArgumentException("Unknown option " + option + "\n" + USAGE);
+            }
+        }
+
+        ReplayPipeline pipeline;
+        switch (pipelineName) {
+            case "steps": pipeline = new StepReplayPipeline(mode, truth); break;
+            case "ppg": pipeline = new PPGReplayPipeline(); break;
+            case "activity": pipeline = new ActivityReplayPipeline(windowSize); break;
+            case "sampling": pipeline = new AdaptiveSamplingReplayPipeline(); break;
+            default: throw new IllegalArgumentException("Unknown pipeline " + pipelineName + "\n" + USAGE);
+        }
+
+        SensorTrace trace = SensorTrace.load(file, channels, timeScale, rate);
+        System.out.printf(Locale.US, "%s: %d samples, %.1f s%n", file.getName(), trace.size(),
+                trace.getDuration() / 1000.0);
+        TraceReplayer replayer = new TraceReplayer(trace, pipeline);
+        for (int run = 1; run <= runs; run++) {
+            System.out.println("run " + run + ": " + replayer.replay());
+        }
+    }
+}
@@ -169,6 +169,12 @@ try:
 
                     processThread = threading.Thread(target=detectSteps, args=(t,[x,y,z]))
                     processThread.start()
+                elif (sensor_type == u"SENSOR_ACCEL_BATCH"):
+                    # a batch of samples, as parallel arrays, oldest first
+                    batch = data['data']
+                    for t, x, y, z in zip(batch['t'], batch['x'], batch['y'], batch['z']):
+                        processThread = threading.Thread(target=detectSteps, args=(t,[x,y,z]))
+                        processThread.start()
 
             sys.stdout.flush()
         except KeyboardInterrupt: